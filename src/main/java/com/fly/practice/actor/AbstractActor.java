@@ -9,9 +9,13 @@ package com.fly.practice.actor;
 
 
 
-import java.util.Date;
-import java.util.LinkedList;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.regex.Pattern;
 
 import com.fly.practice.actor.utils.Utils;
@@ -24,6 +28,43 @@ import com.fly.practice.actor.utils.Utils;
  */
 public abstract class AbstractActor extends Utils implements Actor {
 	public static final int DEFAULT_MAX_MESSAGES = 100;
+
+	/** Actor option key for the mailbox type; default is MAILBOX_LINKED. */
+	public static final String MAILBOX = "mailbox";
+
+	/** Mailbox value: LinkedMailbox. */
+	public static final String MAILBOX_LINKED = "linked";
+
+	/** Mailbox value: RingBufferMailbox. */
+	public static final String MAILBOX_RING_BUFFER = "ringBuffer";
+
+	/** Actor option key for the mailbox capacity; default is getMaxMessageCount(). */
+	public static final String MAILBOX_CAPACITY = "mailboxCapacity";
+
+	/** Actor option key for the Mailbox.OverflowPolicy name; default is FAIL. */
+	public static final String OVERFLOW_POLICY = "overflowPolicy";
+
+	/** Actor option key for how long a BLOCK policy send waits (millis). */
+	public static final String BLOCK_MILLIS = "blockMillis";
+
+	/** Actor option key to give the mailbox a lane per message priority (true/false). */
+	public static final String PRIORITY_LANES = "priorityLanes";
+
+	/** Actor option key for the most messages received per activation; default 1. */
+	public static final String THROUGHPUT = "throughput";
+
+	/** Actor option key for the preferred dispatch thread (index) of AffinityActorScheduler. */
+	public static final String AFFINITY = "affinity";
+
+	/** Actor option key for the directory of a durable mailbox log; see DurableMailbox. */
+	public static final String DURABLE = "durable";
+
+	/** Actor option key for the time between durable log forces (millis); <= 0 never. */
+	public static final String DURABLE_SYNC_MILLIS = "durableSyncMillis";
+
+	/** Actor option key for the size of a durable log segment (bytes). */
+	public static final String DURABLE_SEGMENT_SIZE = "durableSegmentSize";
+
 	protected DefaultActorManager manager;
 
 	public ActorManager getManager() {
@@ -60,9 +101,16 @@ public abstract class AbstractActor extends Utils implements Actor {
 		return category;
 	}
 
+	/** The category this actor is routed under; maintained by the manager. */
+	volatile protected String memberCategory;
+
 	@Override
 	public void setCategory(String category) {
 		this.category = category;
+		DefaultActorManager xmanager = manager;
+		if (xmanager != null && memberCategory != null && !memberCategory.equals(category)) {
+			xmanager.categoryChanged(this);
+		}
 	}
 
 	/**
@@ -81,20 +129,153 @@ public abstract class AbstractActor extends Utils implements Actor {
 				logger.warning("receive message not removed: %s", m);
 			}
 			DefaultMessage dm = (DefaultMessage) m;
+			long start = System.nanoTime();
 			try {
-				dm.fireMessageListeners(new MessageEvent(this, dm, MessageEvent.MessageStatus.DELIVERED));
+				fireMessageEvent(dm, MessageEvent.MessageStatus.DELIVERED);
 				//logger.trace("receive %s processing %s", this.getName(), m);
 				loopBody(m);
-				dm.fireMessageListeners(new MessageEvent(this, dm, MessageEvent.MessageStatus.COMPLETED));
+				fireMessageEvent(dm, MessageEvent.MessageStatus.COMPLETED);
+				completed(dm);
+			} catch (Exception e) {
+				fireMessageEvent(dm, MessageEvent.MessageStatus.FAILED);
+				logger.error("loop exception", e);
+			}
+			recordDispatch(dm, start, System.nanoTime() - start);
+			recycle(dm);
+		}
+		return res;
+	}
+
+	/**
+	 * Receive up to max messages in one activation. If this actor overrides
+	 * loopBody(List) the messages are collected and given to it together,
+	 * else they are received one at a time.
+	 * 
+	 * @param max
+	 *            most messages to receive
+	 * @return number of messages received
+	 */
+	public int receive(int max) {
+		if (!isBatching()) {
+			int res = 0;
+			while (res < max && receive()) {
+				res++;
+			}
+			return res;
+		}
+		List<Message> xbatch = batch;
+		xbatch.clear();
+		Message m;
+		while (xbatch.size() < max && (m = testMessage()) != null) {
+			if (!remove(m)) {
+				logger.warning("receive message not removed: %s", m);
+			}
+			xbatch.add(m);
+		}
+		int res = xbatch.size();
+		if (res > 0) {
+			long start = System.nanoTime();
+			for (Message xm : xbatch) {
+				fireMessageEvent((DefaultMessage) xm, MessageEvent.MessageStatus.DELIVERED);
+			}
+			MessageEvent.MessageStatus status = MessageEvent.MessageStatus.COMPLETED;
+			try {
+				loopBody(xbatch);
 			} catch (Exception e) {
-				dm.fireMessageListeners(new MessageEvent(this, dm, MessageEvent.MessageStatus.FAILED));
+				status = MessageEvent.MessageStatus.FAILED;
 				logger.error("loop exception", e);
 			}
+			long each = (System.nanoTime() - start) / res;
+			for (Message xm : xbatch) {
+				DefaultMessage dm = (DefaultMessage) xm;
+				fireMessageEvent(dm, status);
+				if (status == MessageEvent.MessageStatus.COMPLETED) {
+					completed(dm);
+				}
+				recordDispatch(dm, start, each);
+				recycle(dm);
+			}
+			xbatch.clear();
 		}
-		manager.awaitMessage(this);
 		return res;
 	}
 
+	/** Reused by receive(int); only touched by the dispatching thread. */
+	protected final List<Message> batch = new ArrayList<Message>();
+
+	/**
+	 * Process several accepted messages at once. Used by receive(int) only if
+	 * a subclass overrides it; the default processes them one by one. If it
+	 * throws, all of the messages are reported FAILED.
+	 * 
+	 * @param messages
+	 *            the messages, oldest first; valid only during the call
+	 */
+	protected void loopBody(List<Message> messages) {
+		for (Message m : messages) {
+			loopBody(m);
+		}
+	}
+
+	protected Boolean batching;
+
+	/** Test if this actor's class overrides loopBody(List). */
+	protected boolean isBatching() {
+		if (batching == null) {
+			boolean res = false;
+			for (Class<?> c = getClass(); c != AbstractActor.class && !res; c = c.getSuperclass()) {
+				try {
+					c.getDeclaredMethod("loopBody", List.class);
+					res = true;
+				} catch (NoSuchMethodException e) {
+					// try the superclass
+				}
+			}
+			batching = res;
+		}
+		return batching;
+	}
+
+	/** Return a processed message to its pool if it is recyclable. */
+	protected void recycle(DefaultMessage dm) {
+		if (dm.isRecyclable() && !dm.hasMessageListeners()) {
+			// listeners (maybe async) may still look at it
+			dm.recycle();
+		}
+	}
+
+	/** Tell a message's listeners, if any, of a status change. */
+	protected void fireMessageEvent(DefaultMessage dm, MessageEvent.MessageStatus status) {
+		if (dm.hasMessageListeners()) {
+			DefaultActorManager xmanager = manager;
+			if (xmanager != null) {
+				xmanager.fireMessageEvent(this, dm, status);
+			} else {
+				dm.fireMessageStatus(this, status);
+			}
+		}
+	}
+
+	/** A message was processed without failing; a durable mailbox forgets it. */
+	protected void completed(DefaultMessage dm) {
+		if (dm.logId != 0) {
+			Mailbox mb = messages;
+			if (mb instanceof DurableMailbox) {
+				((DurableMailbox) mb).acknowledge(dm);
+			}
+		}
+	}
+
+	/** Count a processed message and record its queue wait and run time. */
+	protected void recordDispatch(DefaultMessage dm, long start, long execNanos) {
+		long wait = dm.enqueueTime != 0 ? start - dm.enqueueTime : 0;
+		metrics.dispatched(wait, execNanos);
+		ActorMetrics cm = categoryMetrics;
+		if (cm != null) {
+			cm.dispatched(wait, execNanos);
+		}
+	}
+
 	/**
 	 * Test to see if a message should be processed. Subclasses should override
 	 */
@@ -113,46 +294,213 @@ public abstract class AbstractActor extends Utils implements Actor {
 
 	/** Test a message against a defined subject pattern. */
 	protected DefaultMessage getMatch(String subject, boolean isRegExpr) {
-		DefaultMessage res = null;
-		synchronized (messages) {
-			res = (DefaultMessage) peekNext(subject, isRegExpr);
+		return (DefaultMessage) peekNext(subject, isRegExpr);
+	}
+
+	volatile protected Mailbox messages;
+
+	protected int affinity = -1;
+
+	protected int throughput = 1;
+
+	/** Get the most messages received per activation. */
+	public int getThroughput() {
+		return throughput;
+	}
+
+	/** Get the preferred dispatch thread index; -1 if none. */
+	public int getAffinity() {
+		return affinity;
+	}
+
+	/** The options this actor was configured with; reused to replace it. */
+	protected Map<String, Object> options;
+
+	/**
+	 * Configure this actor from its createActor() options (see the MAILBOX*
+	 * keys). Called by the manager before the actor is started. A mailbox
+	 * already set (taken over from a replaced actor) is kept.
+	 * 
+	 * @param options
+	 *            actor options; may be null
+	 */
+	public void configure(Map<String, Object> options) {
+		this.options = options;
+		Object capacity = options != null ? options.get(MAILBOX_CAPACITY) : null;
+		if (capacity != null) {
+			maxMessageCount = Integer.parseInt(capacity.toString());
+		}
+		Object xthroughput = options != null ? options.get(THROUGHPUT) : null;
+		if (xthroughput != null) {
+			throughput = Math.max(1, Integer.parseInt(xthroughput.toString()));
+		}
+		Object xaffinity = options != null ? options.get(AFFINITY) : null;
+		if (xaffinity != null) {
+			affinity = Integer.parseInt(xaffinity.toString());
+		}
+		if (messages == null) {
+			messages = createMailbox(options);
+		}
+	}
+
+	/**
+	 * Create this actor's mailbox. Subclasses may override to supply their
+	 * own.
+	 * 
+	 * @param options
+	 *            actor options; may be null
+	 */
+	protected Mailbox createMailbox(Map<String, Object> options) {
+		Object type = options != null ? options.get(MAILBOX) : null;
+		Object policy = options != null ? options.get(OVERFLOW_POLICY) : null;
+		Object block = options != null ? options.get(BLOCK_MILLIS) : null;
+		Mailbox.OverflowPolicy xpolicy = policy != null ? Mailbox.OverflowPolicy.valueOf(policy.toString())
+				: Mailbox.OverflowPolicy.FAIL;
+		long xblock = block != null ? Long.parseLong(block.toString()) : AbstractMailbox.DEFAULT_BLOCK_MILLIS;
+		Object durable = options != null ? options.get(DURABLE) : null;
+		// a durable mailbox applies the policy to the one it wraps
+		Mailbox.OverflowPolicy ipolicy = durable != null ? Mailbox.OverflowPolicy.BACKPRESSURE : xpolicy;
+		Object lanes = options != null ? options.get(PRIORITY_LANES) : null;
+		AbstractMailbox res;
+		if (lanes != null && Boolean.parseBoolean(lanes.toString())) {
+			AbstractMailbox[] xlanes = new AbstractMailbox[DefaultMessage.PRIORITY_HIGH + 1];
+			for (int i = 0; i < xlanes.length; i++) {
+				// the lanes never overflow; the outer mailbox applies the policy
+				xlanes[i] = createMailbox(type, Mailbox.OverflowPolicy.BACKPRESSURE, xblock);
+			}
+			res = new PriorityMailbox(xlanes, getMaxMessageCount(), ipolicy, xblock);
+		} else {
+			res = createMailbox(type, ipolicy, xblock);
+		}
+		if (durable != null) {
+			return new DurableMailbox(res, createLog(durable.toString(), options), xpolicy, xblock);
 		}
 		return res;
 	}
 
-	protected List<DefaultMessage> messages = new LinkedList<DefaultMessage>();
+	/**
+	 * Open the log of a durable mailbox, in a directory named after this actor.
+	 * 
+	 * @param dir
+	 *            directory of the actors' logs
+	 * @param options
+	 *            actor options
+	 */
+	protected MessageLog createLog(String dir, Map<String, Object> options) {
+		Object sync = options.get(DURABLE_SYNC_MILLIS);
+		Object size = options.get(DURABLE_SEGMENT_SIZE);
+		try {
+			return new MessageLog(new File(dir, getName()), size != null ? Integer.parseInt(size.toString())
+					: MessageLog.DEFAULT_SEGMENT_SIZE, sync != null ? Long.parseLong(sync.toString())
+					: MessageLog.DEFAULT_SYNC_MILLIS, new MessageCodec());
+		} catch (IOException e) {
+			throw new IllegalStateException("cannot open durable mailbox log in " + dir, e);
+		}
+	}
+
+	protected AbstractMailbox createMailbox(Object type, Mailbox.OverflowPolicy policy, long blockMillis) {
+		if (type == null || MAILBOX_LINKED.equals(type)) {
+			return new LinkedMailbox(getMaxMessageCount(), policy, blockMillis);
+		}
+		if (MAILBOX_RING_BUFFER.equals(type)) {
+			return new RingBufferMailbox(getMaxMessageCount(), policy, blockMillis);
+		}
+		throw new IllegalArgumentException("unknown mailbox: " + type);
+	}
+
+	/** Get the mailbox, creating the default one if not configured. */
+	public Mailbox getMailbox() {
+		Mailbox res = messages;
+		if (res == null) {
+			synchronized (this) {
+				if (messages == null) {
+					messages = createMailbox(null);
+				}
+				res = messages;
+			}
+		}
+		return res;
+	}
 
 	public DefaultMessage[] getMessages() {
-		return messages.toArray(new DefaultMessage[messages.size()]);
+		return getMailbox().toArray();
 	}
 
 	@Override
 	public int getMessageCount() {
-		synchronized (messages) {
-			return messages.size();
-		}
+		return getMailbox().size();
 	}
 
+	protected int maxMessageCount = DEFAULT_MAX_MESSAGES;
+
 	/**
 	 * Limit the number of messages that can be received.  Subclasses should override.
 	 */
 	@Override
 	public int getMaxMessageCount() {
-		return DEFAULT_MAX_MESSAGES;
+		return maxMessageCount;
 	}
 
-	/** Queue a messaged to be processed later. */
-	public void addMessage(DefaultMessage message) {
+	protected final MessageRecorder sentMessages = new MessageRecorder();
+
+	protected final ActorMetrics metrics = new ActorMetrics();
+
+	/** Metrics of the category this actor is routed under; set by the manager. */
+	volatile protected ActorMetrics categoryMetrics;
+
+	/** Get the send/dispatch counts and timings of this actor. */
+	public ActorMetrics getMetrics() {
+		return metrics;
+	}
+
+	/** Get the recorder of messages recently sent to this actor. */
+	public MessageRecorder getSentMessages() {
+		return sentMessages;
+	}
+
+	/**
+	 * Queue a messaged to be processed later.
+	 * 
+	 * @return false if the mailbox refused it (backpressure)
+	 */
+	public boolean addMessage(DefaultMessage message) {
 		if (message != null) {
-			synchronized (messages) {
-				if (messages.size() < getMaxMessageCount()) {
-					messages.add(message);
-					// messages.notifyAll();
-				} else {
-					throw new IllegalStateException("too many messages, cannot add");
-				}
+			message.enqueueTime = System.nanoTime();
+			return getMailbox().add(message);
+		}
+		return false;
+	}
+
+	/**
+	 * Queue a message only if the mailbox has room now, whatever its overflow
+	 * policy; never waits.
+	 * 
+	 * @return false if the mailbox is full
+	 */
+	public boolean offerMessage(DefaultMessage message) {
+		if (message != null) {
+			message.enqueueTime = System.nanoTime();
+			Mailbox mailbox = getMailbox();
+			if (mailbox instanceof AbstractMailbox) {
+				return ((AbstractMailbox) mailbox).offer(message);
 			}
-		} 
+			return !mailbox.isFull() && mailbox.add(message);
+		}
+		return false;
+	}
+
+	/**
+	 * Queue several messages, in order, to be processed later.
+	 * 
+	 * @return the number queued; less than all if the mailbox refused one
+	 *         (backpressure)
+	 */
+	public int addMessages(List<DefaultMessage> messages) {
+		long now = System.nanoTime();
+		for (DefaultMessage m : messages) {
+			m.enqueueTime = now;
+		}
+		return getMailbox().addAll(messages);
 	}
 
 	@Override
@@ -172,32 +520,46 @@ public abstract class AbstractActor extends Utils implements Actor {
 	public Message peekNext(String subject, boolean isRegExpr) {
 		Message res = null;
 		if (isActive) {
-			Pattern p = subject != null ? (isRegExpr ? Pattern.compile(subject)
-					: null) : null;
-			long now = new Date().getTime();
-			synchronized (messages) {
-				for (DefaultMessage m : messages) {
-					if (m.getDelayUntil() <= now) {
-						boolean match = subject == null
-								|| (isRegExpr ? m.subjectMatches(p) : m
-										.subjectMatches(subject));
-						if (match) {
-							res = m;
-							break;
-						}
-					}
-				}
-			}
+			Pattern p = subject != null && isRegExpr ? getPattern(subject) : null;
+			res = getMailbox().peek(subject, p, System.currentTimeMillis());
 		}
 		// logger.trace("peekNext %s, %b: %s", subject, isRegExpr, res);
 		return res;
 	}
 
+	/** Limit on cached subject patterns; the cache is cleared when reached. */
+	public static final int MAX_CACHED_PATTERNS = 1000;
+
+	protected static final Map<String, Pattern> patterns = new ConcurrentHashMap<String, Pattern>();
+
+	/**
+	 * Get the compiled form of a subject reg expr. Patterns are shared by all
+	 * actors so a receive loop compiles each one once.
+	 */
+	protected static Pattern getPattern(String regExpr) {
+		Pattern res = patterns.get(regExpr);
+		if (res == null) {
+			if (patterns.size() >= MAX_CACHED_PATTERNS) {
+				patterns.clear();
+			}
+			res = Pattern.compile(regExpr);
+			patterns.put(regExpr, res);
+		}
+		return res;
+	}
+
+	/**
+	 * Get the earliest delivery time of any delayed message.
+	 * 
+	 * @return time (in millis since epoch) or -1 if no message is delayed
+	 */
+	public long getNextDelayUntil() {
+		return getMailbox().getNextDelayUntil();
+	}
+
 	@Override
 	public boolean remove(Message message) {
-		synchronized (messages) {
-			return messages.remove(message);
-		}
+		return getMailbox().remove(message);
 	}
 
 	protected boolean isActive;
@@ -225,7 +587,23 @@ public abstract class AbstractActor extends Utils implements Actor {
 	@Override
 	public void run() {
 		runBody();
-		((DefaultActorManager) getManager()).awaitMessage(this);
+	}
+
+	/** Set when started until its first dispatch calls run(); whatever the scheduler. */
+	volatile protected boolean runPending;
+
+	/**
+	 * Set while this actor is queued or running, by any scheduler, the built-in
+	 * runnables/waiters one included. Only whoever sets it may dispatch the
+	 * actor, so it is given at most one thread at a time.
+	 */
+	protected final AtomicBoolean scheduled = new AtomicBoolean();
+
+	/** The actor that took over this one's name and mailbox; set by the manager. */
+	volatile protected AbstractActor replacement;
+
+	public AbstractActor getReplacement() {
+		return replacement;
 	}
 
 	protected boolean hasThread;
@@ -245,7 +623,7 @@ public abstract class AbstractActor extends Utils implements Actor {
 
 	protected String bodyString() {
 		return "name=" + name + ", category=" + category + ", messages="
-				+ messages.size();
+				+ getMessageCount();
 	}
 
 	volatile protected boolean shutdown;
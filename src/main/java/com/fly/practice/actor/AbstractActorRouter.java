@@ -0,0 +1,46 @@
+package com.fly.practice.actor;
+
+/**
+ * Common member handling for ActorRouter implementations. The members array is
+ * replaced, never changed, so select() reads it without locking.
+ */
+public abstract class AbstractActorRouter implements ActorRouter {
+
+	protected static final AbstractActor[] NO_MEMBERS = new AbstractActor[0];
+
+	volatile protected AbstractActor[] members = NO_MEMBERS;
+
+	@Override
+	public void setMembers(AbstractActor[] members) {
+		this.members = members;
+	}
+
+	@Override
+	public AbstractActor[] getMembers() {
+		return members;
+	}
+
+	/** Test if an actor's mailbox has room. */
+	protected static boolean hasRoom(AbstractActor a) {
+		return a.getMessageCount() < a.getMaxMessageCount() && !a.getMailbox().isFull();
+	}
+
+	/** Find the member with the fewest pending messages that has room. */
+	protected static AbstractActor leastLoaded(AbstractActor[] members) {
+		int min = Integer.MAX_VALUE;
+		AbstractActor res = null;
+		for (AbstractActor a : members) {
+			int mcount = a.getMessageCount();
+			if (mcount < min && mcount < a.getMaxMessageCount() && !a.getMailbox().isFull()) {
+				min = mcount;
+				res = a;
+			}
+		}
+		return res;
+	}
+
+	@Override
+	public String toString() {
+		return getClass().getSimpleName() + "[members=" + members.length + "]";
+	}
+}
@@ -0,0 +1,131 @@
+package com.fly.practice.actor;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.regex.Pattern;
+
+/**
+ * Common overflow policy handling for Mailbox implementations. Subclasses
+ * supply a non-blocking offer() and a poll() of the oldest message.
+ */
+public abstract class AbstractMailbox implements Mailbox {
+
+	/** Default time a BLOCK policy send waits for space. */
+	public static final long DEFAULT_BLOCK_MILLIS = 1000;
+
+	protected final int capacity;
+
+	protected final OverflowPolicy policy;
+
+	protected final long blockMillis;
+
+	protected final AtomicLong dropped = new AtomicLong();
+
+	protected AbstractMailbox(int capacity, OverflowPolicy policy, long blockMillis) {
+		if (capacity <= 0) {
+			throw new IllegalArgumentException("capacity must be > 0: " + capacity);
+		}
+		this.capacity = capacity;
+		this.policy = policy != null ? policy : OverflowPolicy.FAIL;
+		this.blockMillis = blockMillis;
+	}
+
+	/**
+	 * Queue a message if there is room.
+	 *
+	 * @return false if full
+	 */
+	protected abstract boolean offer(DefaultMessage message);
+
+	/** Remove and return the oldest pending message; null if empty. */
+	protected abstract DefaultMessage poll();
+
+	@Override
+	public boolean add(DefaultMessage message) {
+		if (offer(message)) {
+			return true;
+		}
+		switch (policy) {
+		case BLOCK:
+			// the sender may be an actor thread; never wait forever
+			long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(blockMillis);
+			long park = 1000;
+			while (!offer(message)) {
+				if (System.nanoTime() - deadline >= 0) {
+					throw new IllegalStateException("too many messages, cannot add");
+				}
+				LockSupport.parkNanos(this, park);
+				park = Math.min(park * 2, TimeUnit.MILLISECONDS.toNanos(1));
+			}
+			return true;
+		case DROP_OLDEST:
+			do {
+				if (poll() != null) {
+					dropped.incrementAndGet();
+				}
+			} while (!offer(message));
+			return true;
+		case DROP_NEWEST:
+			dropped.incrementAndGet();
+			return true;
+		case BACKPRESSURE:
+			return false;
+		default:
+			throw new IllegalStateException("too many messages, cannot add");
+		}
+	}
+
+	@Override
+	public int addAll(List<DefaultMessage> messages) {
+		int res = 0;
+		for (DefaultMessage m : messages) {
+			if (!add(m)) {
+				break;
+			}
+			res++;
+		}
+		return res;
+	}
+
+	@Override
+	public int capacity() {
+		return capacity;
+	}
+
+	@Override
+	public boolean isFull() {
+		return size() >= capacity;
+	}
+
+	public OverflowPolicy getPolicy() {
+		return policy;
+	}
+
+	/** Get the time a BLOCK policy add() waits for space. */
+	public long getBlockMillis() {
+		return blockMillis;
+	}
+
+	@Override
+	public long getDroppedCount() {
+		return dropped.get();
+	}
+
+	/** Test if a message is due and matches a peek() selection. */
+	protected static boolean matches(DefaultMessage m, String subject, Pattern pattern, long now) {
+		if (m.getDelayUntil() > now) {
+			return false;
+		}
+		if (pattern != null) {
+			return m.subjectMatches(pattern);
+		}
+		return subject == null || m.subjectMatches(subject);
+	}
+
+	@Override
+	public String toString() {
+		return getClass().getSimpleName() + "[size=" + size() + ", capacity=" + capacity + ", policy=" + policy + "]";
+	}
+}
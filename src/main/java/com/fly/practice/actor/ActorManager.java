@@ -1,6 +1,7 @@
 package com.fly.practice.actor;
 
 import java.util.Collection;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
@@ -80,6 +81,31 @@ public interface ActorManager {
 	 */
 	void detachActor(Actor actor);
 
+	/**
+	 * Restart an actor: replace it with a new instance of its class, keeping
+	 * its pending messages.
+	 * 
+	 * @param actor
+	 *            the started actor
+	 * @return the new instance
+	 */
+	Actor restartActor(Actor actor);
+
+	/**
+	 * Replace an actor with a new instance, possibly of another class. The new
+	 * instance takes over its name, category and pending messages; senders
+	 * are not stopped.
+	 * 
+	 * @param actor
+	 *            the started actor
+	 * @param clazz
+	 *            class of the new instance. must have no argument constructor
+	 * @param options
+	 *            options added to the actor's; may be null
+	 * @return the new instance
+	 */
+	Actor replaceActor(Actor actor, Class<? extends Actor> clazz, Map<String, Object> options);
+
 	/**
 	 * Send a message to an actor. The message will be processed at a later time.
 	 * 
@@ -110,6 +136,26 @@ public interface ActorManager {
 	 */
 	int send(Message message, Actor from, Collection<Actor> to);
 
+	/**
+	 * Send several messages to an actor in one operation. The messages will be processed at a later time, in order.
+	 * 
+	 * @param messages the messages
+	 * @param from the source actor; may be null
+	 * @param to the target actor
+	 * @return number of messages the actor accepted
+	 */
+	int sendAll(List<? extends Message> messages, Actor from, Actor to);
+
+	/**
+	 * Send several messages to each of a set of actors. The messages will be processed at a later time, in order.
+	 * 
+	 * @param messages the messages
+	 * @param from the source actor; may be null
+	 * @param to the target actors
+	 * @return number of messages accepted, summed over the actors
+	 */
+	int sendAll(List<? extends Message> messages, Actor from, Collection<Actor> to);
+
 	/**
 	 * Send a message to an actor in the category. The message will be processed at a later time.
 	 * 
@@ -0,0 +1,65 @@
+package com.fly.practice.actor;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Send and dispatch counts plus queue wait and loopBody time histograms of an
+ * actor or a whole category. All values are striped adders; they are
+ * updated without locks and can be read at any time.
+ *
+ * @see AbstractActor#getMetrics()
+ * @see DefaultActorManager#getCategoryMetrics(String)
+ */
+public class ActorMetrics {
+
+	protected final LongAdder sendCount = new LongAdder();
+
+	protected final LongAdder dispatchCount = new LongAdder();
+
+	protected final Histogram queueWait = new Histogram();
+
+	protected final Histogram execTime = new Histogram();
+
+	/** Get the number of messages accepted. */
+	public long getSendCount() {
+		return sendCount.sum();
+	}
+
+	/** Get the number of messages processed. */
+	public long getDispatchCount() {
+		return dispatchCount.sum();
+	}
+
+	/** Get the time from a message entering a mailbox until processed. */
+	public Histogram getQueueWait() {
+		return queueWait;
+	}
+
+	/** Get the loopBody() execution time. */
+	public Histogram getExecTime() {
+		return execTime;
+	}
+
+	protected void sent(int count) {
+		sendCount.add(count);
+	}
+
+	protected void dispatched(long waitNanos, long execNanos) {
+		dispatchCount.increment();
+		queueWait.record(waitNanos);
+		execTime.record(execNanos);
+	}
+
+	public void reset() {
+		sendCount.reset();
+		dispatchCount.reset();
+		queueWait.reset();
+		execTime.reset();
+	}
+
+	@Override
+	public String toString() {
+		return getClass().getSimpleName() + "[sent=" + getSendCount() + ", dispatched=" + getDispatchCount()
+				+ ", queueWait={" + queueWait + "}, execTime={" + execTime + "}]";
+	}
+}
@@ -0,0 +1,33 @@
+package com.fly.practice.actor;
+
+/**
+ * Chooses which actor of a category gets a message sent to the category. The
+ * manager keeps one router per category and tells it whenever the category's
+ * members change, so selecting does not look at actors of other categories.
+ *
+ * @see DefaultActorManager#send(Message, Actor, String)
+ * @see DefaultActorManager#setCategoryRouter(String, ActorRouter)
+ */
+public interface ActorRouter {
+
+	/**
+	 * Replace the category members. Called by the manager (holding its
+	 * registryLock) as actors are started, detached or change category.
+	 *
+	 * @param members
+	 *            the members; not modified after the call
+	 */
+	void setMembers(AbstractActor[] members);
+
+	/** Get the current members. */
+	AbstractActor[] getMembers();
+
+	/**
+	 * Select the actor to send a message to.
+	 *
+	 * @param message
+	 *            the message
+	 * @return the actor; null if no member can take the message
+	 */
+	AbstractActor select(Message message);
+}
@@ -0,0 +1,52 @@
+package com.fly.practice.actor;
+
+/**
+ * Assigns threads to actors that have work. A DefaultActorManager uses its
+ * built in (runnables/waiters) scheduling unless a scheduler is selected with
+ * the {@link DefaultActorManager#ACTOR_SCHEDULER} option.
+ *
+ * The manager decides when an actor is runnable and calls schedule() once per
+ * activation; the scheduler only has to get the actor to a thread that calls
+ * DefaultActorManager.dispatch(). The manager does not schedule an actor
+ * again until that dispatch has ended, so an actor processes one message at a
+ * time.
+ *
+ * @see DefaultActorManager#dispatch(AbstractActor)
+ */
+public interface ActorScheduler {
+
+	/**
+	 * Start dispatching.
+	 *
+	 * @param manager
+	 *            the owning manager
+	 * @param threadCount
+	 *            number of dispatch threads requested
+	 */
+	void start(DefaultActorManager manager, int threadCount);
+
+	/**
+	 * An actor has become runnable; arrange for it to be dispatched.
+	 *
+	 * @param actor
+	 *            the actor
+	 */
+	void schedule(AbstractActor actor);
+
+	/**
+	 * An actor has been detached from the manager.
+	 *
+	 * @param actor
+	 *            the actor
+	 */
+	void actorDetached(AbstractActor actor);
+
+	/** Stop dispatching. Do not wait for the dispatch threads to end. */
+	void terminate();
+
+	/** Wait for all dispatch threads to end. Must have issued terminate. */
+	void waitForTermination();
+
+	/** Get the number of threads currently processing an actor. */
+	int getActiveCount();
+}
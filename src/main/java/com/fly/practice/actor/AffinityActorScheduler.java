@@ -0,0 +1,223 @@
+package com.fly.practice.actor;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+import com.fly.practice.actor.utils.Utils;
+
+/**
+ * An ActorScheduler that keeps each actor on a preferred ("home") dispatch
+ * thread so its state stays in that core's cache. The home is the actor's
+ * AbstractActor.AFFINITY option if set, else chosen by name hash.
+ *
+ * Each thread has its own ready queue. An actor is run elsewhere only when
+ * its home is overloaded, that is has more than the
+ * {@link DefaultActorManager#AFFINITY_OVERLOAD} option (default
+ * DEFAULT_OVERLOAD) actors queued: it is then queued on the least loaded
+ * thread, and an idle thread takes work from an overloaded one.
+ *
+ * Selected with the {@link DefaultActorManager#SCHEDULER_AFFINITY} option
+ * value.
+ */
+public class AffinityActorScheduler extends Utils implements ActorScheduler {
+
+	public static final int DEFAULT_OVERLOAD = 8;
+
+	protected DefaultActorManager manager;
+
+	protected Worker[] workers;
+
+	protected int overload = DEFAULT_OVERLOAD;
+
+	protected final AtomicInteger activeCount = new AtomicInteger();
+
+	protected final AtomicInteger migratedCount = new AtomicInteger();
+
+	volatile protected boolean running;
+
+	@Override
+	public void start(DefaultActorManager manager, int threadCount) {
+		this.manager = manager;
+		Object xoverload = manager.options.get(DefaultActorManager.AFFINITY_OVERLOAD);
+		if (xoverload != null) {
+			overload = Integer.parseInt(xoverload.toString());
+		}
+		running = true;
+		workers = new Worker[threadCount];
+		for (int i = 0; i < threadCount; i++) {
+			workers[i] = new Worker(i);
+		}
+		for (Worker w : workers) {
+			w.thread.start();
+		}
+	}
+
+	/** Get the index of an actor's home thread. */
+	protected int home(AbstractActor actor) {
+		int n = workers.length;
+		int res = actor.getAffinity();
+		if (res < 0) {
+			res = (actor.getName().hashCode() & Integer.MAX_VALUE) % n;
+		}
+		return res % n;
+	}
+
+	@Override
+	public void schedule(AbstractActor actor) {
+		Worker w = workers[home(actor)];
+		if (w.size.get() >= overload) {
+			Worker least = w;
+			for (Worker x : workers) {
+				if (x.size.get() < least.size.get()) {
+					least = x;
+				}
+			}
+			if (least != w) {
+				migratedCount.incrementAndGet();
+				w = least;
+			}
+		}
+		w.add(actor);
+		if (w.size.get() >= overload) {
+			// an idle thread only wakes for its own queue; let one steal
+			for (Worker x : workers) {
+				if (x != w && x.idle) {
+					LockSupport.unpark(x.thread);
+					break;
+				}
+			}
+		}
+	}
+
+	/** Test if any thread has more than the overload queued. */
+	protected boolean isOverloaded() {
+		for (Worker w : workers) {
+			if (w.size.get() >= overload) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	@Override
+	public void actorDetached(AbstractActor actor) {
+		for (Worker w : workers) {
+			if (w.ready.remove(actor)) {
+				w.size.decrementAndGet();
+			}
+		}
+	}
+
+	@Override
+	public void terminate() {
+		running = false;
+		if (workers != null) {
+			for (Worker w : workers) {
+				w.thread.interrupt();
+			}
+		}
+	}
+
+	@Override
+	public void waitForTermination() {
+		if (workers != null) {
+			for (Worker w : workers) {
+				try {
+					w.thread.join();
+				} catch (InterruptedException e) {
+					// ignore
+				}
+			}
+		}
+	}
+
+	@Override
+	public int getActiveCount() {
+		return activeCount.get();
+	}
+
+	/** Get the number of activations run away from their home thread. */
+	public int getMigratedCount() {
+		return migratedCount.get();
+	}
+
+	/** A dispatch thread and its ready queue. */
+	protected class Worker implements Runnable {
+		protected final ConcurrentLinkedQueue<AbstractActor> ready = new ConcurrentLinkedQueue<AbstractActor>();
+
+		protected final AtomicInteger size = new AtomicInteger();
+
+		protected final Thread thread;
+
+		volatile protected boolean idle;
+
+		public Worker(int index) {
+			thread = new Thread(manager.getThreadGroup(), this, "actor" + index);
+			thread.setDaemon(true);
+			thread.setPriority(manager.getThreadPriority());
+		}
+
+		public void add(AbstractActor actor) {
+			size.incrementAndGet();
+			ready.offer(actor);
+			if (idle) {
+				LockSupport.unpark(thread);
+			}
+		}
+
+		protected AbstractActor poll() {
+			AbstractActor res = ready.poll();
+			if (res != null) {
+				size.decrementAndGet();
+			}
+			return res;
+		}
+
+		/** Take an actor queued on an overloaded thread. */
+		protected AbstractActor steal() {
+			for (Worker w : workers) {
+				if (w != this && w.size.get() >= overload) {
+					AbstractActor res = w.poll();
+					if (res != null) {
+						migratedCount.incrementAndGet();
+						return res;
+					}
+				}
+			}
+			return null;
+		}
+
+		@Override
+		public void run() {
+			while (running) {
+				try {
+					AbstractActor actor = poll();
+					if (actor == null) {
+						actor = steal();
+					}
+					if (actor != null) {
+						if (actor.getManager() == manager) {
+							activeCount.incrementAndGet();
+							try {
+								manager.dispatch(actor);
+							} finally {
+								activeCount.decrementAndGet();
+							}
+						}
+					} else {
+						// set before the last check so a racing schedule() either
+						// is seen here or unparks this thread
+						idle = true;
+						if (ready.isEmpty() && !isOverloaded() && running) {
+							LockSupport.park(this);
+						}
+						idle = false;
+					}
+				} catch (Exception e) {
+					logger.error("AffinityActorScheduler dispatch exception", e);
+				}
+			}
+		}
+	}
+}
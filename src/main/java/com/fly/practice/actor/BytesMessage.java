@@ -0,0 +1,71 @@
+package com.fly.practice.actor;
+
+/**
+ * A message with a byte array payload (e.g. file contents or an encoded
+ * record). Sends share the array with their copies; do not change it after
+ * sending. Use obtain() to take it from a pool; see DefaultMessage.recycle().
+ */
+public class BytesMessage extends TypedMessage {
+
+	protected byte[] bytes;
+
+	/** Get the payload; may be null. */
+	public byte[] getBytes() {
+		return bytes;
+	}
+
+	/** Set the payload. */
+	public void setBytes(byte[] bytes) {
+		this.bytes = bytes;
+	}
+
+	/** Get the payload (the byte array itself). */
+	@Override
+	public Object getData() {
+		return bytes;
+	}
+
+	public BytesMessage(String subject, byte[] bytes) {
+		super(subject);
+		this.bytes = bytes;
+	}
+
+	protected BytesMessage() {
+	}
+
+	/** Pool of recyclable BytesMessages. */
+	public static final MessagePool<BytesMessage> POOL = new MessagePool<BytesMessage>() {
+		@Override
+		protected BytesMessage create() {
+			return new BytesMessage();
+		}
+	};
+
+	/** Get a recyclable message from the pool. */
+	public static BytesMessage obtain(String subject, byte[] bytes) {
+		BytesMessage res = POOL.obtain();
+		res.subject = subject;
+		res.bytes = bytes;
+		return res;
+	}
+
+	@Override
+	protected BytesMessage newInstance() {
+		return new BytesMessage();
+	}
+
+	@Override
+	protected void copyPayloadTo(TypedMessage res) {
+		((BytesMessage) res).bytes = bytes;
+	}
+
+	@Override
+	protected void clearPayload() {
+		bytes = null;
+	}
+
+	@Override
+	protected String payloadString() {
+		return "bytes=" + (bytes != null ? bytes.length : -1);
+	}
+}
@@ -0,0 +1,98 @@
+package com.fly.practice.actor;
+
+import java.util.Arrays;
+
+/**
+ * Routes by a key taken from the message so messages with the same key go to
+ * the same member while the category is unchanged. Members are placed on a
+ * hash ring at several points each; adding or removing a member only moves
+ * the keys next to its points. The chosen member is used even if full, so its
+ * mailbox overflow policy applies.
+ *
+ * The key is the message subject, whose hash is stable and cached. Override
+ * getKey() to route on something else; the key's hashCode() must depend
+ * only on its value.
+ *
+ * Selected with the {@link DefaultActorManager#ROUTER_CONSISTENT_HASH} option
+ * value.
+ */
+public class ConsistentHashRouter extends AbstractActorRouter {
+
+	public static final int DEFAULT_POINTS_PER_MEMBER = 64;
+
+	protected final int pointsPerMember;
+
+	/** Ring points, sorted, and the member owning each point. */
+	volatile protected Ring ring = new Ring(new int[0], NO_MEMBERS);
+
+	protected static class Ring {
+		final int[] points;
+		final AbstractActor[] owners;
+
+		Ring(int[] points, AbstractActor[] owners) {
+			this.points = points;
+			this.owners = owners;
+		}
+	}
+
+	public ConsistentHashRouter() {
+		this(DEFAULT_POINTS_PER_MEMBER);
+	}
+
+	public ConsistentHashRouter(int pointsPerMember) {
+		this.pointsPerMember = pointsPerMember;
+	}
+
+	@Override
+	public void setMembers(AbstractActor[] members) {
+		super.setMembers(members);
+		int n = members.length * pointsPerMember;
+		long[] xpoints = new long[n];
+		int k = 0;
+		for (int m = 0; m < members.length; m++) {
+			String name = members[m].getName();
+			for (int p = 0; p < pointsPerMember; p++) {
+				// point hash in the high half, member index in the low half
+				xpoints[k++] = ((long) mix((name + '#' + p).hashCode()) << 32) | m;
+			}
+		}
+		Arrays.sort(xpoints);
+		int[] points = new int[n];
+		AbstractActor[] owners = new AbstractActor[n];
+		for (int i = 0; i < n; i++) {
+			points[i] = (int) (xpoints[i] >> 32);
+			owners[i] = members[(int) xpoints[i]];
+		}
+		ring = new Ring(points, owners);
+	}
+
+	@Override
+	public AbstractActor select(Message message) {
+		Ring xring = ring;
+		if (xring.points.length == 0) {
+			return null;
+		}
+		Object key = getKey(message);
+		int h = mix(key != null ? key.hashCode() : 0);
+		int i = Arrays.binarySearch(xring.points, h);
+		if (i < 0) {
+			i = -i - 1; // first point after h
+		}
+		return xring.owners[i < xring.points.length ? i : 0];
+	}
+
+	/** Get the routing key of a message. */
+	protected Object getKey(Message message) {
+		return message.getSubject();
+	}
+
+	/** Spread a hash code over the ring (murmur3 finalizer). */
+	protected static int mix(int h) {
+		h ^= h >>> 16;
+		h *= 0x85ebca6b;
+		h ^= h >>> 13;
+		h *= 0xc2b2ae35;
+		h ^= h >>> 16;
+		return h;
+	}
+}
@@ -3,10 +3,11 @@ package com.fly.practice.actor;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.LinkedList;
@@ -16,6 +17,9 @@ import java.util.Properties;
 import java.util.Random;
 import java.util.Set;
 import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
 
 import com.fly.practice.actor.utils.Utils;
 
@@ -68,33 +72,264 @@ public class DefaultActorManager extends Utils implements ActorManager {
 	/** Configuration key for thread count. */
 	public static final String ACTOR_THREAD_COUNT = "threadCount";
 
-	protected Map<String, AbstractActor> actors = new LinkedHashMap<String, AbstractActor>();
+	/** Configuration key for the scheduler; default is SCHEDULER_DEFAULT. */
+	public static final String ACTOR_SCHEDULER = "scheduler";
+
+	/** Scheduler value: built in runnables/waiters maps, guarded by the actors map monitor. */
+	public static final String SCHEDULER_DEFAULT = "default";
+
+	/** Scheduler value: lock-free ready queue (see QueueActorScheduler). */
+	public static final String SCHEDULER_QUEUE = "queue";
+
+	/** Scheduler value: work-stealing ForkJoinPool (see ForkJoinActorScheduler). */
+	public static final String SCHEDULER_FORK_JOIN = "forkJoin";
+
+	/** Scheduler value: a virtual thread per activation (see VirtualThreadActorScheduler). */
+	public static final String SCHEDULER_VIRTUAL = "virtual";
+
+	/** Scheduler value: actors stay on a home thread (see AffinityActorScheduler). */
+	public static final String SCHEDULER_AFFINITY = "affinity";
+
+	/** Configuration key for the queued actors at which an affinity thread is overloaded. */
+	public static final String AFFINITY_OVERLOAD = "affinityOverload";
+
+	/** Configuration key for the category router; default is ROUTER_LEAST_LOADED. */
+	public static final String ACTOR_ROUTER = "router";
+
+	/** Router value: fewest pending messages (see LeastLoadedRouter). */
+	public static final String ROUTER_LEAST_LOADED = "leastLoaded";
+
+	/** Router value: less loaded of two random members (see PowerOfTwoRouter). */
+	public static final String ROUTER_POWER_OF_TWO = "powerOfTwo";
+
+	/** Router value: members in turn (see RoundRobinRouter). */
+	public static final String ROUTER_ROUND_ROBIN = "roundRobin";
+
+	/** Router value: by message subject (see ConsistentHashRouter). */
+	public static final String ROUTER_CONSISTENT_HASH = "consistentHash";
+
+	/** Configuration key to deliver message events on a separate thread (true/false). */
+	public static final String ASYNC_EVENTS = "asyncEvents";
+
+	/** Configuration key for the delayed message timer tick (in millis). */
+	public static final String ACTOR_TIMER_TICK = "timerTick";
+
+	protected ActorScheduler scheduler;
+
+	public ActorScheduler getScheduler() {
+		return scheduler;
+	}
+
+	/**
+	 * The started actors by name; read without a lock. Also the monitor of the
+	 * runnables and waiters queues and of trunnables.
+	 */
+	protected final ConcurrentMap<String, AbstractActor> actors = new ConcurrentHashMap<String, AbstractActor>();
+
+	/**
+	 * Serializes changes to actors, the category members and the snapshot.
+	 * Only starting, detaching and replacing actors take it; sends and
+	 * dispatch never do.
+	 */
+	protected final Object registryLock = new Object();
 
 	protected Map<String, AbstractActor> runnables = new LinkedHashMap<String, AbstractActor>();
 
 	protected Map<String, AbstractActor> waiters = new LinkedHashMap<String, AbstractActor>();
 
+	/** An immutable view of the started actors. */
+	protected static class Snapshot {
+		final AbstractActor[] actors;
+		final Set<String> categories;
+
+		Snapshot(AbstractActor[] actors, Set<String> categories) {
+			this.actors = actors;
+			this.categories = categories;
+		}
+	}
+
+	volatile protected Snapshot snapshot = new Snapshot(new AbstractActor[0], Collections.<String> emptySet());
+
+	/**
+	 * Publish a new snapshot after actors were started, detached, replaced,
+	 * reordered or moved to another category; caller must hold the
+	 * registryLock. The snapshot holds the actors' order.
+	 * 
+	 * @param xactors
+	 *            the started actors; not changed afterwards
+	 */
+	protected void publishSnapshot(AbstractActor[] xactors) {
+		Set<String> categories = new TreeSet<String>();
+		for (AbstractActor a : xactors) {
+			categories.add(a.getCategory());
+		}
+		snapshot = new Snapshot(xactors, Collections.unmodifiableSet(categories));
+	}
+
+	/** Category routers, holding the started actors of each category. */
+	protected final Map<String, ActorRouter> routers = new ConcurrentHashMap<String, ActorRouter>();
+
+	/**
+	 * Get the router of a category.
+	 * 
+	 * @return the router; null if no actor ever joined the category
+	 */
+	public ActorRouter getCategoryRouter(String category) {
+		return routers.get(category);
+	}
+
+	/**
+	 * Set how messages sent to a category are routed. The router takes over
+	 * the current members.
+	 * 
+	 * @param category
+	 *            the category
+	 * @param router
+	 *            the router
+	 */
+	public void setCategoryRouter(String category, ActorRouter router) {
+		synchronized (registryLock) {
+			ActorRouter old = routers.get(category);
+			router.setMembers(old != null ? old.getMembers() : new AbstractActor[0]);
+			routers.put(category, router);
+		}
+	}
+
+	/** Add a started actor to its category; caller must hold the registryLock. */
+	protected void addCategoryMember(AbstractActor actor) {
+		String category = actor.getCategory();
+		ActorRouter r = routers.get(category);
+		if (r == null) {
+			r = createRouter(routerType);
+			routers.put(category, r);
+		}
+		AbstractActor[] members = r.getMembers();
+		AbstractActor[] xmembers = Arrays.copyOf(members, members.length + 1);
+		xmembers[members.length] = actor;
+		r.setMembers(xmembers);
+		actor.memberCategory = category;
+		ActorMetrics cm = categoryMetrics.get(category);
+		if (cm == null) {
+			cm = new ActorMetrics();
+			categoryMetrics.put(category, cm);
+		}
+		actor.categoryMetrics = cm;
+	}
+
+	/** Remove an actor from its category; caller must hold the registryLock. */
+	protected void removeCategoryMember(AbstractActor actor) {
+		String category = actor.memberCategory;
+		ActorRouter r = category != null ? routers.get(category) : null;
+		if (r != null) {
+			r.setMembers(replace(r.getMembers(), actor, null));
+		}
+		actor.memberCategory = null;
+	}
+
+	/**
+	 * Put a replacement in an actor's place in its category; caller must hold
+	 * the registryLock.
+	 */
+	protected void replaceCategoryMember(AbstractActor actor, AbstractActor replacement) {
+		String category = actor.memberCategory;
+		ActorRouter r = category != null ? routers.get(category) : null;
+		if (r != null) {
+			r.setMembers(replace(r.getMembers(), actor, replacement));
+		}
+		replacement.memberCategory = category;
+		replacement.categoryMetrics = actor.categoryMetrics;
+		actor.memberCategory = null;
+	}
+
+	/**
+	 * Copy an array of actors, replacing one; null removes it.
+	 */
+	protected static AbstractActor[] replace(AbstractActor[] xactors, AbstractActor actor, AbstractActor replacement) {
+		List<AbstractActor> res = new ArrayList<AbstractActor>(xactors.length);
+		for (AbstractActor a : xactors) {
+			if (a != actor) {
+				res.add(a);
+			} else if (replacement != null) {
+				res.add(replacement);
+			}
+		}
+		return res.toArray(new AbstractActor[res.size()]);
+	}
+
+	/**
+	 * Get the actor now standing for one that may have been replaced (see
+	 * replaceActor()).
+	 */
+	protected static AbstractActor current(AbstractActor actor) {
+		AbstractActor res = actor;
+		while (res.replacement != null) {
+			res = res.replacement;
+		}
+		return res;
+	}
+
+	/**
+	 * An actor's category changed; move it to its new category. public
+	 * intended only for AbstractActor access.
+	 */
+	public void categoryChanged(AbstractActor actor) {
+		synchronized (registryLock) {
+			if (actors.get(actor.getName()) == actor) {
+				removeCategoryMember(actor);
+				addCategoryMember(actor);
+				publishSnapshot(snapshot.actors);
+			}
+		}
+	}
+
 	/**
-	 * Detach an actor.
+	 * Detach an actor. Its pending messages are not processed; a durable
+	 * mailbox keeps them in its log, which is closed.
 	 */
 	@Override
 	public void detachActor(Actor actor) {
-		if (((AbstractActor) actor).getManager() != this) {
+		AbstractActor a = current((AbstractActor) actor);
+		if (a.getManager() != this) {
 			throw new IllegalStateException("actor not owned by this manager");
 		}
-		String name = actor.getName();
-		synchronized (actors) {
-			if (actors.containsKey(name)) {
-				((AbstractActor) actor).setManager(null);
-				actors.remove(name);
-				runnables.remove(name);
-				waiters.remove(name);
-			} else {
-				actor = null;
+		String name = a.getName();
+		boolean started;
+		synchronized (registryLock) {
+			started = actors.remove(name, a);
+			if (started) {
+				removeCategoryMember(a);
+				publishSnapshot(replace(snapshot.actors, a, null));
 			}
 		}
-		if (actor != null) {
-			actor.deactivate();
+		a.setManager(null);
+		if (started) {
+			if (scheduler == null) {
+				synchronized (actors) {
+					if (runnables.get(name) == a) {
+						runnables.remove(name);
+					}
+					if (waiters.get(name) == a) {
+						waiters.remove(name);
+					}
+				}
+			}
+			a.deactivate();
+			closeMailbox(a);
+			if (scheduler != null) {
+				scheduler.actorDetached(a);
+			}
+		}
+	}
+
+	/**
+	 * Release what an actor's mailbox holds once the actor is done with for
+	 * good: the log of a durable mailbox. Not for a replaced actor, whose
+	 * mailbox goes on with the new instance.
+	 */
+	protected void closeMailbox(AbstractActor actor) {
+		Mailbox mb = actor.getMailbox();
+		if (mb instanceof DurableMailbox) {
+			((DurableMailbox) mb).getLog().close();
 		}
 	}
 
@@ -102,35 +337,135 @@ public class DefaultActorManager extends Utils implements ActorManager {
 	 * Detach all actors.
 	 */
 	public void detachAllActors() {
-		Set<String> xkeys = new HashSet<String>();
-		xkeys.addAll(actors.keySet());
-		Iterator<String> i = xkeys.iterator();
-		while (i.hasNext()) {
-			detachActor(actors.get(i.next()));
-		}
-		synchronized (actors) {
-			actors.clear();
-			runnables.clear();
-			waiters.clear();
+		for (AbstractActor a : snapshot.actors) {
+			if (a.getManager() == this) {
+				detachActor(a);
+			}
 		}
 	}
 
 	protected Random rand = new Random();
 
 	/**
-	 * Create a list of actors in a pseudo-random order. 
-	 * 
+	 * Put the actors in a pseudo-random order. Only the snapshot is
+	 * republished; sends and dispatch carry on.
 	 */
 	public void randomizeActors() {
-		synchronized (actors) {
-			AbstractActor[] xactors = getActors();
-			List<AbstractActor> zactors = new ArrayList<AbstractActor>(xactors.length);
-			for (AbstractActor a : xactors) {
-				zactors.add(rand.nextInt(zactors.size() + 1), a);
+		synchronized (registryLock) {
+			AbstractActor[] xactors = snapshot.actors.clone();
+			Collections.shuffle(Arrays.asList(xactors), rand);
+			publishSnapshot(xactors);
+		}
+	}
+
+	/**
+	 * Restart an actor: replace it with a new instance of its class. See
+	 * replaceActor().
+	 * 
+	 * @param actor
+	 *            the started actor
+	 * @return the new instance
+	 */
+	@Override
+	public Actor restartActor(Actor actor) {
+		return replaceActor(actor, actor.getClass(), null);
+	}
+
+	/**
+	 * Replace a started actor with a new instance, of the same or another
+	 * class (a hot swap), without stopping the other actors or the senders.
+	 * The new instance takes the actor's name, category, place in the
+	 * category and its mailbox, so no pending message is lost; it is
+	 * configured with the actor's options plus those given and is run() as
+	 * if started.
+	 * 
+	 * The new instance gets its first thread once the actor's current
+	 * dispatch (if any) ends, so the two never process messages at the same
+	 * time. Sends to the replaced actor go to the new instance. May be
+	 * called by the actor itself.
+	 * 
+	 * The new instance is created before the registry lock is taken, so a
+	 * slow constructor holds up no other start, detach or replace. If the
+	 * actor is replaced meanwhile, its replacement is replaced instead.
+	 * 
+	 * @param actor
+	 *            the started actor
+	 * @param clazz
+	 *            the class of the new instance
+	 * @param options
+	 *            options added to the actor's; may be null
+	 * @return the new instance
+	 */
+	@Override
+	public Actor replaceActor(Actor actor, Class<? extends Actor> clazz, Map<String, Object> options) {
+		AbstractActor old = current((AbstractActor) actor);
+		AbstractActor a;
+		while (true) {
+			checkReplaceable(old);
+			Map<String, Object> xoptions = new HashMap<String, Object>(old.options != null ? old.options
+					: this.options);
+			if (options != null) {
+				xoptions.putAll(options);
 			}
-			actors.clear();
-			for (AbstractActor a : zactors) {
-				actors.put(a.getName(), a);
+			// the constructor may be slow or fail; not under the lock
+			a = newActor(clazz, old.getName(), old.getMailbox(), xoptions);
+			synchronized (registryLock) {
+				AbstractActor xold = current(old);
+				if (xold == old) {
+					checkReplaceable(old);
+					a.category = old.getCategory();
+					a.runPending = true;
+					// not idle until its first dispatch; see handOver()
+					a.scheduled.set(true);
+					actors.put(old.getName(), a);
+					replaceCategoryMember(old, a);
+					publishSnapshot(replace(snapshot.actors, old, a));
+					old.replacement = a;
+					break;
+				}
+				// replaced meanwhile; replace that one in turn
+				old = xold;
+			}
+		}
+		a.activate();
+		old.deactivate();
+		// idle: hand over now; else its dispatch hands over when it ends
+		if (old.scheduled.compareAndSet(false, true)) {
+			handOver(old);
+		}
+		return a;
+	}
+
+	/** Check an actor can be replaced: owned by this manager and started. */
+	protected void checkReplaceable(AbstractActor actor) {
+		if (actor.getManager() != this) {
+			throw new IllegalStateException("actor not owned by this manager");
+		}
+		if (actors.get(actor.getName()) != actor) {
+			throw new IllegalStateException("actor not started: " + actor.getName());
+		}
+	}
+
+	/**
+	 * A replaced actor is idle and stays marked scheduled so it gets no more
+	 * threads; schedule the actor that replaced it.
+	 */
+	protected void handOver(AbstractActor actor) {
+		actor.setManager(null);
+		schedule(actor.replacement);
+	}
+
+	/** Give a started or replacing actor (marked scheduled) its first thread. */
+	protected void schedule(AbstractActor actor) {
+		if (scheduler != null) {
+			scheduler.schedule(actor);
+		} else {
+			synchronized (actors) {
+				// a replacing actor may already be replaced itself
+				if (actor.getManager() == this) {
+					runnables.put(actor.getName(), actor);
+					actors.notify();
+				}
 			}
 		}
 	}
@@ -142,20 +477,16 @@ public class DefaultActorManager extends Utils implements ActorManager {
 	 */
 	@Override
 	public int getActorCount(Class type) {
+		AbstractActor[] xactors = snapshot.actors;
 		int res = 0;
 		if (type != null) {
-			synchronized (actors) {
-				for (String key : actors.keySet()) {
-					Actor a = actors.get(key);
-					if (type.isAssignableFrom(a.getClass())) {
-						res++;
-					}
+			for (AbstractActor a : xactors) {
+				if (type.isAssignableFrom(a.getClass())) {
+					res++;
 				}
 			}
 		} else {
-			synchronized (actors) {
-				res = actors.size();
-			}
+			res = xactors.length;
 		}
 		return res;
 	}
@@ -166,22 +497,10 @@ public class DefaultActorManager extends Utils implements ActorManager {
 	 * @return actors
 	 */
 	public AbstractActor[] getActors() {
-		AbstractActor[] res = new AbstractActor[actors.size()];
-		copyMembers(res);
-		return res;
-	}
-
-	protected void copyMembers(AbstractActor[] res) {
-		int count = 0;
-		synchronized (actors) {
-			for (String key : actors.keySet()) {
-				res[count++] = actors.get(key);
-			}
-		}
+		return snapshot.actors.clone();
 	}
 
-	protected Map<String, List<Message>> sentMessages = new HashMap<String, List<Message>>();
-
+	/** Whether sends are kept for getSentMessages(); recyclable ones never are. */
 	protected boolean recordSentMessages = true;
 
 	public boolean getRecordSentMessages() {
@@ -193,23 +512,27 @@ public class DefaultActorManager extends Utils implements ActorManager {
 	}
 
 	/**
-	 * Get a list of pending messages and then clear it.
+	 * Get the recently sent messages not yet returned and then clear them. At
+	 * most the last MessageRecorder.DEFAULT_CAPACITY are kept.
 	 * 
 	 * @param actor
 	 *            receiving actor
-	 * @return
+	 * @return messages, oldest first; null if none
 	 */
 	public Message[] getAndClearSentMessages(Actor actor) {
-		List<Message> res = null;
-		synchronized (sentMessages) {
-			List<Message> l = sentMessages.get(actor.getName());
-			if (!isEmpty(l)) {
-				res = new LinkedList<Message>();
-				res.addAll(l);
-				l.clear();
-			}
-		}
-		return res != null ? res.toArray(new Message[res.size()]) : null;
+		Message[] res = ((AbstractActor) actor).getSentMessages().drain();
+		return res.length > 0 ? res : null;
+	}
+
+	/**
+	 * Get the recently sent messages not yet returned, without clearing them.
+	 * 
+	 * @param actor
+	 *            receiving actor
+	 * @return messages, oldest first
+	 */
+	public Message[] getSentMessages(Actor actor) {
+		return ((AbstractActor) actor).getSentMessages().snapshot();
 	}
 
 	volatile protected long lastSendTime, lastDispatchTime;
@@ -222,8 +545,60 @@ public class DefaultActorManager extends Utils implements ActorManager {
 		return lastDispatchTime;
 	}
 
-	volatile protected int sendCount, lastSendCount;
-	volatile protected int dispatchCount, lastDispatchCount;
+	/** Totals since initialize; striped so concurrent senders do not contend. */
+	protected final LongAdder sendCount = new LongAdder(), dispatchCount = new LongAdder();
+
+	/** Totals at the last Counter roll, owned by the Counter thread. */
+	protected long rolledSendCount, rolledDispatchCount;
+
+	volatile protected int lastSendCount, lastDispatchCount;
+
+	/** Get the number of messages sent since initialized. */
+	public long getSendCount() {
+		return sendCount.sum();
+	}
+
+	/** Get the number of actor dispatches since initialized. */
+	public long getDispatchCount() {
+		return dispatchCount.sum();
+	}
+
+	/** Per category counts and timings. */
+	protected final Map<String, ActorMetrics> categoryMetrics = new ConcurrentHashMap<String, ActorMetrics>();
+
+	/**
+	 * Get the send/dispatch counts and timings of a category.
+	 * 
+	 * @return the metrics; null if no actor ever joined the category
+	 */
+	public ActorMetrics getCategoryMetrics(String category) {
+		return categoryMetrics.get(category);
+	}
+
+	/**
+	 * Get the number of messages pending in the mailboxes of a category's
+	 * actors.
+	 */
+	public int getCategoryDepth(String category) {
+		ActorRouter r = routers.get(category);
+		int res = 0;
+		if (r != null) {
+			for (AbstractActor a : r.getMembers()) {
+				res += a.getMessageCount();
+			}
+		}
+		return res;
+	}
+
+	/** Count messages accepted by an actor. */
+	protected void countSent(AbstractActor aa, int count) {
+		sendCount.add(count);
+		aa.metrics.sent(count);
+		ActorMetrics cm = aa.categoryMetrics;
+		if (cm != null) {
+			cm.sent(count);
+		}
+	}
 
 	/** Get most recent sends/second count. */
 	public int getSendPerSecondCount() {
@@ -232,35 +607,39 @@ public class DefaultActorManager extends Utils implements ActorManager {
 
 	/** Get most recent thread dispatches/second count. */
 	public int getDispatchPerSecondCount() {
-		synchronized (actors) {
-			return lastDispatchCount;
-		}
+		return lastDispatchCount;
+	}
+
+	protected void clearSendCount() {
+		sendCount.reset();
+		rolledSendCount = 0;
+		lastSendCount = 0;
 	}
 
 	protected void incDispatchCount() {
-		synchronized (actors) {
-			dispatchCount += 1;
-			lastDispatchTime = new Date().getTime();
-			// logger.info("incDispatchCount: dc=%d", dispatchCount);
-		}
+		incDispatchCount(1);
+	}
+
+	protected void incDispatchCount(int count) {
+		dispatchCount.add(count);
+		lastDispatchTime = System.currentTimeMillis();
+		// logger.info("incDispatchCount: dc=%d", dispatchCount);
 	}
 
 	protected void clearDispatchCount() {
-		synchronized (actors) {
-			dispatchCount = 0;
-			lastDispatchCount = 0;
-			// logger.info("clearDispatchCount: dc=%d, ldc=%d", dispatchCount,
-			// lastDispatchCount);
-		}
+		dispatchCount.reset();
+		rolledDispatchCount = 0;
+		lastDispatchCount = 0;
+		// logger.info("clearDispatchCount: dc=%d, ldc=%d", dispatchCount,
+		// lastDispatchCount);
 	}
 
 	protected void updateLastDispatchCount() {
-		synchronized (actors) {
-			lastDispatchCount = dispatchCount;
-			dispatchCount = 0;
-			// logger.info("updateLastDispatchCount: dc=%d, ldc=%d",
-			// dispatchCount, lastDispatchCount);
-		}
+		long total = dispatchCount.sum();
+		lastDispatchCount = (int) (total - rolledDispatchCount);
+		rolledDispatchCount = total;
+		// logger.info("updateLastDispatchCount: dc=%d, ldc=%d",
+		// dispatchCount, lastDispatchCount);
 	}
 
 	/**
@@ -280,37 +659,192 @@ public class DefaultActorManager extends Utils implements ActorManager {
 		if (message != null) {
 			AbstractActor aa = (AbstractActor) to;
 			if (aa != null) {
-				if (!aa.isShutdown() && !aa.isSuspended() && aa.willReceive(message.getSubject())) {
-					DefaultMessage xmessage = (DefaultMessage) ((DefaultMessage) message).assignSender(from);
-					// logger.trace(" %s to %s", xmessage, to);
-					aa.addMessage(xmessage);
-					xmessage.fireMessageListeners(new MessageEvent(aa, xmessage, MessageEvent.MessageStatus.SENT));
-					sendCount++;
-					lastSendTime = new Date().getTime();
+				DefaultMessage xmessage = enqueue(message, from, aa);
+				if (xmessage != null) {
+					fireMessageEvent(aa, xmessage, MessageEvent.MessageStatus.SENT);
+					countSent(aa, 1);
+					lastSendTime = System.currentTimeMillis();
 					if (recordSentMessages) {
-						synchronized (sentMessages) {
-							String aname = aa.getName();
-							List<Message> l = sentMessages.get(aname);
-							if (l == null) {
-								l = new LinkedList<Message>();
-								sentMessages.put(aname, l);
-							}
-							// keep from getting too big
-							if (l.size() < 100) {
-								l.add(xmessage);
-							}
-						}
+						recordSent(aa, xmessage);
 					}
 					count++;
-					synchronized (actors) {
-						actors.notifyAll();
-					}
+					wakeActor(aa);
 				}
 			}
 		}
 		return count;
 	}
 
+	/**
+	 * Keep a sent message in its target's sent message recorder. Recyclable
+	 * messages are not kept: the copy queued is reused once processed (maybe
+	 * already), and recording another copy would allocate on every send,
+	 * which the pool is there to avoid.
+	 * 
+	 * @param aa
+	 *            target actor
+	 * @param xmessage
+	 *            the copy queued by the send
+	 */
+	protected static void recordSent(AbstractActor aa, DefaultMessage xmessage) {
+		// a recycled message keeps its pool, so this holds even if reused
+		if (!xmessage.isRecyclable()) {
+			aa.getSentMessages().record(xmessage);
+		}
+	}
+
+	/**
+	 * Test if an actor currently accepts a message.
+	 */
+	protected boolean willAccept(AbstractActor aa, Message message) {
+		return !aa.isShutdown() && !aa.isSuspended() && aa.willReceive(message.getSubject());
+	}
+
+	/**
+	 * Queue a copy of a message for an actor, or hold it on the timing wheel
+	 * if delayed. Does no accounting and does not wake the actor.
+	 * 
+	 * @return the queued copy; null if not accepted
+	 */
+	protected DefaultMessage enqueue(Message message, Actor from, AbstractActor aa) {
+		if (!willAccept(aa, message)) {
+			return null;
+		}
+		DefaultMessage xmessage = (DefaultMessage) ((DefaultMessage) message).assignSender(from);
+		// logger.trace(" %s to %s", xmessage, to);
+		if (timingWheel != null && xmessage.getDelayUntil() > System.currentTimeMillis()) {
+			// held outside the mailbox until due
+			timingWheel.schedule(aa, xmessage);
+		} else if (!aa.addMessage(xmessage)) {
+			return null; // backpressure; not accepted
+		}
+		return xmessage;
+	}
+
+	/**
+	 * Send several messages to an actor. They are queued in order with one
+	 * mailbox lock, accounted once and the actor is woken once.
+	 * 
+	 * @param messages
+	 *            messages to
+	 * @param from
+	 *            source actor
+	 * @param to
+	 *            target actor
+	 * @return number of messages accepted
+	 */
+	@Override
+	public int sendAll(List<? extends Message> messages, Actor from, Actor to) {
+		AbstractActor aa = (AbstractActor) to;
+		if (isEmpty(messages) || aa == null || aa.isShutdown() || aa.isSuspended()) {
+			return 0;
+		}
+		long now = System.currentTimeMillis();
+		List<DefaultMessage> xmessages = new ArrayList<DefaultMessage>(messages.size());
+		List<DefaultMessage> ready = new ArrayList<DefaultMessage>(messages.size());
+		for (Message m : messages) {
+			if (m != null && aa.willReceive(m.getSubject())) {
+				DefaultMessage xmessage = (DefaultMessage) ((DefaultMessage) m).assignSender(from);
+				xmessages.add(xmessage);
+				if (timingWheel == null || xmessage.getDelayUntil() <= now) {
+					ready.add(xmessage);
+				}
+			}
+		}
+		int added = aa.addMessages(ready);
+		if (added < ready.size()) {
+			// backpressure; the refused ones (and any later delayed ones) are
+			// not sent
+			DefaultMessage refused = ready.get(added);
+			int i = 0;
+			while (xmessages.get(i) != refused) {
+				i++;
+			}
+			xmessages = xmessages.subList(0, i);
+		}
+		for (DefaultMessage xmessage : xmessages) {
+			if (timingWheel != null && xmessage.getDelayUntil() > now) {
+				timingWheel.schedule(aa, xmessage);
+			}
+		}
+		int count = xmessages.size();
+		if (count > 0) {
+			for (DefaultMessage xmessage : xmessages) {
+				fireMessageEvent(aa, xmessage, MessageEvent.MessageStatus.SENT);
+			}
+			countSent(aa, count);
+			lastSendTime = now;
+			if (recordSentMessages) {
+				for (DefaultMessage xmessage : xmessages) {
+					recordSent(aa, xmessage);
+				}
+			}
+			wakeActor(aa);
+		}
+		return count;
+	}
+
+	/**
+	 * Send several messages to each of a set of actors.
+	 * 
+	 * @param messages
+	 *            messages to
+	 * @param from
+	 *            source actor
+	 * @param to
+	 *            target actors
+	 * @return number of messages accepted over all targets
+	 */
+	@Override
+	public int sendAll(List<? extends Message> messages, Actor from, Collection<Actor> to) {
+		int count = 0;
+		for (Actor a : to) {
+			count += sendAll(messages, from, a);
+		}
+		return count;
+	}
+
+	/**
+	 * Send a message to several actors, accounting for and recording the
+	 * sends once. Each accepting actor is woken once.
+	 */
+	protected int fanOut(Message message, Actor from, Iterable<Actor> to) {
+		if (message == null) {
+			return 0;
+		}
+		List<AbstractActor> targets = new ArrayList<AbstractActor>();
+		List<DefaultMessage> xmessages = new ArrayList<DefaultMessage>();
+		for (Actor a : to) {
+			AbstractActor aa = (AbstractActor) a;
+			if (aa != null) {
+				DefaultMessage xmessage = enqueue(message, from, aa);
+				if (xmessage != null) {
+					targets.add(aa);
+					xmessages.add(xmessage);
+				}
+			}
+		}
+		int count = targets.size();
+		if (count > 0) {
+			for (int i = 0; i < count; i++) {
+				fireMessageEvent(targets.get(i), xmessages.get(i), MessageEvent.MessageStatus.SENT);
+			}
+			for (AbstractActor aa : targets) {
+				countSent(aa, 1);
+			}
+			lastSendTime = System.currentTimeMillis();
+			if (recordSentMessages) {
+				for (int i = 0; i < count; i++) {
+					recordSent(targets.get(i), xmessages.get(i));
+				}
+			}
+			for (AbstractActor aa : targets) {
+				wakeActor(aa);
+			}
+		}
+		return count;
+	}
+
 	/**
 	 * Send a message.
 	 * 
@@ -324,11 +858,7 @@ public class DefaultActorManager extends Utils implements ActorManager {
 	 */
 	@Override
 	public int send(Message message, Actor from, Actor[] to) {
-		int count = 0;
-		for (Actor a : to) {
-			count += send(message, from, a);
-		}
-		return count;
+		return fanOut(message, from, Arrays.asList(to));
 	}
 
 	/**
@@ -344,11 +874,7 @@ public class DefaultActorManager extends Utils implements ActorManager {
 	 */
 	@Override
 	public int send(Message message, Actor from, Collection<Actor> to) {
-		int count = 0;
-		for (Actor a : to) {
-			count += send(message, from, a);
-		}
-		return count;
+		return fanOut(message, from, to);
 	}
 
 	/**
@@ -365,24 +891,10 @@ public class DefaultActorManager extends Utils implements ActorManager {
 	@Override
 	public int send(Message message, Actor from, String category) {
 		int count = 0;
-		Map<String, Actor> xactors = cloneActors();
-		List<Actor> catMembers = new LinkedList<Actor>();
-		for (String key : xactors.keySet()) {
-			Actor to = xactors.get(key);
-			if (category.equals(to.getCategory()) && (to.getMessageCount() < to.getMaxMessageCount())) {
-				catMembers.add(to);
-			}
-		}
-		// find an actor with lowest message count
-		int min = Integer.MAX_VALUE;
-		Actor amin = null;
-		for (Actor a : catMembers) {
-			int mcount = a.getMessageCount();
-			if (mcount < min) {
-				min = mcount;
-				amin = a;
-			}
-		}
+		ActorRouter r = routers.get(category);
+		// the category router picks the actor; by default the one with the
+		// lowest message count
+		AbstractActor amin = r != null && message != null ? r.select(message) : null;
 		if (amin != null) {
 			count += send(message, from, amin);
 			// } else {
@@ -404,29 +916,17 @@ public class DefaultActorManager extends Utils implements ActorManager {
 	 */
 	@Override
 	public int broadcast(Message message, Actor from) {
-		int count = 0;
-		Map<String, Actor> xactors = cloneActors();
-		for (String key : xactors.keySet()) {
-			Actor to = xactors.get(key);
-			count += send(message, from, to);
-		}
-		return count;
+		return fanOut(message, from, Arrays.<Actor> asList(snapshot.actors));
 	}
 
 	/**
 	 * Get the current categories.
 	 * 
-	 * @return categories
+	 * @return categories (unmodifiable)
 	 */
 	@Override
 	public Set<String> getCategories() {
-		Map<String, Actor> xactors = cloneActors();
-		Set<String> res = new TreeSet<String>();
-		for (String key : xactors.keySet()) {
-			Actor a = xactors.get(key);
-			res.add(a.getCategory());
-		}
-		return res;
+		return snapshot.categories;
 	}
 	
 	/**
@@ -436,39 +936,210 @@ public class DefaultActorManager extends Utils implements ActorManager {
 	 * @return
 	 */
 	public int getCategorySize(String name) {
-		Map<String, Actor> xactors = cloneActors();
-		int res = 0;
-		for (String key : xactors.keySet()) {
-			Actor a = xactors.get(key);
-			if (a.getCategory().equals(name)) {
-				res ++;
+		ActorRouter r = routers.get(name);
+		return r != null ? r.getMembers().length : 0;
+	}
+
+	/**
+	 * Suspend an actor until it has a read message. Actors are now suspended
+	 * implicitly when a dispatch ends (see dispatch()); retained for actors
+	 * that still call it.
+	 * 
+	 * @param actor
+	 *            receiving actor
+	 */
+	public void awaitMessage(AbstractActor actor) {
+		// nothing to do
+	}
+
+	/**
+	 * Make an actor runnable if it is idle. An actor is idle when it is neither
+	 * queued nor being dispatched; it becomes idle when a dispatch ends with an
+	 * empty mailbox or with only messages it cannot receive yet. So a send
+	 * schedules the actor when it takes the mailbox from empty to non-empty
+	 * (or brings a possibly receivable message to a blocked actor) and costs
+	 * nothing more otherwise.
+	 * 
+	 * @param actor
+	 *            the actor
+	 */
+	protected void wakeActor(AbstractActor actor) {
+		actor = current(actor);
+		if (actor.scheduled.compareAndSet(false, true)) {
+			if (scheduler != null) {
+				scheduler.schedule(actor);
+			} else {
+				synchronized (actors) {
+					// still attached; a replaced actor is until it hands over
+					if (actor.getManager() == this) {
+						waiters.put(actor.getName(), actor);
+						actors.notify();
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Give an actor a thread: run() it if it was just started, else let it
+	 * receive its next message. The actor is made runnable again only if it
+	 * still has messages. public intended only for ActorScheduler access.
+	 * 
+	 * @param actor
+	 *            the actor to dispatch
+	 * @return true if the actor did any work
+	 */
+	public boolean dispatch(AbstractActor actor) {
+		if (actor.replacement != null) {
+			// replaced while queued
+			handOver(actor);
+			return false;
+		}
+		boolean res = false;
+		actor.setHasThread(true);
+		try {
+			if (actor.runPending) {
+				actor.runPending = false;
+				actor.run();
+				res = true;
+			} else {
+				int count = actor.receive(actor.getThroughput());
+				res = count > 0;
+				if (res) {
+					incDispatchCount(count);
+				}
+			}
+		} finally {
+			actor.setHasThread(false);
+			// clear before testing the mailbox so a concurrent send either
+			// sees the actor idle or its message is seen here
+			actor.scheduled.set(false);
+		}
+		if (actor.replacement != null) {
+			// replaced while running; the mailbox is its replacement's now
+			if (actor.scheduled.compareAndSet(false, true)) {
+				handOver(actor);
+			}
+			return res;
+		}
+		// test the mailbox; an actor's message count may include load elsewhere
+		if (actor.getManager() == this && actor.getMailbox().size() > 0) {
+			if (res) {
+				wakeActor(actor);
+			} else {
+				wakeActorWhenDue(actor);
 			}
 		}
 		return res;
 	}
 
-	protected Map<String, Actor> cloneActors() {
-		Map<String, Actor> xactors;
-		synchronized (actors) {
-			xactors = new HashMap<String, Actor>(actors);
+	protected TimingWheel timingWheel;
+
+	/** Delivers message events when ASYNC_EVENTS is set; else null. */
+	protected MessageEventQueue eventQueue;
+
+	/**
+	 * Tell a message's listeners of a status change, directly or through the
+	 * event queue. Does nothing (allocates nothing) if it has no listeners.
+	 * public intended only for AbstractActor access.
+	 * 
+	 * @param source
+	 *            the actor the message was sent to
+	 * @param message
+	 *            the message
+	 * @param status
+	 *            the new status
+	 */
+	public void fireMessageEvent(Object source, DefaultMessage message, MessageEvent.MessageStatus status) {
+		if (message.hasMessageListeners()) {
+			MessageEventQueue q = eventQueue;
+			if (q != null) {
+				q.post(new MessageEvent(source, message, status));
+			} else {
+				message.fireMessageStatus(source, status);
+			}
 		}
-		return xactors;
+	}
+
+	public TimingWheel getTimingWheel() {
+		return timingWheel;
 	}
 
 	/**
-	 * Suspend an actor until it has a read message.
+	 * An actor could not receive any of its pending messages; wake it when
+	 * the earliest delayed one falls due. If none is delayed it stays idle
+	 * until its next send. Delayed messages sent through this manager are
+	 * held by the timing wheel, so this only applies to ones added directly.
 	 * 
 	 * @param actor
-	 *            receiving actor
+	 *            the actor
 	 */
-	public void awaitMessage(AbstractActor actor) {
-		synchronized (actors) {
-			waiters.put(actor.getName(), actor);
-			// actors.notifyAll();
-			// logger.trace("awaitMessage waiters=%d: %s",waiters.size(), a);
+	protected void wakeActorWhenDue(AbstractActor actor) {
+		long due = actor.getNextDelayUntil();
+		if (due >= 0) {
+			if (due <= System.currentTimeMillis()) {
+				wakeActor(actor);
+			} else if (timingWheel != null) {
+				timingWheel.scheduleWakeup(actor, due);
+			}
+		}
+	}
+
+	/**
+	 * A delayed message (or wakeup if message is null) is due; deliver it if
+	 * the actor is still attached. Runs on the timer thread, so never waits
+	 * for mailbox space. public intended only for TimingWheel access.
+	 * 
+	 * @param actor
+	 *            target actor
+	 * @param message
+	 *            the message or null
+	 */
+	public void releaseDelayed(AbstractActor actor, DefaultMessage message) {
+		actor = current(actor);
+		if (actor.getManager() == this) {
+			if (message != null && (actor.isShutdown() || !actor.offerMessage(message) && !releaseOverflow(actor, message))) {
+				return;
+			}
+			wakeActor(actor);
 		}
 	}
 
+	/**
+	 * A due message did not fit in its actor's mailbox. The timer thread must
+	 * not wait for space, so under BLOCK the message goes back on the wheel
+	 * until the mailbox's blockMillis have passed since it was due. The drop
+	 * policies apply as for a send; otherwise the message is reported FAILED
+	 * to its listeners.
+	 * 
+	 * @param actor
+	 *            target actor
+	 * @param message
+	 *            the refused message
+	 * @return true if the message was queued
+	 */
+	protected boolean releaseOverflow(AbstractActor actor, DefaultMessage message) {
+		Mailbox mailbox = actor.getMailbox();
+		if (mailbox instanceof AbstractMailbox) {
+			AbstractMailbox am = (AbstractMailbox) mailbox;
+			switch (am.getPolicy()) {
+			case BLOCK:
+				if (System.currentTimeMillis() - message.getDelayUntil() < am.getBlockMillis()) {
+					timingWheel.schedule(actor, message);
+					return false;
+				}
+				break;
+			case DROP_OLDEST:
+			case DROP_NEWEST:
+				return actor.addMessage(message);
+			default:
+				break;
+			}
+		}
+		fireMessageEvent(actor, message, MessageEvent.MessageStatus.FAILED);
+		return false;
+	}
+
 	protected Map<String, ActorRunnable> trunnables = new HashMap<String, ActorRunnable>();
 
 	/**
@@ -487,6 +1158,9 @@ public class DefaultActorManager extends Utils implements ActorManager {
 	 * @return
 	 */
 	public int getActiveRunnableCount() {
+		if (scheduler != null) {
+			return scheduler.getActiveCount();
+		}
 		int res = 0;
 		synchronized (actors) {
 			for (String key : trunnables.keySet()) {
@@ -565,6 +1239,12 @@ public class DefaultActorManager extends Utils implements ActorManager {
 	}
 
 	private boolean initialized;
+
+	/**
+	 * Options given to initialize(). They also supply defaults for actor
+	 * options (e.g. AbstractActor.MAILBOX) not given to createActor().
+	 */
+	protected Map<String, Object> options = new HashMap<String, Object>();
 	
 	/**
 	 * Initialize this manager. Call only once.
@@ -576,16 +1256,33 @@ public class DefaultActorManager extends Utils implements ActorManager {
 	public void initialize(Map<String, Object> options) {
 		if (!initialized) {
 			initialized = true;
+			if (options != null) {
+				this.options = new HashMap<String, Object>(options);
+			}
 			int count = getThreadCount(options);
 			ThreadGroup tg = new ThreadGroup("ActorManager" + groupCount++);
 			threadGroup = tg;
-			for (int i = 0; i < count; i++) {
-				createThread(i);
+			scheduler = createScheduler(options);
+			routerType = getRouterType(options);
+			createRouter(routerType); // validate
+			timingWheel = new TimingWheel(this, getTimerTick(options), TimingWheel.DEFAULT_WHEEL_SIZE);
+			timingWheel.start();
+			Object xasync = options != null ? options.get(ASYNC_EVENTS) : null;
+			if (xasync != null && Boolean.parseBoolean(xasync.toString())) {
+				eventQueue = new MessageEventQueue();
+				eventQueue.start(threadGroup);
 			}
 			running = true;
-			for (Thread t : threads) {
-				// logger.trace("procesNextActor starting %s", t);
-				t.start();
+			if (scheduler != null) {
+				scheduler.start(this, count);
+			} else {
+				for (int i = 0; i < count; i++) {
+					createThread(i);
+				}
+				for (Thread t : threads) {
+					// logger.trace("procesNextActor starting %s", t);
+					t.start();
+				}
 			}
 
 			Thread Counter = new Thread(new Runnable() {
@@ -593,18 +1290,19 @@ public class DefaultActorManager extends Utils implements ActorManager {
 				public void run() {
 					while (running) {
 						try {
-							trendValue = sendCount - dispatchCount;
-							// logger.trace("Counter thread: sc=%d, dc=%d, t=%d",
-							// sendCount, dispatchCount, trendValue);
-							lastSendCount = sendCount;
-							sendCount = 0;
+							long sends = sendCount.sum();
+							lastSendCount = (int) (sends - rolledSendCount);
+							rolledSendCount = sends;
 							updateLastDispatchCount();
+							trendValue = lastSendCount - lastDispatchCount;
+							// logger.trace("Counter thread: sc=%d, dc=%d, t=%d",
+							// lastSendCount, lastDispatchCount, trendValue);
 							Thread.sleep(1000);
 						} catch (InterruptedException e) {
 							break;
 						}
 					}
-					sendCount = lastSendCount = 0;
+					clearSendCount();
 					clearDispatchCount();
 				}
 			});
@@ -623,6 +1321,60 @@ public class DefaultActorManager extends Utils implements ActorManager {
 		return Math.max(Thread.MIN_PRIORITY, Thread.currentThread().getPriority() - 1);
 	}
 
+	protected String routerType = ROUTER_LEAST_LOADED;
+
+	protected String getRouterType(Map<String, Object> options) {
+		Object name = options != null ? options.get(ACTOR_ROUTER) : null;
+		return name != null ? name.toString() : ROUTER_LEAST_LOADED;
+	}
+
+	/**
+	 * Create a category router of a type (an ACTOR_ROUTER option value).
+	 * 
+	 * @return the router
+	 */
+	protected ActorRouter createRouter(String type) {
+		if (ROUTER_LEAST_LOADED.equals(type)) {
+			return new LeastLoadedRouter();
+		}
+		if (ROUTER_POWER_OF_TWO.equals(type)) {
+			return new PowerOfTwoRouter();
+		}
+		if (ROUTER_ROUND_ROBIN.equals(type)) {
+			return new RoundRobinRouter();
+		}
+		if (ROUTER_CONSISTENT_HASH.equals(type)) {
+			return new ConsistentHashRouter();
+		}
+		throw new IllegalArgumentException("unknown router: " + type);
+	}
+
+	/**
+	 * Create the scheduler selected by the ACTOR_SCHEDULER option.
+	 * 
+	 * @return the scheduler, or null to use the built in scheduling
+	 */
+	protected ActorScheduler createScheduler(Map<String, Object> options) {
+		Object xscheduler = options != null ? options.get(ACTOR_SCHEDULER) : null;
+		String name = xscheduler != null ? xscheduler.toString() : SCHEDULER_DEFAULT;
+		if (SCHEDULER_DEFAULT.equals(name)) {
+			return null;
+		}
+		if (SCHEDULER_QUEUE.equals(name)) {
+			return new QueueActorScheduler();
+		}
+		if (SCHEDULER_FORK_JOIN.equals(name)) {
+			return new ForkJoinActorScheduler();
+		}
+		if (SCHEDULER_VIRTUAL.equals(name)) {
+			return new VirtualThreadActorScheduler();
+		}
+		if (SCHEDULER_AFFINITY.equals(name)) {
+			return new AffinityActorScheduler();
+		}
+		throw new IllegalArgumentException("unknown scheduler: " + name);
+	}
+
 	protected int getThreadCount(Map<String, Object> options) {
 		Integer count = null;
 		Object xcount = options != null ? options.get(ACTOR_THREAD_COUNT) : null;
@@ -639,6 +1391,15 @@ public class DefaultActorManager extends Utils implements ActorManager {
 		return count;
 	}
 
+	protected long getTimerTick(Map<String, Object> options) {
+		long res = TimingWheel.DEFAULT_TICK_MILLIS;
+		Object xtick = options != null ? options.get(ACTOR_TIMER_TICK) : null;
+		if (xtick != null) {
+			res = Long.parseLong(xtick.toString());
+		}
+		return res;
+	}
+
 	/** public intended only for "friend" access. */
 	public class ActorRunnable implements Runnable {
 		public boolean hasThread;
@@ -646,23 +1407,17 @@ public class DefaultActorManager extends Utils implements ActorManager {
 
 		public void run() {
 			// logger.trace("procesNextActor starting");
-			int delay = 1;
 			while (running) {
 				try {
 					if (!procesNextActor()) {
 						// logger.trace("procesNextActor waiting on actor");
-						// sleep(delay * 1000);
 						synchronized (actors) {
-							// TOOD: adjust this delay; possible parameter
-							// we want to minizmize overhead (make bigger);
-							// but it has a big impact on message processing
-							// rate (makesmaller)
-							// actors.wait(delay * 1000);
-							actors.wait(100);
+							// wakeActor() notifies when an idle actor gets
+							// a message; no need to poll
+							if (runnables.isEmpty() && waiters.isEmpty()) {
+								actors.wait();
+							}
 						}
-						delay = Math.max(5, delay + 1);
-					} else {
-						delay = 1;
 					}
 				} catch (InterruptedException e) {
 				} catch (Exception e) {
@@ -673,52 +1428,29 @@ public class DefaultActorManager extends Utils implements ActorManager {
 		}
 
 		protected boolean procesNextActor() {
-			boolean run = false, wait = false, res = false;
 			actor = null;
 			synchronized (actors) {
+				// first run never started, then waiting for responses
 				for (String key : runnables.keySet()) {
 					actor = runnables.remove(key);
 					break;
 				}
+				if (actor == null) {
+					for (String key : waiters.keySet()) {
+						actor = waiters.remove(key);
+						break;
+					}
+				}
 			}
 			if (actor != null) {
-				// first run never started
-				run = true;
-				actor.setHasThread(true);
 				hasThread = true;
 				try {
-					actor.run();
+					dispatch(actor);
 				} finally {
-					actor.setHasThread(false);
 					hasThread = false;
 				}
-			} else {
-				synchronized (actors) {
-					for (String key : waiters.keySet()) {
-						actor = waiters.remove(key);
-						break;
-					}
-				}
-				if (actor != null) {
-					// then waiting for responses
-					wait = true;
-					actor.setHasThread(true);
-					hasThread = true;
-					try {
-						res = actor.receive();
-						if (res) {
-							incDispatchCount();
-						}
-					} finally {
-						actor.setHasThread(false);
-						hasThread = false;
-					}
-				}
 			}
-			// if (!(!run && wait && !res) && a != null) {
-			// logger.trace("procesNextActor %b/%b/%b: %s", run, wait, res, a);
-			// }
-			return run || res;
+			return actor != null;
 		}
 	}
 
@@ -752,6 +1484,9 @@ public class DefaultActorManager extends Utils implements ActorManager {
 		if (!terminated) {
 			throw new IllegalStateException("not terminated");
 		}
+		if (scheduler != null) {
+			scheduler.waitForTermination();
+		}
 		for (Thread t : threads) {
 			try {
 				// logger.info("terminateAndWait waiting for %s...", t);
@@ -774,13 +1509,21 @@ public class DefaultActorManager extends Utils implements ActorManager {
 		for (Thread t : threads) {
 			t.interrupt();
 		}
-		synchronized (actors) {
-			for (String key : actors.keySet()) {
-				actors.get(key).deactivate();
-			}
+		if (scheduler != null) {
+			scheduler.terminate();
 		}
-		sentMessages.clear();
-		sendCount = lastSendCount = 0;
+		if (timingWheel != null) {
+			timingWheel.stop();
+		}
+		if (eventQueue != null) {
+			eventQueue.stop();
+		}
+		for (AbstractActor a : actors.values()) {
+			a.deactivate();
+			closeMailbox(a);
+			a.getSentMessages().clear();
+		}
+		clearSendCount();
 		clearDispatchCount();
 	}
 
@@ -839,22 +1582,35 @@ public class DefaultActorManager extends Utils implements ActorManager {
 	 */
 	@Override
 	public Actor createActor(Class<? extends Actor> clazz, String name, Map<String, Object> options) {
-		AbstractActor a = null;
-		synchronized (actors) {
-			if (!actors.containsKey(name)) {
-				try {
-					a = (AbstractActor) clazz.newInstance();
-					a.setName(name);
-					a.setManager(this);
-				} catch (Exception e) {
-					throw e instanceof RuntimeException ? (RuntimeException) e : new RuntimeException(
-							"mapped exception: " + e, e);
-				}
-			} else {
-				throw new IllegalArgumentException("name already in use: " + name);
-			}
+		if (actors.containsKey(name)) {
+			throw new IllegalArgumentException("name already in use: " + name);
+		}
+		Map<String, Object> xoptions = new HashMap<String, Object>(this.options);
+		if (options != null) {
+			xoptions.putAll(options);
+		}
+		return newActor(clazz, name, null, xoptions);
+	}
+
+	/**
+	 * Create and configure an actor owned by this manager.
+	 * 
+	 * @param mailbox
+	 *            the mailbox to take over; null to create one
+	 */
+	protected AbstractActor newActor(Class<? extends Actor> clazz, String name, Mailbox mailbox,
+			Map<String, Object> options) {
+		try {
+			AbstractActor a = (AbstractActor) clazz.newInstance();
+			a.setName(name);
+			a.messages = mailbox;
+			a.configure(options);
+			a.setManager(this);
+			return a;
+		} catch (Exception e) {
+			throw e instanceof RuntimeException ? (RuntimeException) e : new RuntimeException(
+					"mapped exception: " + e, e);
 		}
-		return a;
 	}
 
 	/**
@@ -869,15 +1625,31 @@ public class DefaultActorManager extends Utils implements ActorManager {
 			throw new IllegalStateException("actor not owned by this manager");
 		}
 		String name = actor.getName();
-		synchronized (actors) {
+		Mailbox mb = ((AbstractActor) actor).getMailbox();
+		if (mb instanceof DurableMailbox) {
+			// queue what an earlier run left in the log
+			int count = ((DurableMailbox) mb).replay();
+			if (count > 0) {
+				logger.info("startActor %s replayed %d messages", name, count);
+			}
+		}
+		AbstractActor a = (AbstractActor) actor;
+		synchronized (registryLock) {
 			if (actors.containsKey(name)) {
 				throw new IllegalStateException("already started");
 			}
-			((AbstractActor) actor).shutdown = false;
-			actors.put(name, (AbstractActor) actor);
-			runnables.put(name, (AbstractActor) actor);
+			a.shutdown = false;
+			a.runPending = true;
+			a.scheduled.set(true);
+			actors.put(name, a);
+			addCategoryMember(a);
+			AbstractActor[] xactors = snapshot.actors;
+			xactors = Arrays.copyOf(xactors, xactors.length + 1);
+			xactors[xactors.length - 1] = a;
+			publishSnapshot(xactors);
 		}
 		actor.activate();
+		schedule(a);
 	}
 
 	protected int trendValue = 0, maxTrendValue = 10;
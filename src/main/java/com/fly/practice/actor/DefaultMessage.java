@@ -1,8 +1,7 @@
 package com.fly.practice.actor;
 
+import java.util.Arrays;
 import java.util.Date;
-import java.util.LinkedList;
-import java.util.List;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -38,6 +37,42 @@ public class DefaultMessage extends Utils implements Message {
 		this.delayUntil = delayUntil;
 	}
 
+	/** Priority of bulk work; received after NORMAL messages. */
+	public static final int PRIORITY_LOW = 0;
+
+	/** The default priority. */
+	public static final int PRIORITY_NORMAL = 1;
+
+	/** Priority of control/system messages; received before all others. */
+	public static final int PRIORITY_HIGH = 2;
+
+	protected int priority = PRIORITY_NORMAL;
+
+	@Override
+	public int getPriority() {
+		return priority;
+	}
+
+	/**
+	 * Set the priority. Only used by actors with priority lanes (see
+	 * AbstractActor.PRIORITY_LANES).
+	 * 
+	 * @param priority
+	 *            PRIORITY_LOW to PRIORITY_HIGH
+	 **/
+	public void setPriority(int priority) {
+		if (priority < PRIORITY_LOW || priority > PRIORITY_HIGH) {
+			throw new IllegalArgumentException("bad priority: " + priority);
+		}
+		this.priority = priority;
+	}
+
+	/** When added to a mailbox (System.nanoTime()); for queue wait metrics. */
+	protected long enqueueTime;
+
+	/** Id of its record in a MessageLog; 0 if not logged. */
+	protected long logId;
+
 	protected Actor source;
 
 	@Override
@@ -89,11 +124,93 @@ public class DefaultMessage extends Utils implements Message {
 
 	/** Set the sender of a clone of this message. */
 	public Message assignSender(Actor sender) {
-		DefaultMessage res = new DefaultMessage(subject, data);
+		DefaultMessage res = copy();
 		res.source = sender;
 		return res;
 	}
 
+	/**
+	 * Make the clone queued by a send. Recyclable messages are cloned from the
+	 * same pool. Subclasses with more state override newInstance() and
+	 * copyTo().
+	 */
+	protected DefaultMessage copy() {
+		DefaultMessage res = pool != null ? (DefaultMessage) pool.obtain() : newInstance();
+		copyTo(res);
+		return res;
+	}
+
+	/** Create an empty message of this class. */
+	protected DefaultMessage newInstance() {
+		return new DefaultMessage();
+	}
+
+	protected void copyTo(DefaultMessage res) {
+		res.subject = subject;
+		res.data = data;
+		res.delayUntil = delayUntil;
+		res.priority = priority;
+		res.listeners = listeners; // never changed in place, so safe to share
+	}
+
+	/** Pool of recyclable DefaultMessages. */
+	public static final MessagePool<DefaultMessage> POOL = new MessagePool<DefaultMessage>() {
+		@Override
+		protected DefaultMessage create() {
+			return new DefaultMessage();
+		}
+	};
+
+	/**
+	 * Get a recyclable message from the pool.
+	 * 
+	 * @see #recycle()
+	 */
+	public static DefaultMessage obtain(String subject, Object data) {
+		DefaultMessage res = POOL.obtain();
+		res.subject = subject;
+		res.data = data;
+		return res;
+	}
+
+	/** The pool this message returns to; null if not recyclable. */
+	protected MessagePool<?> pool;
+
+	/** Set while in the pool, so a double recycle is ignored. */
+	protected boolean pooled;
+
+	/** Test if this message came from (and returns to) a MessagePool. */
+	public boolean isRecyclable() {
+		return pool != null;
+	}
+
+	/**
+	 * Clear this message and return it to its pool, from any thread. The
+	 * copies queued by sends of a recyclable message are recyclable too; the
+	 * manager recycles them after loopBody() so actors must not keep them (or
+	 * their mutable data). Does nothing for a non-recyclable message. The sent
+	 * message recorder does not keep recyclable messages.
+	 */
+	public void recycle() {
+		if (pool != null && !pooled) {
+			clear();
+			pooled = true;
+			pool.release(this);
+		}
+	}
+
+	/** Reset the state; subclasses clear their payload too. */
+	protected void clear() {
+		source = null;
+		subject = null;
+		data = null;
+		delayUntil = -1;
+		priority = PRIORITY_NORMAL;
+		enqueueTime = 0;
+		logId = 0;
+		listeners = null;
+	}
+
 	@Override
 	public String toString() {
 		return getClass().getSimpleName() + "[" + bodyString() + "]";
@@ -118,21 +235,77 @@ public class DefaultMessage extends Utils implements Message {
 		return res;
 	}
 
-	protected List<MessageListener> listeners = new LinkedList<MessageListener>();
+	/** Listeners; null if none. Replaced, never changed, when updated. */
+	volatile protected MessageListener[] listeners;
+
+	public synchronized void addMessageListener(MessageListener l) {
+		MessageListener[] xlisteners = listeners;
+		if (xlisteners == null) {
+			listeners = new MessageListener[] { l };
+		} else if (!Arrays.asList(xlisteners).contains(l)) {
+			xlisteners = Arrays.copyOf(xlisteners, xlisteners.length + 1);
+			xlisteners[xlisteners.length - 1] = l;
+			listeners = xlisteners;
+		}
+	}
 
-	public void addMessageListener(MessageListener l) {
-		if (!listeners.contains(l)) {
-			listeners.add(l);
+	public synchronized void removeMessageListener(MessageListener l) {
+		MessageListener[] xlisteners = listeners;
+		if (xlisteners != null) {
+			int i = Arrays.asList(xlisteners).indexOf(l);
+			if (i >= 0) {
+				MessageListener[] res = null;
+				if (xlisteners.length > 1) {
+					res = new MessageListener[xlisteners.length - 1];
+					System.arraycopy(xlisteners, 0, res, 0, i);
+					System.arraycopy(xlisteners, i + 1, res, i, res.length - i);
+				}
+				listeners = res;
+			}
 		}
 	}
 
-	public void removeMessageListener(MessageListener l) {
-		listeners.remove(l);
+	/** Test if any listener would be told of events of this message. */
+	public boolean hasMessageListeners() {
+		return listeners != null;
 	}
-	
+
 	public void fireMessageListeners(MessageEvent e) {
-		for(MessageListener l : listeners) {
-			l.onMessage(e);
+		MessageListener[] xlisteners = listeners;
+		if (xlisteners != null) {
+			for (MessageListener l : xlisteners) {
+				if (l instanceof MessageStatusListener) {
+					((MessageStatusListener) l).onMessageStatus(e.getSource(), e.getMessage(), e.getStatus());
+				} else {
+					l.onMessage(e);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Tell the listeners of a status change. A MessageEvent is only created if
+	 * some listener is not a MessageStatusListener.
+	 * 
+	 * @param source
+	 *            the actor the message was sent to
+	 * @param status
+	 *            the new status
+	 */
+	public void fireMessageStatus(Object source, MessageEvent.MessageStatus status) {
+		MessageListener[] xlisteners = listeners;
+		if (xlisteners != null) {
+			MessageEvent e = null;
+			for (MessageListener l : xlisteners) {
+				if (l instanceof MessageStatusListener) {
+					((MessageStatusListener) l).onMessageStatus(source, this, status);
+				} else {
+					if (e == null) {
+						e = new MessageEvent(source, this, status);
+					}
+					l.onMessage(e);
+				}
+			}
 		}
 	}
 }
@@ -0,0 +1,70 @@
+package com.fly.practice.actor;
+
+/**
+ * A message with a double payload that is not boxed, for numeric pipelines. Use
+ * obtain() to take it from a pool; see DefaultMessage.recycle().
+ */
+public class DoubleMessage extends TypedMessage {
+
+	protected double value;
+
+	/** Get the payload. */
+	public double getDouble() {
+		return value;
+	}
+
+	/** Set the payload. */
+	public void setDouble(double value) {
+		this.value = value;
+	}
+
+	/** Get the payload boxed (allocates); prefer getDouble(). */
+	@Override
+	public Object getData() {
+		return Double.valueOf(value);
+	}
+
+	public DoubleMessage(String subject, double value) {
+		super(subject);
+		this.value = value;
+	}
+
+	protected DoubleMessage() {
+	}
+
+	/** Pool of recyclable DoubleMessages. */
+	public static final MessagePool<DoubleMessage> POOL = new MessagePool<DoubleMessage>() {
+		@Override
+		protected DoubleMessage create() {
+			return new DoubleMessage();
+		}
+	};
+
+	/** Get a recyclable message from the pool. */
+	public static DoubleMessage obtain(String subject, double value) {
+		DoubleMessage res = POOL.obtain();
+		res.subject = subject;
+		res.value = value;
+		return res;
+	}
+
+	@Override
+	protected DoubleMessage newInstance() {
+		return new DoubleMessage();
+	}
+
+	@Override
+	protected void copyPayloadTo(TypedMessage res) {
+		((DoubleMessage) res).value = value;
+	}
+
+	@Override
+	protected void clearPayload() {
+		value = 0;
+	}
+
+	@Override
+	protected String payloadString() {
+		return "value=" + value;
+	}
+}
@@ -0,0 +1,156 @@
+package com.fly.practice.actor;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * A Mailbox that also records its messages in a MessageLog, so they survive
+ * the JVM dying. A message is logged when added and acknowledged once its
+ * actor completes it (or it is dropped); replay(), called by startActor(),
+ * queues the messages left in the log by an earlier run. A message that FAILED stays in the log and is
+ * replayed on the next start.
+ *
+ * Messages are kept in an inner mailbox, which supplies the ordering and
+ * selective receive; this mailbox applies the overflow policy. Delayed
+ * messages are logged only once released to the mailbox.
+ *
+ * The manager closes the log when the actor is detached or the manager
+ * terminated, but not when the actor is replaced: the new instance takes
+ * over this mailbox.
+ */
+public class DurableMailbox extends AbstractMailbox {
+
+	protected final AbstractMailbox inner;
+
+	protected final MessageLog log;
+
+	/** Replayed messages that did not fit the inner mailbox yet; guarded by this. */
+	protected final ArrayDeque<DefaultMessage> backlog = new ArrayDeque<DefaultMessage>();
+
+	volatile protected int backlogSize;
+
+	protected boolean replayed;
+
+	public DurableMailbox(AbstractMailbox inner, MessageLog log, OverflowPolicy policy, long blockMillis) {
+		super(inner.capacity(), policy, blockMillis);
+		this.inner = inner;
+		this.log = log;
+	}
+
+	public MessageLog getLog() {
+		return log;
+	}
+
+	/**
+	 * Queue the messages recovered from the log. Only the first call does
+	 * anything.
+	 *
+	 * @return the number of messages replayed
+	 */
+	public synchronized int replay() {
+		if (replayed) {
+			return 0;
+		}
+		replayed = true;
+		List<DefaultMessage> res = log.recover();
+		backlog.addAll(res);
+		backlogSize = backlog.size();
+		refill();
+		return res.size();
+	}
+
+	/** Move backlog messages to the inner mailbox while they fit. */
+	protected void refill() {
+		if (backlogSize > 0) {
+			synchronized (this) {
+				while (!backlog.isEmpty() && inner.offer(backlog.peek())) {
+					backlog.poll();
+				}
+				backlogSize = backlog.size();
+			}
+		}
+	}
+
+	/** The actor completed a message; it will not be replayed. */
+	public void acknowledge(DefaultMessage message) {
+		log.acknowledge(message);
+	}
+
+	@Override
+	protected boolean offer(DefaultMessage message) {
+		if (backlogSize > 0) {
+			refill();
+			if (backlogSize > 0) {
+				return false; // replayed messages go first
+			}
+		}
+		if (inner.isFull()) {
+			// BLOCK and DROP_OLDEST call offer() until it fits; do not log each try
+			return false;
+		}
+		// only a racing offer can still fail here; it is acknowledged at once
+		log.append(message);
+		boolean res = false;
+		try {
+			res = inner.offer(message);
+		} finally {
+			if (!res) {
+				log.acknowledge(message);
+			}
+		}
+		return res;
+	}
+
+	/** Only used to drop the oldest message on overflow. */
+	@Override
+	protected DefaultMessage poll() {
+		DefaultMessage res = inner.poll();
+		if (res != null) {
+			log.acknowledge(res);
+			refill();
+		}
+		return res;
+	}
+
+	@Override
+	public DefaultMessage peek(String subject, Pattern pattern, long now) {
+		return inner.peek(subject, pattern, now);
+	}
+
+	@Override
+	public boolean remove(Message message) {
+		if (inner.remove(message)) {
+			refill();
+			return true;
+		}
+		return false;
+	}
+
+	@Override
+	public int size() {
+		return inner.size() + backlogSize;
+	}
+
+	/** Full while replayed messages wait to fit the inner mailbox. */
+	@Override
+	public boolean isFull() {
+		return backlogSize > 0 || inner.isFull();
+	}
+
+	@Override
+	public long getNextDelayUntil() {
+		return inner.getNextDelayUntil();
+	}
+
+	@Override
+	public DefaultMessage[] toArray() {
+		List<DefaultMessage> res = new ArrayList<DefaultMessage>(Arrays.asList(inner.toArray()));
+		synchronized (this) {
+			res.addAll(backlog);
+		}
+		return res.toArray(new DefaultMessage[res.size()]);
+	}
+}
@@ -0,0 +1,119 @@
+package com.fly.practice.actor;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import com.fly.practice.actor.utils.Utils;
+
+/**
+ * An ActorScheduler that runs each actor activation as a task on a
+ * work-stealing ForkJoinPool. A message sent from inside an actor is pushed
+ * onto the sending worker's local deque, so fan-out (e.g. QuicksortActor,
+ * MapReduceActor) mostly stays on the same thread and idle workers steal the
+ * rest instead of polling a shared structure.
+ *
+ * The manager schedules an actor only while it is idle, so at most one task
+ * per actor exists at any time.
+ *
+ * Selected with the {@link DefaultActorManager#SCHEDULER_FORK_JOIN} option
+ * value.
+ */
+public class ForkJoinActorScheduler extends Utils implements ActorScheduler {
+
+	protected DefaultActorManager manager;
+
+	protected ForkJoinPool pool;
+
+	volatile protected boolean running;
+
+	@Override
+	public void start(final DefaultActorManager manager, int threadCount) {
+		this.manager = manager;
+		running = true;
+		pool = new ForkJoinPool(threadCount, new ForkJoinPool.ForkJoinWorkerThreadFactory() {
+			int count;
+
+			@Override
+			public ForkJoinWorkerThread newThread(ForkJoinPool pool) {
+				ForkJoinWorkerThread t = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+				t.setName("actor" + count++);
+				t.setPriority(manager.getThreadPriority());
+				return t;
+			}
+		}, null, true); // async (FIFO) mode suits event style tasks that are never joined
+	}
+
+	@Override
+	public void actorDetached(AbstractActor actor) {
+		// a queued task finds the actor detached and does nothing
+	}
+
+	/** Submit an activation; forked locally when called from a pool worker. */
+	@Override
+	public void schedule(AbstractActor actor) {
+		if (running) {
+			ActorTask task = new ActorTask(actor);
+			if (ForkJoinTask.inForkJoinPool() && ForkJoinTask.getPool() == pool) {
+				task.fork(); // local deque; other workers may steal it
+			} else {
+				try {
+					pool.execute(task);
+				} catch (RejectedExecutionException e) {
+					// terminated since running was read; drop the wake-up
+					if (running) {
+						throw e;
+					}
+				}
+			}
+		}
+	}
+
+	@Override
+	public void terminate() {
+		running = false;
+		if (pool != null) {
+			pool.shutdownNow();
+		}
+	}
+
+	@Override
+	public void waitForTermination() {
+		try {
+			if (pool != null) {
+				pool.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+			}
+		} catch (InterruptedException e) {
+			// ignore
+		}
+	}
+
+	@Override
+	public int getActiveCount() {
+		return pool != null ? pool.getActiveThreadCount() : 0;
+	}
+
+	/** One activation (run() or receive()) of an actor. */
+	@SuppressWarnings("serial")
+	protected class ActorTask extends RecursiveAction {
+		protected final AbstractActor actor;
+
+		public ActorTask(AbstractActor actor) {
+			this.actor = actor;
+		}
+
+		@Override
+		protected void compute() {
+			try {
+				if (actor.getManager() == manager) {
+					manager.dispatch(actor);
+				}
+			} catch (Exception e) {
+				logger.error("ForkJoinActorScheduler dispatch exception", e);
+			}
+		}
+	}
+}
@@ -0,0 +1,89 @@
+package com.fly.practice.actor;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A lock-free histogram of durations (in nanos) with power of two buckets.
+ * Recording is a couple of striped adds, so many threads can record into one
+ * histogram without contending; reading sums the stripes without locking.
+ * Percentiles are reported as the upper bound of their bucket.
+ */
+public class Histogram {
+
+	/** Bucket i holds values below 2^i nanos; the last one everything else. */
+	public static final int BUCKETS = 40;
+
+	protected final LongAdder[] buckets = new LongAdder[BUCKETS];
+
+	protected final LongAdder sum = new LongAdder();
+
+	public Histogram() {
+		for (int i = 0; i < BUCKETS; i++) {
+			buckets[i] = new LongAdder();
+		}
+	}
+
+	/** Record a duration in nanos. */
+	public void record(long nanos) {
+		if (nanos < 0) {
+			nanos = 0;
+		}
+		buckets[Math.min(64 - Long.numberOfLeadingZeros(nanos), BUCKETS - 1)].increment();
+		sum.add(nanos);
+	}
+
+	public long getCount() {
+		long res = 0;
+		for (LongAdder b : buckets) {
+			res += b.sum();
+		}
+		return res;
+	}
+
+	/** Get the mean duration in nanos; 0 if empty. */
+	public long getMean() {
+		long count = getCount();
+		return count > 0 ? sum.sum() / count : 0;
+	}
+
+	/**
+	 * Get a percentile.
+	 * 
+	 * @param p
+	 *            0 to 100
+	 * @return upper bound (in nanos) of the bucket holding it; 0 if empty
+	 */
+	public long getPercentile(double p) {
+		long[] counts = new long[BUCKETS];
+		long total = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			counts[i] = buckets[i].sum();
+			total += counts[i];
+		}
+		if (total == 0) {
+			return 0;
+		}
+		long rank = (long) Math.ceil(total * p / 100);
+		long seen = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			seen += counts[i];
+			if (seen >= rank && counts[i] > 0) {
+				return 1L << i;
+			}
+		}
+		return 1L << (BUCKETS - 1);
+	}
+
+	public void reset() {
+		for (LongAdder b : buckets) {
+			b.reset();
+		}
+		sum.reset();
+	}
+
+	@Override
+	public String toString() {
+		return "count=" + getCount() + ", mean=" + getMean() + "ns, p50=" + getPercentile(50) + "ns, p99="
+				+ getPercentile(99) + "ns";
+	}
+}
@@ -0,0 +1,16 @@
+package com.fly.practice.actor;
+
+/**
+ * Routes to the member with the fewest pending messages (the original
+ * category send behavior). Costs one scan of the category per message.
+ *
+ * Selected with the {@link DefaultActorManager#ROUTER_LEAST_LOADED} option
+ * value.
+ */
+public class LeastLoadedRouter extends AbstractActorRouter {
+
+	@Override
+	public AbstractActor select(Message message) {
+		return leastLoaded(members);
+	}
+}
@@ -0,0 +1,226 @@
+package com.fly.practice.actor;
+
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * The default Mailbox. Messages are kept in arrival order on a linked list
+ * and also chained per subject, so selective receive by subject only looks at
+ * messages with that subject, a reg expr receive only tests each distinct
+ * subject once, and remove() is O(1). Access is synchronized on the mailbox.
+ */
+public class LinkedMailbox extends AbstractMailbox {
+
+	/** A pending message, linked in arrival order and within its subject. */
+	protected static class Node {
+		final DefaultMessage message;
+		final long seq;
+		Node prev, next;
+		Node subjectPrev, subjectNext;
+
+		Node(DefaultMessage message, long seq) {
+			this.message = message;
+			this.seq = seq;
+		}
+	}
+
+	/** The messages with one subject, oldest first. */
+	protected static class SubjectChain {
+		final String subject;
+		Node head, tail;
+		// remembers the last reg expr tested; receive loops reuse one Pattern
+		Pattern lastPattern;
+		boolean lastMatch;
+
+		SubjectChain(String subject) {
+			this.subject = subject;
+		}
+
+		boolean matches(Pattern p) {
+			if (p != lastPattern) {
+				lastMatch = subject != null && p.matcher(subject).matches();
+				lastPattern = p;
+			}
+			return lastMatch;
+		}
+	}
+
+	protected Node head, tail;
+
+	/** Written under the lock; read without it. */
+	volatile protected int size;
+
+	protected long nextSeq;
+
+	protected final Map<String, SubjectChain> subjects = new HashMap<String, SubjectChain>();
+
+	protected final Map<Message, Node> nodes = new IdentityHashMap<Message, Node>();
+
+	public LinkedMailbox(int capacity) {
+		this(capacity, OverflowPolicy.FAIL, DEFAULT_BLOCK_MILLIS);
+	}
+
+	public LinkedMailbox(int capacity, OverflowPolicy policy, long blockMillis) {
+		super(capacity, policy, blockMillis);
+	}
+
+	@Override
+	protected synchronized boolean offer(DefaultMessage message) {
+		if (nodes.containsKey(message)) {
+			throw new IllegalArgumentException("message already queued: " + message);
+		}
+		if (size >= capacity) {
+			return false;
+		}
+		Node n = new Node(message, nextSeq++);
+		n.prev = tail;
+		if (tail != null) {
+			tail.next = n;
+		} else {
+			head = n;
+		}
+		tail = n;
+		String subject = message.getSubject();
+		SubjectChain c = subjects.get(subject);
+		if (c == null) {
+			c = new SubjectChain(subject);
+			subjects.put(subject, c);
+		}
+		n.subjectPrev = c.tail;
+		if (c.tail != null) {
+			c.tail.subjectNext = n;
+		} else {
+			c.head = n;
+		}
+		c.tail = n;
+		nodes.put(message, n);
+		size++;
+		return true;
+	}
+
+	/** Queue as many as fit under one lock; only the overflow goes through add(). */
+	@Override
+	public int addAll(List<DefaultMessage> messages) {
+		int res = 0;
+		int n = messages.size();
+		synchronized (this) {
+			while (res < n && offer(messages.get(res))) {
+				res++;
+			}
+		}
+		while (res < n && add(messages.get(res))) {
+			res++;
+		}
+		return res;
+	}
+
+	protected void unlink(Node n) {
+		if (n.prev != null) {
+			n.prev.next = n.next;
+		} else {
+			head = n.next;
+		}
+		if (n.next != null) {
+			n.next.prev = n.prev;
+		} else {
+			tail = n.prev;
+		}
+		SubjectChain c = subjects.get(n.message.getSubject());
+		if (n.subjectPrev != null) {
+			n.subjectPrev.subjectNext = n.subjectNext;
+		} else {
+			c.head = n.subjectNext;
+		}
+		if (n.subjectNext != null) {
+			n.subjectNext.subjectPrev = n.subjectPrev;
+		} else {
+			c.tail = n.subjectPrev;
+		}
+		if (c.head == null) {
+			subjects.remove(c.subject);
+		}
+		nodes.remove(n.message);
+		size--;
+	}
+
+	@Override
+	protected synchronized DefaultMessage poll() {
+		Node n = head;
+		if (n != null) {
+			unlink(n);
+			return n.message;
+		}
+		return null;
+	}
+
+	@Override
+	public synchronized DefaultMessage peek(String subject, Pattern pattern, long now) {
+		if (pattern != null) {
+			Node best = null;
+			for (SubjectChain c : subjects.values()) {
+				if (c.matches(pattern)) {
+					Node n = firstDue(c.head, now, true);
+					if (n != null && (best == null || n.seq < best.seq)) {
+						best = n;
+					}
+				}
+			}
+			return best != null ? best.message : null;
+		}
+		if (subject != null) {
+			SubjectChain c = subjects.get(subject);
+			Node n = c != null ? firstDue(c.head, now, true) : null;
+			return n != null ? n.message : null;
+		}
+		Node n = firstDue(head, now, false);
+		return n != null ? n.message : null;
+	}
+
+	/** Find the first due node following either the subject or arrival links. */
+	protected static Node firstDue(Node n, long now, boolean bySubject) {
+		while (n != null && n.message.getDelayUntil() > now) {
+			n = bySubject ? n.subjectNext : n.next;
+		}
+		return n;
+	}
+
+	@Override
+	public synchronized boolean remove(Message message) {
+		Node n = nodes.get(message);
+		if (n != null) {
+			unlink(n);
+			return true;
+		}
+		return false;
+	}
+
+	@Override
+	public int size() {
+		return size;
+	}
+
+	@Override
+	public synchronized long getNextDelayUntil() {
+		long res = -1;
+		for (Node n = head; n != null; n = n.next) {
+			long due = n.message.getDelayUntil();
+			if (due >= 0 && (res < 0 || due < res)) {
+				res = due;
+			}
+		}
+		return res;
+	}
+
+	@Override
+	public synchronized DefaultMessage[] toArray() {
+		DefaultMessage[] res = new DefaultMessage[size];
+		int i = 0;
+		for (Node n = head; n != null; n = n.next) {
+			res[i++] = n.message;
+		}
+		return res;
+	}
+}
@@ -0,0 +1,70 @@
+package com.fly.practice.actor;
+
+/**
+ * A message with a long payload that is not boxed, for numeric pipelines. Use
+ * obtain() to take it from a pool; see DefaultMessage.recycle().
+ */
+public class LongMessage extends TypedMessage {
+
+	protected long value;
+
+	/** Get the payload. */
+	public long getLong() {
+		return value;
+	}
+
+	/** Set the payload. */
+	public void setLong(long value) {
+		this.value = value;
+	}
+
+	/** Get the payload boxed (allocates); prefer getLong(). */
+	@Override
+	public Object getData() {
+		return Long.valueOf(value);
+	}
+
+	public LongMessage(String subject, long value) {
+		super(subject);
+		this.value = value;
+	}
+
+	protected LongMessage() {
+	}
+
+	/** Pool of recyclable LongMessages. */
+	public static final MessagePool<LongMessage> POOL = new MessagePool<LongMessage>() {
+		@Override
+		protected LongMessage create() {
+			return new LongMessage();
+		}
+	};
+
+	/** Get a recyclable message from the pool. */
+	public static LongMessage obtain(String subject, long value) {
+		LongMessage res = POOL.obtain();
+		res.subject = subject;
+		res.value = value;
+		return res;
+	}
+
+	@Override
+	protected LongMessage newInstance() {
+		return new LongMessage();
+	}
+
+	@Override
+	protected void copyPayloadTo(TypedMessage res) {
+		((LongMessage) res).value = value;
+	}
+
+	@Override
+	protected void clearPayload() {
+		value = 0;
+	}
+
+	@Override
+	protected String payloadString() {
+		return "value=" + value;
+	}
+}
@@ -0,0 +1,93 @@
+package com.fly.practice.actor;
+
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * Holds the messages sent to an actor until it receives them. Mailboxes are
+ * bounded; what happens when a full mailbox is sent to is decided by its
+ * OverflowPolicy.
+ *
+ * @see AbstractActor#createMailbox(java.util.Map)
+ */
+public interface Mailbox {
+
+	/** What add() does when the mailbox is full. */
+	enum OverflowPolicy {
+		/** Throw IllegalStateException (the original behavior). */
+		FAIL,
+		/** Wait for space; fail as FAIL if none frees up in time. */
+		BLOCK,
+		/** Discard the oldest pending message to make room. */
+		DROP_OLDEST,
+		/** Discard the new message; the sender is not told. */
+		DROP_NEWEST,
+		/** Refuse the new message; the send reports 0 receivers. */
+		BACKPRESSURE
+	}
+
+	/**
+	 * Queue a message.
+	 *
+	 * @param message
+	 *            the message
+	 * @return false if the message was refused (BACKPRESSURE only)
+	 * @throws IllegalStateException
+	 *             if full under the FAIL or BLOCK policies
+	 */
+	boolean add(DefaultMessage message);
+
+	/**
+	 * Queue several messages in order, applying the overflow policy to each
+	 * as add() would.
+	 * 
+	 * @param messages
+	 *            the messages
+	 * @return the number queued; stops at the first refused message
+	 */
+	int addAll(List<DefaultMessage> messages);
+
+	/**
+	 * Find the oldest message that is due and matches the selection.
+	 *
+	 * @param subject
+	 *            exact subject to match; any if null
+	 * @param pattern
+	 *            subject reg expr; used instead of subject if not null
+	 * @param now
+	 *            current time (in millis since epoch)
+	 * @return the message or null
+	 */
+	DefaultMessage peek(String subject, Pattern pattern, long now);
+
+	/**
+	 * Remove a message.
+	 *
+	 * @param message
+	 *            the message
+	 * @return true if it was pending and is now removed
+	 */
+	boolean remove(Message message);
+
+	/** Get the number of pending messages. */
+	int size();
+
+	/** Get the maximum number of pending messages. */
+	int capacity();
+
+	/**
+	 * Test if a message added now would overflow. This can be true while
+	 * size() is below capacity() if removed messages still hold their space
+	 * (see RingBufferMailbox).
+	 */
+	boolean isFull();
+
+	/** Get the number of messages discarded by an overflow policy. */
+	long getDroppedCount();
+
+	/** Get the earliest delayUntil of any pending message; -1 if none. */
+	long getNextDelayUntil();
+
+	/** Get a snapshot of the pending messages, oldest first. */
+	DefaultMessage[] toArray();
+}
@@ -15,4 +15,7 @@ public interface Message {
 
 	/** Get any parameter data associated with the message. */
 	Object getData();
+
+	/** Get the priority; higher is more urgent (see DefaultMessage.PRIORITY_*). */
+	int getPriority();
 }
@@ -0,0 +1,282 @@
+package com.fly.practice.actor;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+/**
+ * A compact binary encoding of a message's subject, data, priority and delay.
+ * A message takes one flag byte (kind, priority, delayed), its subject and its
+ * data; lengths and integers are variable length, so small values take one
+ * byte. LongMessage, DoubleMessage and BytesMessage keep their type and their
+ * payload is not boxed.
+ *
+ * Data may be null, a String, Integer, Long, Double, Boolean, byte[] or an
+ * Object[] of those; subclasses may add types by overriding writeData() and
+ * readData(). Objects are never Java serialized. The source actor is not
+ * encoded, it has no meaning on another node. A delay is encoded as the time
+ * remaining, so the nodes' clocks need not agree.
+ *
+ * Encoding writes at the buffer's position; if the message does not fit a
+ * BufferOverflowException is thrown and the buffer content past the old
+ * position is undefined.
+ *
+ * Used by MessageLog for its records and by the remote transport for its
+ * frames.
+ */
+public class MessageCodec {
+
+	public static final Charset UTF8 = Charset.forName("UTF-8");
+
+	protected static final int KIND_DEFAULT = 0;
+
+	protected static final int KIND_LONG = 1;
+
+	protected static final int KIND_DOUBLE = 2;
+
+	protected static final int KIND_BYTES = 3;
+
+	protected static final int KIND_MASK = 0x03;
+
+	protected static final int PRIORITY_SHIFT = 2;
+
+	protected static final int FLAG_DELAYED = 0x10;
+
+	protected static final byte TYPE_NULL = 0;
+
+	protected static final byte TYPE_STRING = 1;
+
+	protected static final byte TYPE_INTEGER = 2;
+
+	protected static final byte TYPE_LONG = 3;
+
+	protected static final byte TYPE_DOUBLE = 4;
+
+	protected static final byte TYPE_BOOLEAN = 5;
+
+	protected static final byte TYPE_BYTES = 6;
+
+	protected static final byte TYPE_ARRAY = 7;
+
+	/**
+	 * Encode a message.
+	 *
+	 * @param m
+	 *            the message
+	 * @param out
+	 *            the buffer to write to
+	 * @throws BufferOverflowException
+	 *             if it does not fit
+	 * @throws IllegalArgumentException
+	 *             if the data cannot be encoded
+	 */
+	public void encode(Message m, ByteBuffer out) {
+		int kind = m instanceof LongMessage ? KIND_LONG : m instanceof DoubleMessage ? KIND_DOUBLE
+				: m instanceof BytesMessage && ((BytesMessage) m).getBytes() != null ? KIND_BYTES : KIND_DEFAULT;
+		long delay = 0;
+		if (m instanceof DefaultMessage) {
+			long until = ((DefaultMessage) m).getDelayUntil();
+			if (until >= 0) {
+				delay = until - System.currentTimeMillis();
+			}
+		}
+		int flags = kind | (m.getPriority() & 0x03) << PRIORITY_SHIFT;
+		if (delay > 0) {
+			flags |= FLAG_DELAYED;
+		}
+		out.put((byte) flags);
+		writeString(out, m.getSubject());
+		if (delay > 0) {
+			writeVarLong(out, delay);
+		}
+		switch (kind) {
+		case KIND_LONG:
+			writeVarLong(out, zigZag(((LongMessage) m).getLong()));
+			break;
+		case KIND_DOUBLE:
+			out.putDouble(((DoubleMessage) m).getDouble());
+			break;
+		case KIND_BYTES:
+			writeBytes(out, ((BytesMessage) m).getBytes());
+			break;
+		default:
+			writeData(out, m.getData());
+		}
+	}
+
+	/**
+	 * Decode a message written by encode().
+	 *
+	 * @param in
+	 *            the buffer to read from
+	 * @return the message; it has no source
+	 * @throws IllegalArgumentException
+	 *             if the content is not a message
+	 */
+	public DefaultMessage decode(ByteBuffer in) {
+		int flags = in.get();
+		String subject = readString(in);
+		long delay = (flags & FLAG_DELAYED) != 0 ? readVarLong(in) : 0;
+		DefaultMessage res;
+		switch (flags & KIND_MASK) {
+		case KIND_LONG:
+			res = new LongMessage(subject, unZigZag(readVarLong(in)));
+			break;
+		case KIND_DOUBLE:
+			res = new DoubleMessage(subject, in.getDouble());
+			break;
+		case KIND_BYTES:
+			res = new BytesMessage(subject, readBytes(in));
+			break;
+		default:
+			res = new DefaultMessage(subject, readData(in));
+		}
+		res.setPriority(flags >> PRIORITY_SHIFT & 0x03);
+		if (delay > 0) {
+			// not setDelayUntil(): it reads the clock again and may find a
+			// 1ms delay already past
+			res.delayUntil = System.currentTimeMillis() + delay;
+		}
+		return res;
+	}
+
+	/** Encode a message's data. */
+	protected void writeData(ByteBuffer out, Object data) {
+		if (data == null) {
+			out.put(TYPE_NULL);
+		} else if (data instanceof String) {
+			out.put(TYPE_STRING);
+			writeString(out, (String) data);
+		} else if (data instanceof Integer) {
+			out.put(TYPE_INTEGER);
+			writeVarLong(out, zigZag((Integer) data));
+		} else if (data instanceof Long) {
+			out.put(TYPE_LONG);
+			writeVarLong(out, zigZag((Long) data));
+		} else if (data instanceof Double) {
+			out.put(TYPE_DOUBLE);
+			out.putDouble((Double) data);
+		} else if (data instanceof Boolean) {
+			out.put(TYPE_BOOLEAN);
+			out.put((byte) ((Boolean) data ? 1 : 0));
+		} else if (data instanceof byte[]) {
+			out.put(TYPE_BYTES);
+			writeBytes(out, (byte[]) data);
+		} else if (data instanceof Object[]) {
+			Object[] xdata = (Object[]) data;
+			out.put(TYPE_ARRAY);
+			writeVarLong(out, xdata.length);
+			for (Object o : xdata) {
+				writeData(out, o);
+			}
+		} else {
+			throw new IllegalArgumentException("cannot encode data type: " + data.getClass().getName());
+		}
+	}
+
+	/** Decode data written by writeData(). */
+	protected Object readData(ByteBuffer in) {
+		byte type = in.get();
+		switch (type) {
+		case TYPE_NULL:
+			return null;
+		case TYPE_STRING:
+			return readString(in);
+		case TYPE_INTEGER:
+			return (int) unZigZag(readVarLong(in));
+		case TYPE_LONG:
+			return unZigZag(readVarLong(in));
+		case TYPE_DOUBLE:
+			return in.getDouble();
+		case TYPE_BOOLEAN:
+			return in.get() != 0;
+		case TYPE_BYTES:
+			return readBytes(in);
+		case TYPE_ARRAY:
+			Object[] res = new Object[readLength(in)];
+			for (int i = 0; i < res.length; i++) {
+				res[i] = readData(in);
+			}
+			return res;
+		default:
+			throw new IllegalArgumentException("unknown data type: " + type);
+		}
+	}
+
+	/** Write a string (may be null) as its UTF-8 length + 1 and bytes. */
+	public static void writeString(ByteBuffer out, String s) {
+		if (s == null) {
+			out.put((byte) 0);
+			return;
+		}
+		byte[] b = s.getBytes(UTF8);
+		writeVarLong(out, b.length + 1L);
+		out.put(b);
+	}
+
+	public static String readString(ByteBuffer in) {
+		int len = readLength(in);
+		if (len == 0) {
+			return null;
+		}
+		len--;
+		if (in.hasArray()) {
+			String res = new String(in.array(), in.arrayOffset() + in.position(), len, UTF8);
+			in.position(in.position() + len);
+			return res;
+		}
+		byte[] b = new byte[len];
+		in.get(b);
+		return new String(b, UTF8);
+	}
+
+	protected static void writeBytes(ByteBuffer out, byte[] b) {
+		writeVarLong(out, b.length);
+		out.put(b);
+	}
+
+	protected static byte[] readBytes(ByteBuffer in) {
+		byte[] res = new byte[readLength(in)];
+		in.get(res);
+		return res;
+	}
+
+	/** Write an unsigned value 7 bits a byte, low bits first. */
+	public static void writeVarLong(ByteBuffer out, long v) {
+		while ((v & ~0x7FL) != 0) {
+			out.put((byte) (v & 0x7F | 0x80));
+			v >>>= 7;
+		}
+		out.put((byte) v);
+	}
+
+	public static long readVarLong(ByteBuffer in) {
+		long res = 0;
+		for (int shift = 0; shift < 64; shift += 7) {
+			byte b = in.get();
+			res |= (long) (b & 0x7F) << shift;
+			if (b >= 0) {
+				return res;
+			}
+		}
+		throw new IllegalArgumentException("malformed variable length value");
+	}
+
+	/** Read a length, checking it against what is left in the buffer. */
+	protected static int readLength(ByteBuffer in) {
+		long res = readVarLong(in);
+		if (res < 0 || res > in.remaining() + 1) {
+			throw new IllegalArgumentException("bad length: " + res);
+		}
+		return (int) res;
+	}
+
+	/** Map a signed value so small negative values stay small. */
+	protected static long zigZag(long v) {
+		return v << 1 ^ v >> 63;
+	}
+
+	protected static long unZigZag(long v) {
+		return v >>> 1 ^ -(v & 1);
+	}
+}
@@ -25,6 +25,10 @@ public class MessageEvent extends EventObject {
 		return status;
 	}
 
+	public Message getMessage() {
+		return message;
+	}
+
 	public MessageEvent(Object source, Message m, MessageStatus status) {
 		super(source);
 		this.message = m;
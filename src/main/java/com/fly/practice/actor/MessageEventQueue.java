@@ -0,0 +1,77 @@
+package com.fly.practice.actor;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.locks.LockSupport;
+
+import com.fly.practice.actor.utils.Utils;
+
+/**
+ * Delivers message events to their listeners on a separate thread, so
+ * listeners do not run on (or slow down) the sending and dispatching threads.
+ * Events queued while the thread is busy are delivered together in the next
+ * batch. Events of one message are delivered in the order posted.
+ *
+ * Enabled with the {@link DefaultActorManager#ASYNC_EVENTS} option.
+ */
+public class MessageEventQueue extends Utils {
+
+	protected final ConcurrentLinkedQueue<MessageEvent> events = new ConcurrentLinkedQueue<MessageEvent>();
+
+	protected Thread thread;
+
+	volatile protected boolean running, idle;
+
+	public void start(ThreadGroup group) {
+		running = true;
+		thread = new Thread(group, new Runnable() {
+			@Override
+			public void run() {
+				deliverEvents();
+			}
+		}, "actorEvents");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/** Stop after delivering the events already queued. */
+	public void stop() {
+		running = false;
+		if (thread != null) {
+			LockSupport.unpark(thread);
+		}
+	}
+
+	/** Queue an event for delivery. */
+	public void post(MessageEvent e) {
+		events.offer(e);
+		if (idle) {
+			LockSupport.unpark(thread);
+		}
+	}
+
+	/** Get the number of events waiting for delivery. */
+	public int getPendingCount() {
+		return events.size();
+	}
+
+	protected void deliverEvents() {
+		while (true) {
+			MessageEvent e;
+			while ((e = events.poll()) != null) {
+				try {
+					((DefaultMessage) e.getMessage()).fireMessageListeners(e);
+				} catch (Exception ex) {
+					logger.error("MessageEventQueue listener exception", ex);
+				}
+			}
+			if (!running) {
+				break;
+			}
+			idle = true;
+			if (events.isEmpty() && running) {
+				LockSupport.park(this);
+			}
+			idle = false;
+		}
+	}
+}
@@ -0,0 +1,424 @@
+package com.fly.practice.actor;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferOverflowException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import com.fly.practice.actor.utils.Utils;
+
+/**
+ * An append only log of the messages queued in a DurableMailbox, kept in
+ * memory mapped segment files in one directory. Adding a message appends an
+ * ADD record (the MessageCodec encoding); acknowledging it appends an ACK
+ * record. Reopening the log recovers the added messages not yet acknowledged,
+ * in order.
+ *
+ * A record is [length][type][id][message]; the length is written last, so a
+ * record is complete or not there at all. Once appended a record survives the
+ * JVM dying (it is in the OS page cache); for it to survive the OS failing the
+ * segment must be forced to disk. That is a group commit: one shared thread
+ * forces every log with new records each syncMillis, so a sender never waits
+ * for the disk. Use sync() to force at once.
+ *
+ * Segments are deleted oldest first once all their messages are
+ * acknowledged, so a message that stays unacknowledged holds its segment and
+ * all later ones on disk.
+ *
+ * Once closed, appending fails and acknowledging does nothing: the messages
+ * still in the log are replayed when it is next opened.
+ */
+public class MessageLog extends Utils {
+
+	public static final int DEFAULT_SEGMENT_SIZE = 64 * 1024 * 1024;
+
+	public static final long DEFAULT_SYNC_MILLIS = 10;
+
+	protected static final byte RECORD_ADD = 1;
+
+	protected static final byte RECORD_ACK = 2;
+
+	/** Length, type and id. */
+	protected static final int HEADER_SIZE = 4 + 1 + 8;
+
+	protected static final String SUFFIX = ".log";
+
+	/** A mapped segment file; ids of its ADD records start at firstId. */
+	protected static class Segment {
+		final File file;
+		final long firstId;
+		final MappedByteBuffer buffer;
+		/** ADD records not yet acknowledged. */
+		int live;
+		boolean dirty;
+
+		Segment(File file, long firstId, MappedByteBuffer buffer) {
+			this.file = file;
+			this.firstId = firstId;
+			this.buffer = buffer;
+		}
+	}
+
+	protected final File dir;
+
+	protected final int segmentSize;
+
+	protected final long syncMillis;
+
+	protected final MessageCodec codec;
+
+	/** Segments by first id; guarded by this. */
+	protected final TreeMap<Long, Segment> segments = new TreeMap<Long, Segment>();
+
+	protected Segment current;
+
+	protected long nextId = 1;
+
+	/** Messages recovered on open, until taken by recover(). */
+	protected List<DefaultMessage> recovered;
+
+	protected long lastSync;
+
+	/** Guarded by this. */
+	protected boolean closed;
+
+	public MessageLog(File dir) throws IOException {
+		this(dir, DEFAULT_SEGMENT_SIZE, DEFAULT_SYNC_MILLIS, new MessageCodec());
+	}
+
+	/**
+	 * Open (or create) a log.
+	 *
+	 * @param dir
+	 *            directory of the segment files
+	 * @param segmentSize
+	 *            bytes per new segment file
+	 * @param syncMillis
+	 *            time between forces to disk; <= 0 never forces except sync()
+	 * @param codec
+	 *            message encoding
+	 */
+	public MessageLog(File dir, int segmentSize, long syncMillis, MessageCodec codec) throws IOException {
+		if (segmentSize <= HEADER_SIZE) {
+			throw new IllegalArgumentException("segmentSize too small: " + segmentSize);
+		}
+		this.dir = dir;
+		this.segmentSize = segmentSize;
+		this.syncMillis = syncMillis;
+		this.codec = codec;
+		if (!dir.isDirectory() && !dir.mkdirs()) {
+			throw new IOException("cannot create log directory: " + dir);
+		}
+		open();
+		if (syncMillis > 0) {
+			Committer.register(this);
+		}
+	}
+
+	/** Map the existing segments and find the messages not acknowledged. */
+	protected synchronized void open() throws IOException {
+		File[] files = dir.listFiles();
+		if (files != null) {
+			Arrays.sort(files);
+			for (File f : files) {
+				String name = f.getName();
+				if (name.endsWith(SUFFIX)) {
+					long firstId = Long.parseLong(name.substring(0, name.length() - SUFFIX.length()));
+					segments.put(firstId, new Segment(f, firstId, map(f, 0)));
+				}
+			}
+		}
+		Map<Long, DefaultMessage> pending = new LinkedHashMap<Long, DefaultMessage>();
+		for (Segment s : segments.values()) {
+			scan(s, pending);
+		}
+		recovered = new ArrayList<DefaultMessage>(pending.values());
+		if (segments.isEmpty()) {
+			current = createSegment();
+		} else {
+			current = segments.lastEntry().getValue();
+			// ADD records appended to it must map back to it
+			nextId = Math.max(nextId, current.firstId);
+			trimHead();
+		}
+		logger.info("MessageLog %s recovered %d messages from %d segments", dir, recovered.size(), segments.size());
+	}
+
+	/** Read the records of a segment, leaving its position after the last. */
+	protected void scan(Segment s, Map<Long, DefaultMessage> pending) {
+		MappedByteBuffer b = s.buffer;
+		b.position(0);
+		while (b.remaining() >= HEADER_SIZE) {
+			int pos = b.position();
+			int len = b.getInt();
+			if (len < HEADER_SIZE - 4 || len > b.remaining()) {
+				b.position(pos); // end of the records (or a torn one)
+				break;
+			}
+			byte type = b.get();
+			long id = b.getLong();
+			nextId = Math.max(nextId, id + 1);
+			if (type == RECORD_ADD) {
+				int end = pos + 4 + len;
+				try {
+					DefaultMessage m = codec.decode(b);
+					m.logId = id;
+					pending.put(id, m);
+					s.live++;
+				} catch (RuntimeException e) {
+					logger.error("MessageLog bad record %d in %s", id, s.file);
+				}
+				b.position(end);
+			} else if (pending.remove(id) != null) {
+				segmentOf(id).live--;
+			}
+		}
+	}
+
+	protected Segment segmentOf(long id) {
+		Map.Entry<Long, Segment> e = segments.floorEntry(id);
+		return e != null ? e.getValue() : null;
+	}
+
+	protected MappedByteBuffer map(File f, int size) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(f, "rw");
+		try {
+			if (size > 0) {
+				raf.setLength(size);
+			}
+			// the mapping stays valid after the file is closed
+			return raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, raf.length());
+		} finally {
+			raf.close();
+		}
+	}
+
+	protected Segment createSegment() throws IOException {
+		// the last segment may hold no ADD records; ids need not be contiguous
+		long firstId = segments.isEmpty() ? nextId : Math.max(nextId, segments.lastKey() + 1);
+		nextId = firstId;
+		File f = new File(dir, String.format("%020d%s", firstId, SUFFIX));
+		Segment res = new Segment(f, firstId, map(f, segmentSize));
+		segments.put(firstId, res);
+		return res;
+	}
+
+	/**
+	 * Take the messages found on open that were not acknowledged (they keep
+	 * their records). Only the first call returns them.
+	 */
+	public synchronized List<DefaultMessage> recover() {
+		List<DefaultMessage> res = recovered;
+		recovered = new ArrayList<DefaultMessage>();
+		return res;
+	}
+
+	/**
+	 * Append an ADD record for a message and set its logId.
+	 *
+	 * @throws IllegalArgumentException
+	 *             if the message cannot be encoded or is larger than a
+	 *             segment
+	 * @throws IllegalStateException
+	 *             if the log is closed
+	 */
+	public synchronized void append(DefaultMessage m) {
+		if (closed) {
+			throw new IllegalStateException("log closed: " + dir);
+		}
+		int pos = write(RECORD_ADD, 0, m);
+		current.buffer.putInt(pos, current.buffer.position() - pos - 4);
+		current.live++;
+		m.logId = nextId++;
+	}
+
+	/** Append the ACK record of a logged message and clear its logId. */
+	public synchronized void acknowledge(DefaultMessage m) {
+		long id = m.logId;
+		if (id == 0) {
+			return;
+		}
+		m.logId = 0;
+		if (closed) {
+			return;
+		}
+		Segment s = segmentOf(id);
+		int pos = write(RECORD_ACK, id, null);
+		current.buffer.putInt(pos, HEADER_SIZE - 4);
+		if (s != null) {
+			s.live--;
+			trimHead();
+		}
+	}
+
+	/**
+	 * Write a record, but not its length, rolling to a new segment if full. An
+	 * ADD record gets the id nextId (after any roll).
+	 *
+	 * @return the position of the record
+	 */
+	protected int write(byte type, long ackId, DefaultMessage m) {
+		for (boolean rolled = false;; rolled = true) {
+			MappedByteBuffer b = current.buffer;
+			int pos = b.position();
+			try {
+				if (b.remaining() < HEADER_SIZE) {
+					throw new BufferOverflowException();
+				}
+				b.position(pos + 4);
+				b.put(type);
+				b.putLong(type == RECORD_ADD ? nextId : ackId);
+				if (m != null) {
+					codec.encode(m, b);
+				}
+				current.dirty = true;
+				return pos;
+			} catch (BufferOverflowException e) {
+				// the length is not written; readers stop at pos
+				b.position(pos);
+				if (rolled) {
+					throw new IllegalArgumentException("message larger than a segment: " + m);
+				}
+				roll();
+			} catch (RuntimeException e) {
+				b.position(pos);
+				throw e;
+			}
+		}
+	}
+
+	protected void roll() {
+		try {
+			current = createSegment();
+		} catch (IOException e) {
+			throw new IllegalStateException("cannot create log segment in " + dir, e);
+		}
+		trimHead();
+	}
+
+	/** Delete the oldest segments with nothing left to acknowledge. */
+	protected void trimHead() {
+		for (Iterator<Segment> i = segments.values().iterator(); i.hasNext();) {
+			Segment s = i.next();
+			if (s == current || s.live > 0) {
+				break;
+			}
+			i.remove();
+			if (!s.file.delete()) {
+				logger.warning("MessageLog cannot delete %s", s.file);
+			}
+		}
+	}
+
+	/** Force the records appended so far to disk. */
+	public void sync() {
+		List<Segment> dirty = new ArrayList<Segment>();
+		synchronized (this) {
+			for (Segment s : segments.values()) {
+				if (s.dirty) {
+					s.dirty = false;
+					dirty.add(s);
+				}
+			}
+			lastSync = System.currentTimeMillis();
+		}
+		for (Segment s : dirty) {
+			s.buffer.force();
+		}
+	}
+
+	/**
+	 * Force the log and stop using it; its segments are unmapped once
+	 * collected. Closing twice does nothing.
+	 */
+	public void close() {
+		Committer.unregister(this);
+		synchronized (this) {
+			if (closed) {
+				return;
+			}
+			closed = true;
+		}
+		sync();
+		synchronized (this) {
+			segments.clear();
+			current = null;
+		}
+	}
+
+	public synchronized boolean isClosed() {
+		return closed;
+	}
+
+	public File getDirectory() {
+		return dir;
+	}
+
+	public synchronized int getSegmentCount() {
+		return segments.size();
+	}
+
+	@Override
+	public String toString() {
+		return getClass().getSimpleName() + "[dir=" + dir + ", segments=" + getSegmentCount() + ", nextId=" + nextId
+				+ "]";
+	}
+
+	/** The thread that does the group commits of all logs. */
+	protected static class Committer implements Runnable {
+
+		protected static final List<MessageLog> logs = new CopyOnWriteArrayList<MessageLog>();
+
+		protected static Thread thread;
+
+		protected static synchronized void register(MessageLog log) {
+			logs.add(log);
+			if (thread == null) {
+				thread = new Thread(new Committer(), "actorLogCommit");
+				thread.setDaemon(true);
+				thread.start();
+			}
+		}
+
+		protected static synchronized void unregister(MessageLog log) {
+			logs.remove(log);
+		}
+
+		@Override
+		public void run() {
+			while (true) {
+				synchronized (Committer.class) {
+					if (logs.isEmpty()) {
+						thread = null;
+						return;
+					}
+				}
+				long wait = DEFAULT_SYNC_MILLIS;
+				long now = System.currentTimeMillis();
+				for (MessageLog log : logs) {
+					long due = log.lastSync + log.syncMillis - now;
+					if (due <= 0) {
+						try {
+							log.sync();
+						} catch (RuntimeException e) {
+							logger.error("MessageLog sync failed: %s", log, e);
+						}
+						due = log.syncMillis;
+					}
+					wait = Math.min(wait, due);
+				}
+				sleep(Math.max(1, wait));
+			}
+		}
+	}
+}
@@ -0,0 +1,101 @@
+package com.fly.practice.actor;
+
+import java.util.ArrayList;
+
+/**
+ * A bounded pool of recyclable messages of one type, shared by all threads.
+ * Messages are usually taken on a sending thread and recycled on a dispatch
+ * thread, so each thread keeps a small cache and moves batches to or from the
+ * shared stock; the shared lock is only taken once per batch. At most
+ * maxPooled messages are kept in the shared stock, the rest are left to the
+ * garbage collector.
+ *
+ * @see DefaultMessage#recycle()
+ */
+public abstract class MessagePool<T extends DefaultMessage> {
+
+	public static final int DEFAULT_MAX_POOLED = 256;
+
+	/** Most messages a thread keeps in its cache. */
+	public static final int DEFAULT_CACHE_SIZE = 32;
+
+	protected final int maxPooled;
+
+	protected final int cacheSize;
+
+	/** Messages moved per visit to the shared stock. */
+	protected final int batchSize;
+
+	/** The shared stock; guarded by itself. */
+	protected final ArrayList<T> shared = new ArrayList<T>();
+
+	/** shared.size(), readable without the lock. */
+	volatile protected int sharedCount;
+
+	protected final ThreadLocal<ArrayList<T>> caches = new ThreadLocal<ArrayList<T>>() {
+		@Override
+		protected ArrayList<T> initialValue() {
+			return new ArrayList<T>(cacheSize);
+		}
+	};
+
+	protected MessagePool() {
+		this(DEFAULT_MAX_POOLED, DEFAULT_CACHE_SIZE);
+	}
+
+	protected MessagePool(int maxPooled, int cacheSize) {
+		if (cacheSize <= 0) {
+			throw new IllegalArgumentException("cacheSize must be > 0: " + cacheSize);
+		}
+		this.maxPooled = maxPooled;
+		this.cacheSize = cacheSize;
+		batchSize = Math.max(1, cacheSize / 2);
+	}
+
+	/** Create a new (empty) message. */
+	protected abstract T create();
+
+	/** Get an empty recyclable message, reusing a pooled one if possible. */
+	public T obtain() {
+		ArrayList<T> cache = caches.get();
+		if (cache.isEmpty() && sharedCount > 0) {
+			synchronized (shared) {
+				// refill from the messages other threads recycled
+				for (int k = Math.min(batchSize, shared.size()); k > 0; k--) {
+					cache.add(shared.remove(shared.size() - 1));
+				}
+				sharedCount = shared.size();
+			}
+		}
+		int n = cache.size();
+		T res = n > 0 ? cache.remove(n - 1) : create();
+		res.pool = this;
+		res.pooled = false;
+		return res;
+	}
+
+	/** Return a cleared message; public intended only for DefaultMessage. */
+	public void release(DefaultMessage m) {
+		@SuppressWarnings("unchecked")
+		T xm = (T) m;
+		ArrayList<T> cache = caches.get();
+		if (cache.size() >= cacheSize) {
+			synchronized (shared) {
+				// hand a batch to the threads that take messages
+				for (int i = 0; i < batchSize; i++) {
+					T pm = cache.remove(cache.size() - 1);
+					if (shared.size() < maxPooled) {
+						shared.add(pm);
+					}
+				}
+				sharedCount = shared.size();
+			}
+		}
+		cache.add(xm);
+	}
+
+	/** Get the number of messages in the shared stock. */
+	public int getSharedCount() {
+		return sharedCount;
+	}
+}
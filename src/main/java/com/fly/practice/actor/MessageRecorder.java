@@ -0,0 +1,99 @@
+package com.fly.practice.actor;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A fixed size ring of the most recent messages sent to an actor. Recording
+ * is lock-free and allocates nothing; once full the oldest entries are
+ * overwritten. Reading (snapshot() or drain()) is serialized but never
+ * blocks recording; a message being recorded at that moment may be missed.
+ */
+public class MessageRecorder {
+
+	public static final int DEFAULT_CAPACITY = 100;
+
+	protected final int capacity;
+
+	protected final AtomicReferenceArray<Message> slots;
+
+	/**
+	 * Per slot position + 1 of the message it holds; 0 while the slot is being
+	 * written, so a reader can tell an overwritten slot (a seqlock).
+	 */
+	protected final AtomicLongArray sequences;
+
+	protected final AtomicLong tail = new AtomicLong();
+
+	/** Position up to which messages were drained; guarded by this. */
+	protected long drained;
+
+	public MessageRecorder() {
+		this(DEFAULT_CAPACITY);
+	}
+
+	public MessageRecorder(int capacity) {
+		if (capacity <= 0) {
+			throw new IllegalArgumentException("capacity must be > 0: " + capacity);
+		}
+		this.capacity = capacity;
+		slots = new AtomicReferenceArray<Message>(capacity);
+		sequences = new AtomicLongArray(capacity);
+	}
+
+	/** Record a message. */
+	public void record(Message message) {
+		long pos = tail.getAndIncrement();
+		int i = (int) (pos % capacity);
+		sequences.set(i, 0);
+		slots.set(i, message);
+		sequences.set(i, pos + 1);
+	}
+
+	/** Get the recorded messages not yet drained, oldest first. */
+	public synchronized Message[] snapshot() {
+		List<Message> res = collect(tail.get());
+		return res.toArray(new Message[res.size()]);
+	}
+
+	/** Get the recorded messages not yet drained, oldest first, and forget them. */
+	public synchronized Message[] drain() {
+		long end = tail.get();
+		List<Message> res = collect(end);
+		drained = end;
+		return res.toArray(new Message[res.size()]);
+	}
+
+	/** Forget all recorded messages. */
+	public synchronized void clear() {
+		drained = tail.get();
+	}
+
+	protected List<Message> collect(long end) {
+		long start = Math.max(drained, end - capacity);
+		List<Message> res = new ArrayList<Message>((int) (end - start));
+		for (long pos = start; pos < end; pos++) {
+			int i = (int) (pos % capacity);
+			// skip a slot still being written or already overwritten
+			if (sequences.get(i) == pos + 1) {
+				Message m = slots.get(i);
+				if (sequences.get(i) == pos + 1) {
+					res.add(m);
+				}
+			}
+		}
+		return res;
+	}
+
+	public int getCapacity() {
+		return capacity;
+	}
+
+	@Override
+	public String toString() {
+		return getClass().getSimpleName() + "[capacity=" + capacity + ", recorded=" + tail.get() + "]";
+	}
+}
@@ -0,0 +1,19 @@
+package com.fly.practice.actor;
+
+/**
+ * A MessageListener that is told of message status changes by a direct call
+ * instead of a MessageEvent, so notifying it allocates nothing.
+ */
+public interface MessageStatusListener extends MessageListener {
+	/**
+	 * Call-back for a message status change.
+	 * 
+	 * @param source
+	 *            the actor the message was sent to
+	 * @param m
+	 *            the message
+	 * @param status
+	 *            the new status
+	 */
+	void onMessageStatus(Object source, Message m, MessageEvent.MessageStatus status);
+}
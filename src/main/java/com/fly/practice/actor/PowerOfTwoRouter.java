@@ -0,0 +1,36 @@
+package com.fly.practice.actor;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Routes to the less loaded of two randomly chosen members ("power of two
+ * choices"). Costs O(1) per message yet keeps the load close to least loaded.
+ * If both choices are full the category is scanned.
+ *
+ * Selected with the {@link DefaultActorManager#ROUTER_POWER_OF_TWO} option
+ * value.
+ */
+public class PowerOfTwoRouter extends AbstractActorRouter {
+
+	@Override
+	public AbstractActor select(Message message) {
+		AbstractActor[] xmembers = members;
+		int n = xmembers.length;
+		if (n <= 2) {
+			return leastLoaded(xmembers);
+		}
+		ThreadLocalRandom rand = ThreadLocalRandom.current();
+		int i = rand.nextInt(n);
+		int j = rand.nextInt(n - 1);
+		if (j >= i) {
+			j++; // distinct from i
+		}
+		AbstractActor a = xmembers[i], b = xmembers[j];
+		int ac = a.getMessageCount(), bc = b.getMessageCount();
+		AbstractActor res = ac <= bc ? a : b;
+		if (!hasRoom(res)) {
+			res = leastLoaded(xmembers);
+		}
+		return res;
+	}
+}
@@ -0,0 +1,131 @@
+package com.fly.practice.actor;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Pattern;
+
+/**
+ * A Mailbox with one lane per message priority. Receives take from the
+ * highest priority lane holding a matching due message, so control messages
+ * are not queued behind a backlog of normal ones; within a lane order is
+ * FIFO. Lower lanes can starve while higher ones stay busy.
+ *
+ * The capacity is shared by all lanes. When full, DROP_OLDEST discards from
+ * the lowest non-empty lane.
+ *
+ * Used when the {@link AbstractActor#PRIORITY_LANES} option is set; each lane
+ * is a mailbox of the selected type.
+ */
+public class PriorityMailbox extends AbstractMailbox {
+
+	/** Lanes indexed by priority (DefaultMessage.PRIORITY_LOW .. PRIORITY_HIGH). */
+	protected final AbstractMailbox[] lanes;
+
+	protected final AtomicInteger count = new AtomicInteger();
+
+	/**
+	 * @param lanes
+	 *            one empty mailbox per priority, lowest first; each must hold
+	 *            at least capacity messages
+	 */
+	public PriorityMailbox(AbstractMailbox[] lanes, int capacity, OverflowPolicy policy, long blockMillis) {
+		super(capacity, policy, blockMillis);
+		this.lanes = lanes;
+	}
+
+	/** Get the lane for a priority; out of range priorities are clamped. */
+	protected AbstractMailbox lane(int priority) {
+		return lanes[Math.max(0, Math.min(priority, lanes.length - 1))];
+	}
+
+	@Override
+	protected boolean offer(DefaultMessage message) {
+		if (count.incrementAndGet() > capacity) {
+			count.decrementAndGet();
+			return false;
+		}
+		if (!lane(message.getPriority()).offer(message)) {
+			count.decrementAndGet();
+			return false;
+		}
+		return true;
+	}
+
+	@Override
+	protected DefaultMessage poll() {
+		for (AbstractMailbox lane : lanes) {
+			DefaultMessage res = lane.poll();
+			if (res != null) {
+				count.decrementAndGet();
+				return res;
+			}
+		}
+		return null;
+	}
+
+	@Override
+	public DefaultMessage peek(String subject, Pattern pattern, long now) {
+		for (int i = lanes.length - 1; i >= 0; i--) {
+			if (lanes[i].size() > 0) {
+				DefaultMessage res = lanes[i].peek(subject, pattern, now);
+				if (res != null) {
+					return res;
+				}
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Remove a message. It is looked for in the lane of its priority first;
+	 * the priority may have been changed since it was queued, so the other
+	 * lanes are searched on a miss.
+	 */
+	@Override
+	public boolean remove(Message message) {
+		AbstractMailbox first = lane(message.getPriority());
+		boolean res = first.remove(message);
+		for (int i = 0; !res && i < lanes.length; i++) {
+			res = lanes[i] != first && lanes[i].remove(message);
+		}
+		if (res) {
+			count.decrementAndGet();
+		}
+		return res;
+	}
+
+	@Override
+	public int size() {
+		return count.get();
+	}
+
+	/** Also full if the lane of normal priority messages is. */
+	@Override
+	public boolean isFull() {
+		return super.isFull() || lane(DefaultMessage.PRIORITY_NORMAL).isFull();
+	}
+
+	@Override
+	public long getNextDelayUntil() {
+		long res = -1;
+		for (AbstractMailbox lane : lanes) {
+			long due = lane.getNextDelayUntil();
+			if (due >= 0 && (res < 0 || due < res)) {
+				res = due;
+			}
+		}
+		return res;
+	}
+
+	/** Get the pending messages, highest priority first and oldest first within a priority. */
+	@Override
+	public DefaultMessage[] toArray() {
+		List<DefaultMessage> res = new ArrayList<DefaultMessage>();
+		for (int i = lanes.length - 1; i >= 0; i--) {
+			res.addAll(Arrays.asList(lanes[i].toArray()));
+		}
+		return res.toArray(new DefaultMessage[res.size()]);
+	}
+}
@@ -0,0 +1,126 @@
+package com.fly.practice.actor;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+import com.fly.practice.actor.utils.Utils;
+
+/**
+ * An ActorScheduler that keeps runnable actors in a lock-free ready queue
+ * instead of the manager's runnables/waiters maps. Idle dispatch threads park
+ * rather than wait on a shared monitor and scheduling an actor wakes exactly
+ * one of them, so no global lock is taken while sending or dispatching.
+ *
+ * Selected with the {@link DefaultActorManager#SCHEDULER_QUEUE} option value.
+ */
+public class QueueActorScheduler extends Utils implements ActorScheduler {
+
+	protected DefaultActorManager manager;
+
+	protected final ConcurrentLinkedQueue<AbstractActor> ready = new ConcurrentLinkedQueue<AbstractActor>();
+
+	protected final ConcurrentLinkedQueue<Thread> idle = new ConcurrentLinkedQueue<Thread>();
+
+	protected final AtomicInteger activeCount = new AtomicInteger();
+
+	protected final List<Thread> threads = new ArrayList<Thread>();
+
+	volatile protected boolean running;
+
+	@Override
+	public void start(DefaultActorManager manager, int threadCount) {
+		this.manager = manager;
+		running = true;
+		for (int i = 0; i < threadCount; i++) {
+			Thread t = new Thread(manager.getThreadGroup(), new Worker(), "actor" + i);
+			t.setDaemon(true);
+			t.setPriority(manager.getThreadPriority());
+			threads.add(t);
+		}
+		for (Thread t : threads) {
+			t.start();
+		}
+	}
+
+	@Override
+	public void schedule(AbstractActor actor) {
+		ready.offer(actor);
+		signal();
+	}
+
+	@Override
+	public void actorDetached(AbstractActor actor) {
+		ready.remove(actor);
+	}
+
+	/** Wake one idle dispatch thread, if any. */
+	protected void signal() {
+		Thread t = idle.poll();
+		if (t != null) {
+			LockSupport.unpark(t);
+		}
+	}
+
+	@Override
+	public void terminate() {
+		running = false;
+		for (Thread t : threads) {
+			t.interrupt();
+		}
+	}
+
+	@Override
+	public void waitForTermination() {
+		for (Thread t : threads) {
+			try {
+				t.join();
+			} catch (InterruptedException e) {
+				// ignore
+			}
+		}
+	}
+
+	@Override
+	public int getActiveCount() {
+		return activeCount.get();
+	}
+
+	/** Dispatch loop run by each scheduler thread. */
+	protected class Worker implements Runnable {
+		@Override
+		public void run() {
+			Thread self = Thread.currentThread();
+			while (running) {
+				try {
+					AbstractActor actor = ready.poll();
+					if (actor != null) {
+						if (!ready.isEmpty()) {
+							signal(); // more work queued; get another thread going
+						}
+						if (actor.getManager() == manager) {
+							activeCount.incrementAndGet();
+							try {
+								manager.dispatch(actor);
+							} finally {
+								activeCount.decrementAndGet();
+							}
+						}
+					} else {
+						// register before the last check so a racing schedule()
+						// either is seen here or finds this thread to unpark
+						idle.offer(self);
+						if (ready.isEmpty() && running) {
+							LockSupport.park(this);
+						}
+						idle.remove(self);
+					}
+				} catch (Exception e) {
+					logger.error("QueueActorScheduler dispatch exception", e);
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,215 @@
+package com.fly.practice.actor;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.regex.Pattern;
+
+/**
+ * A lock-free bounded Mailbox built on a ring buffer (a multi-producer,
+ * multi-consumer sequenced array queue). Adding a message allocates nothing.
+ *
+ * Selective receive still works: a message removed from the middle of the
+ * ring leaves an empty slot (tombstone) that is skipped and reclaimed once it
+ * reaches the head. Tombstones hold their slot until then, so an actor that
+ * leaves old messages unreceived for long reduces its usable capacity;
+ * isFull() counts them, so routers do not pick a mailbox that only looks to
+ * have room.
+ *
+ * The capacity is rounded up to a power of two.
+ */
+public class RingBufferMailbox extends AbstractMailbox {
+
+	protected final int mask;
+
+	protected final AtomicReferenceArray<DefaultMessage> slots;
+
+	/**
+	 * Per slot sequence: equal to the position when free for that position,
+	 * position + 1 once published, position + length once consumed.
+	 */
+	protected final AtomicLongArray sequences;
+
+	protected final AtomicLong head = new AtomicLong();
+
+	protected final AtomicLong tail = new AtomicLong();
+
+	/** Live (non-tombstone) messages. */
+	protected final AtomicInteger count = new AtomicInteger();
+
+	public RingBufferMailbox(int capacity) {
+		this(capacity, OverflowPolicy.FAIL, DEFAULT_BLOCK_MILLIS);
+	}
+
+	public RingBufferMailbox(int capacity, OverflowPolicy policy, long blockMillis) {
+		super(powerOfTwo(capacity), policy, blockMillis);
+		mask = this.capacity - 1;
+		slots = new AtomicReferenceArray<DefaultMessage>(this.capacity);
+		sequences = new AtomicLongArray(this.capacity);
+		for (int i = 0; i < this.capacity; i++) {
+			sequences.set(i, i);
+		}
+	}
+
+	protected static int powerOfTwo(int n) {
+		int res = 1;
+		while (res < n) {
+			res <<= 1;
+		}
+		return res;
+	}
+
+	@Override
+	protected boolean offer(DefaultMessage message) {
+		while (true) {
+			long pos = tail.get();
+			int i = (int) (pos & mask);
+			long dif = sequences.get(i) - pos;
+			if (dif == 0) {
+				if (tail.compareAndSet(pos, pos + 1)) {
+					slots.set(i, message);
+					count.incrementAndGet();
+					sequences.set(i, pos + 1); // publish
+					return true;
+				}
+			} else if (dif < 0) {
+				// full; unless tombstones at the head can be reclaimed
+				long h = head.get();
+				trimHead();
+				if (head.get() == h) {
+					return false;
+				}
+			}
+			// else another producer claimed pos; retry
+		}
+	}
+
+	@Override
+	protected DefaultMessage poll() {
+		while (true) {
+			DefaultMessage m = take();
+			if (m != TAKE_EMPTY) {
+				if (m != null) {
+					return m;
+				}
+				// tombstone; keep going
+			} else {
+				return null;
+			}
+		}
+	}
+
+	/** Marker returned by take() when the ring is empty. */
+	protected static final DefaultMessage TAKE_EMPTY = new DefaultMessage();
+
+	/**
+	 * Consume the head slot.
+	 *
+	 * @return the message, null for a tombstone or TAKE_EMPTY if empty
+	 */
+	protected DefaultMessage take() {
+		while (true) {
+			long pos = head.get();
+			int i = (int) (pos & mask);
+			long dif = sequences.get(i) - (pos + 1);
+			if (dif == 0) {
+				if (head.compareAndSet(pos, pos + 1)) {
+					DefaultMessage m = slots.getAndSet(i, null);
+					if (m != null) {
+						count.decrementAndGet();
+					}
+					sequences.set(i, pos + mask + 1); // free for the next lap
+					return m;
+				}
+			} else if (dif < 0) {
+				return TAKE_EMPTY;
+			}
+		}
+	}
+
+	/** Reclaim tombstones at the head of the ring. */
+	protected void trimHead() {
+		while (true) {
+			long pos = head.get();
+			int i = (int) (pos & mask);
+			if (sequences.get(i) != pos + 1 || slots.get(i) != null) {
+				return; // not published yet, or a live message
+			}
+			if (head.compareAndSet(pos, pos + 1)) {
+				sequences.set(i, pos + mask + 1);
+			}
+		}
+	}
+
+	@Override
+	public DefaultMessage peek(String subject, Pattern pattern, long now) {
+		long end = tail.get();
+		for (long pos = head.get(); pos < end; pos++) {
+			int i = (int) (pos & mask);
+			if (sequences.get(i) == pos + 1) {
+				DefaultMessage m = slots.get(i);
+				if (m != null && matches(m, subject, pattern, now)) {
+					return m;
+				}
+			}
+		}
+		return null;
+	}
+
+	@Override
+	public boolean remove(Message message) {
+		long end = tail.get();
+		for (long pos = head.get(); pos < end; pos++) {
+			int i = (int) (pos & mask);
+			if (sequences.get(i) == pos + 1 && slots.compareAndSet(i, (DefaultMessage) message, null)) {
+				count.decrementAndGet();
+				trimHead();
+				return true;
+			}
+		}
+		return false;
+	}
+
+	@Override
+	public int size() {
+		return count.get();
+	}
+
+	/** Full when every slot holds a message or a tombstone. */
+	@Override
+	public boolean isFull() {
+		trimHead();
+		return tail.get() - head.get() >= capacity;
+	}
+
+	@Override
+	public long getNextDelayUntil() {
+		long res = -1;
+		for (DefaultMessage m : toArray()) {
+			long due = m.getDelayUntil();
+			if (due >= 0 && (res < 0 || due < res)) {
+				res = due;
+			}
+		}
+		return res;
+	}
+
+	@Override
+	public DefaultMessage[] toArray() {
+		List<DefaultMessage> res = new ArrayList<DefaultMessage>();
+		long end = tail.get();
+		for (long pos = head.get(); pos < end; pos++) {
+			int i = (int) (pos & mask);
+			if (sequences.get(i) == pos + 1) {
+				DefaultMessage m = slots.get(i);
+				if (m != null) {
+					res.add(m);
+				}
+			}
+		}
+		return res.toArray(new DefaultMessage[res.size()]);
+	}
+}
@@ -0,0 +1,27 @@
+package com.fly.practice.actor;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Routes to the members in turn, skipping any that are full.
+ *
+ * Selected with the {@link DefaultActorManager#ROUTER_ROUND_ROBIN} option
+ * value.
+ */
+public class RoundRobinRouter extends AbstractActorRouter {
+
+	protected final AtomicInteger next = new AtomicInteger();
+
+	@Override
+	public AbstractActor select(Message message) {
+		AbstractActor[] xmembers = members;
+		int n = xmembers.length;
+		for (int tries = 0; tries < n; tries++) {
+			AbstractActor a = xmembers[(next.getAndIncrement() & Integer.MAX_VALUE) % n];
+			if (hasRoom(a)) {
+				return a;
+			}
+		}
+		return null;
+	}
+}
@@ -0,0 +1,202 @@
+package com.fly.practice.actor;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+import com.fly.practice.actor.utils.Utils;
+
+/**
+ * A hashed timing wheel that holds delayed messages (those with a
+ * DefaultMessage.delayUntil) outside of the target mailbox and releases them
+ * to the manager when due. Adding is O(1) and lock-free; the buckets are only
+ * touched by the single timer thread. A timeout later than one turn of the
+ * wheel stays in its bucket and is skipped until its turn comes round.
+ *
+ * Due times are rounded up to the next tick, so a message is never released
+ * early. The timer thread parks while the wheel is empty.
+ */
+public class TimingWheel extends Utils {
+
+	public static final long DEFAULT_TICK_MILLIS = 10;
+
+	public static final int DEFAULT_WHEEL_SIZE = 512;
+
+	/** A scheduled release; message is null for a plain actor wakeup. */
+	protected static class Entry {
+		final AbstractActor actor;
+		final DefaultMessage message;
+		final long deadline;
+		long tick;
+		Entry next;
+
+		Entry(AbstractActor actor, DefaultMessage message, long deadline) {
+			this.actor = actor;
+			this.message = message;
+			this.deadline = deadline;
+		}
+	}
+
+	protected final DefaultActorManager manager;
+
+	protected final long tickMillis;
+
+	protected final int mask;
+
+	protected final Entry[] buckets;
+
+	/** Entries added but not yet put in a bucket (timer thread drains). */
+	protected final ConcurrentLinkedQueue<Entry> inbound = new ConcurrentLinkedQueue<Entry>();
+
+	protected final AtomicInteger pending = new AtomicInteger();
+
+	protected final long startTime = System.currentTimeMillis();
+
+	/** Last tick processed; timer thread only. */
+	protected long lastTick;
+
+	protected Thread thread;
+
+	volatile protected boolean running, idle;
+
+	public TimingWheel(DefaultActorManager manager) {
+		this(manager, DEFAULT_TICK_MILLIS, DEFAULT_WHEEL_SIZE);
+	}
+
+	public TimingWheel(DefaultActorManager manager, long tickMillis, int wheelSize) {
+		if (tickMillis <= 0) {
+			throw new IllegalArgumentException("tickMillis must be > 0: " + tickMillis);
+		}
+		this.manager = manager;
+		this.tickMillis = tickMillis;
+		int size = RingBufferMailbox.powerOfTwo(wheelSize);
+		mask = size - 1;
+		buckets = new Entry[size];
+	}
+
+	public void start() {
+		running = true;
+		thread = new Thread(manager.getThreadGroup(), new Runnable() {
+			@Override
+			public void run() {
+				runTimer();
+			}
+		}, "actorTimer");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	public void stop() {
+		running = false;
+		if (thread != null) {
+			LockSupport.unpark(thread);
+		}
+	}
+
+	/**
+	 * Hold a message until its delayUntil, then release it to the actor.
+	 *
+	 * @param actor
+	 *            target actor
+	 * @param message
+	 *            the delayed message
+	 */
+	public void schedule(AbstractActor actor, DefaultMessage message) {
+		add(new Entry(actor, message, message.getDelayUntil()));
+	}
+
+	/**
+	 * Wake an actor at a given time.
+	 *
+	 * @param actor
+	 *            the actor
+	 * @param deadline
+	 *            time (in millis since epoch)
+	 */
+	public void scheduleWakeup(AbstractActor actor, long deadline) {
+		add(new Entry(actor, null, deadline));
+	}
+
+	protected void add(Entry e) {
+		pending.incrementAndGet();
+		inbound.offer(e);
+		if (idle) {
+			LockSupport.unpark(thread);
+		}
+	}
+
+	/** Get the number of entries not yet released. */
+	public int getPendingCount() {
+		return pending.get();
+	}
+
+	protected long currentTick() {
+		return (System.currentTimeMillis() - startTime) / tickMillis;
+	}
+
+	protected void runTimer() {
+		lastTick = currentTick();
+		while (running) {
+			if (pending.get() == 0) {
+				idle = true;
+				if (pending.get() == 0 && running) {
+					LockSupport.park(this);
+				}
+				idle = false;
+				// nothing was held; skip the empty buckets
+				lastTick = Math.max(lastTick, currentTick() - 1);
+			}
+			long now = currentTick();
+			while (lastTick < now && running) {
+				transferInbound();
+				expire(++lastTick);
+			}
+			transferInbound();
+			long wait = startTime + (lastTick + 1) * tickMillis - System.currentTimeMillis();
+			if (wait > 0 && running) {
+				LockSupport.parkNanos(this, TimeUnit.MILLISECONDS.toNanos(wait));
+			}
+		}
+	}
+
+	/** Move newly added entries into their buckets. */
+	protected void transferInbound() {
+		Entry e;
+		while ((e = inbound.poll()) != null) {
+			// round up so release is never before the deadline
+			long tick = (e.deadline - startTime + tickMillis - 1) / tickMillis;
+			e.tick = Math.max(tick, lastTick + 1);
+			int i = (int) (e.tick & mask);
+			e.next = buckets[i];
+			buckets[i] = e;
+		}
+	}
+
+	/** Release the entries of a bucket that are due at tick. */
+	protected void expire(long tick) {
+		int i = (int) (tick & mask);
+		Entry prev = null;
+		Entry e = buckets[i];
+		while (e != null) {
+			Entry next = e.next;
+			if (e.tick <= tick) {
+				if (prev != null) {
+					prev.next = next;
+				} else {
+					buckets[i] = next;
+				}
+				e.next = null;
+				pending.decrementAndGet();
+				try {
+					manager.releaseDelayed(e.actor, e.message);
+				} catch (Exception ex) {
+					logger.error("TimingWheel release exception", ex);
+				}
+			} else {
+				prev = e;
+			}
+			e = next;
+		}
+	}
+}
@@ -0,0 +1,50 @@
+package com.fly.practice.actor;
+
+/**
+ * Base of the messages that keep their payload in a typed field instead of
+ * data, so it is not boxed (LongMessage, DoubleMessage, BytesMessage).
+ * Subclasses give getData() as a view of the payload and copy, clear and
+ * describe it; this class fits those into copy(), recycle() and toString().
+ */
+public abstract class TypedMessage extends DefaultMessage {
+
+	protected TypedMessage(String subject) {
+		super(subject);
+	}
+
+	protected TypedMessage() {
+	}
+
+	/** Get the payload as an object (may allocate); prefer the typed getter. */
+	@Override
+	public abstract Object getData();
+
+	@Override
+	protected abstract TypedMessage newInstance();
+
+	/** Copy the payload to a message of the same class. */
+	protected abstract void copyPayloadTo(TypedMessage res);
+
+	/** Reset the payload. */
+	protected abstract void clearPayload();
+
+	/** Describe the payload for toString(), e.g. "value=1". */
+	protected abstract String payloadString();
+
+	@Override
+	protected void copyTo(DefaultMessage res) {
+		super.copyTo(res);
+		copyPayloadTo((TypedMessage) res);
+	}
+
+	@Override
+	protected void clear() {
+		super.clear();
+		clearPayload();
+	}
+
+	@Override
+	protected String bodyString() {
+		return "source=" + source + ", subject=" + subject + ", " + payloadString() + ", delay=" + delayUntil;
+	}
+}
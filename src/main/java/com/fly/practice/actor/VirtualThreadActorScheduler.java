@@ -0,0 +1,127 @@
+package com.fly.practice.actor;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.fly.practice.actor.utils.Utils;
+
+/**
+ * An ActorScheduler that runs each actor activation on its own virtual
+ * thread, so an actor blocked in I/O (e.g. VirusScanActor reading files)
+ * parks its virtual thread instead of holding one of a few dispatch threads.
+ * The thread count option is not used.
+ *
+ * Virtual threads need Java 21; on older runtimes activations run on a cached
+ * pool of platform threads, which also never starves but costs a platform
+ * thread per blocked actor.
+ *
+ * Selected with the {@link DefaultActorManager#SCHEDULER_VIRTUAL} option
+ * value.
+ */
+public class VirtualThreadActorScheduler extends Utils implements ActorScheduler {
+
+	protected DefaultActorManager manager;
+
+	protected ExecutorService executor;
+
+	protected final AtomicInteger activeCount = new AtomicInteger();
+
+	volatile protected boolean running;
+
+	@Override
+	public void start(DefaultActorManager manager, int threadCount) {
+		this.manager = manager;
+		executor = createExecutor();
+		running = true;
+	}
+
+	/** Create a virtual thread per task executor if the runtime has one. */
+	protected ExecutorService createExecutor() {
+		try {
+			Method m = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+			return (ExecutorService) m.invoke(null);
+		} catch (Exception e) {
+			logger.info("VirtualThreadActorScheduler: no virtual threads, using a cached thread pool: " + e);
+		}
+		return Executors.newCachedThreadPool(new ThreadFactory() {
+			int count;
+
+			@Override
+			public synchronized Thread newThread(Runnable r) {
+				Thread t = new Thread(manager.getThreadGroup(), r, "actor" + count++);
+				t.setDaemon(true);
+				t.setPriority(manager.getThreadPriority());
+				return t;
+			}
+		});
+	}
+
+	/** Whether activations run on virtual threads. */
+	public boolean isVirtual() {
+		return executor != null && !(executor instanceof ThreadPoolExecutor);
+	}
+
+	@Override
+	public void schedule(final AbstractActor actor) {
+		if (running) {
+			Runnable activation = new Runnable() {
+				@Override
+				public void run() {
+					activeCount.incrementAndGet();
+					try {
+						if (actor.getManager() == manager) {
+							manager.dispatch(actor);
+						}
+					} catch (Exception e) {
+						logger.error("VirtualThreadActorScheduler dispatch exception", e);
+					} finally {
+						activeCount.decrementAndGet();
+					}
+				}
+			};
+			try {
+				executor.execute(activation);
+			} catch (RejectedExecutionException e) {
+				// terminated since running was read; drop the wake-up
+				if (running) {
+					throw e;
+				}
+			}
+		}
+	}
+
+	@Override
+	public void actorDetached(AbstractActor actor) {
+		// a queued activation finds the actor detached and does nothing
+	}
+
+	@Override
+	public void terminate() {
+		running = false;
+		if (executor != null) {
+			executor.shutdownNow();
+		}
+	}
+
+	@Override
+	public void waitForTermination() {
+		try {
+			if (executor != null) {
+				executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+			}
+		} catch (InterruptedException e) {
+			// ignore
+		}
+	}
+
+	@Override
+	public int getActiveCount() {
+		return activeCount.get();
+	}
+}
@@ -0,0 +1,253 @@
+package com.fly.practice.actor.remote;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.fly.practice.actor.ActorManager;
+import com.fly.practice.actor.DefaultActorManager;
+import com.fly.practice.actor.DefaultMessage;
+import com.fly.practice.actor.MessageCodec;
+import com.fly.practice.actor.logging.Logger;
+import com.fly.practice.actor.utils.Utils;
+import com.fly.practice.nio.nioserver.AbstractServer;
+import com.fly.practice.nio.nioserver.MessageLength;
+import com.fly.practice.nio.nioserver.TwoByteMessageLength;
+
+/**
+ * Accepts messages from RemoteConnections on other nodes and sends them to the
+ * actors of a category of the local manager, as send(message, null,
+ * category).
+ *
+ * A frame holds one or more sections. A SEND section is OP_SEND, the category,
+ * a two byte message count and the messages (see MessageCodec). Each frame
+ * received is answered by one frame with an ACK section per category: OP_ACK,
+ * the category, the number of messages received (including any that could not
+ * be delivered) and the category's mailbox depth after them. The sender uses
+ * these to track the remote load.
+ *
+ * Frames are decoded on the selector thread but delivered on a pool thread,
+ * as a send can wait for mailbox space; the frames of one connection are
+ * delivered and acknowledged in order, one at a time. Frames wait for
+ * delivery without bound, so a sender should heed the load it is told.
+ */
+public class RemoteActorServer extends AbstractServer {
+
+	public static final byte OP_SEND = 1;
+
+	public static final byte OP_ACK = 2;
+
+	/** Frames are kept below this so any MessageLength can carry them. */
+	public static final int DEFAULT_FRAME_SIZE = 32 * 1024;
+
+	protected static final Logger logger = Utils.logger;
+
+	protected final ActorManager manager;
+
+	protected final MessageCodec codec;
+
+	/** The delivery state of each connection. */
+	protected final Map<SelectionKey, Inbox> inboxes = new ConcurrentHashMap<SelectionKey, Inbox>();
+
+	/** Runs the deliveries; created when the server starts. */
+	volatile protected ExecutorService executor;
+
+	protected Thread thread;
+
+	public RemoteActorServer(ActorManager manager, int port) {
+		this(manager, port, new TwoByteMessageLength(), new MessageCodec());
+	}
+
+	public RemoteActorServer(ActorManager manager, int port, MessageLength messageLength, MessageCodec codec) {
+		this(manager, port, messageLength, codec, 0);
+	}
+
+	/**
+	 * @param workerCount
+	 *            threads reading the connections (see AbstractServer)
+	 */
+	public RemoteActorServer(ActorManager manager, int port, MessageLength messageLength, MessageCodec codec,
+			int workerCount) {
+		super(port, messageLength, DEFAULT_FRAME_SIZE, workerCount);
+		this.manager = manager;
+		this.codec = codec;
+	}
+
+	/** Run the server in its own (daemon) thread. */
+	public void start() {
+		thread = new Thread(this, "remoteActorServer-" + getPort());
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/** Messages decoded from one SEND section. */
+	protected static class Section {
+		final String category;
+		final List<DefaultMessage> messages;
+
+		Section(String category, List<DefaultMessage> messages) {
+			this.category = category;
+			this.messages = messages;
+		}
+	}
+
+	/**
+	 * The frames of a connection waiting for delivery. Runs on one pool thread
+	 * at a time, so its reply buffer needs no lock.
+	 */
+	protected class Inbox implements Runnable {
+		final SelectionKey key;
+		final ConcurrentLinkedQueue<List<Section>> frames = new ConcurrentLinkedQueue<List<Section>>();
+		final AtomicBoolean scheduled = new AtomicBoolean();
+		final ByteBuffer reply = ByteBuffer.allocate(DEFAULT_FRAME_SIZE);
+		final Map<String, int[]> received = new LinkedHashMap<String, int[]>();
+
+		Inbox(SelectionKey key) {
+			this.key = key;
+		}
+
+		void add(List<Section> frame) {
+			frames.offer(frame);
+			if (scheduled.compareAndSet(false, true)) {
+				executor.execute(this);
+			}
+		}
+
+		@Override
+		public void run() {
+			do {
+				List<Section> frame;
+				while ((frame = frames.poll()) != null) {
+					try {
+						deliver(frame);
+					} catch (RuntimeException e) {
+						logger.error("RemoteActorServer delivery exception", e);
+					}
+				}
+				scheduled.set(false);
+				// a frame added after the last poll may have found scheduled set
+			} while (!frames.isEmpty() && scheduled.compareAndSet(false, true));
+		}
+
+		void deliver(List<Section> frame) {
+			received.clear();
+			for (Section section : frame) {
+				int[] xreceived = received.get(section.category);
+				if (xreceived == null) {
+					xreceived = new int[1];
+					received.put(section.category, xreceived);
+				}
+				xreceived[0] += section.messages.size();
+				for (DefaultMessage m : section.messages) {
+					if (manager.send(m, null, section.category) == 0) {
+						logger.warning("RemoteActorServer no actor accepted %s in %s", m, section.category);
+					}
+				}
+			}
+			if (received.isEmpty() || !key.isValid()) {
+				return;
+			}
+			reply.clear();
+			for (Map.Entry<String, int[]> e : received.entrySet()) {
+				reply.put(OP_ACK);
+				MessageCodec.writeString(reply, e.getKey());
+				MessageCodec.writeVarLong(reply, e.getValue()[0]);
+				MessageCodec.writeVarLong(reply, getDepth(e.getKey()));
+			}
+			reply.flip();
+			write(key, reply);
+		}
+	}
+
+	/** Decode a frame here (the message may be a view) and queue its delivery. */
+	@Override
+	protected void messageReceived(ByteBuffer message, SelectionKey key) {
+		List<Section> frame = new ArrayList<Section>();
+		try {
+			while (message.hasRemaining()) {
+				byte op = message.get();
+				if (op != OP_SEND) {
+					throw new IllegalArgumentException("unknown op: " + op);
+				}
+				String category = MessageCodec.readString(message);
+				int count = message.getShort() & 0xFFFF;
+				List<DefaultMessage> messages = new ArrayList<DefaultMessage>(count);
+				frame.add(new Section(category, messages));
+				for (int i = 0; i < count; i++) {
+					messages.add(codec.decode(message));
+				}
+			}
+		} catch (RuntimeException e) {
+			// drop the rest of the frame; the connection stays usable
+			logger.error("RemoteActorServer bad frame", e);
+		}
+		if (frame.isEmpty()) {
+			return;
+		}
+		Inbox inbox = inboxes.get(key);
+		if (inbox == null) {
+			inbox = new Inbox(key);
+			inboxes.put(key, inbox);
+		}
+		inbox.add(frame);
+	}
+
+	/** Create the executor that delivers received messages. */
+	protected ExecutorService createExecutor() {
+		return Executors.newCachedThreadPool(new ThreadFactory() {
+			final AtomicInteger count = new AtomicInteger();
+
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "remoteActorDelivery-" + getPort() + "-" + count.getAndIncrement());
+				t.setDaemon(true);
+				return t;
+			}
+		});
+	}
+
+	/** Get the number of messages pending for a category. */
+	protected int getDepth(String category) {
+		return manager instanceof DefaultActorManager ? ((DefaultActorManager) manager).getCategoryDepth(category) : 0;
+	}
+
+	@Override
+	protected void connection(SelectionKey key) {
+		logger.info("RemoteActorServer connection from %s", key.channel());
+	}
+
+	@Override
+	protected void disconnected(SelectionKey key) {
+		// frames already received are still delivered
+		inboxes.remove(key);
+		logger.info("RemoteActorServer disconnected %s", key.channel());
+	}
+
+	@Override
+	protected void started(boolean alreadyStarted) {
+		if (!alreadyStarted) {
+			executor = createExecutor();
+		}
+		logger.info("RemoteActorServer started on %d%s", getPort(), alreadyStarted ? " (already)" : "");
+	}
+
+	@Override
+	protected void stopped() {
+		inboxes.clear();
+		if (executor != null) {
+			// deliveries under way finish; their replies are dropped
+			executor.shutdown();
+		}
+		logger.info("RemoteActorServer stopped on %d", getPort());
+	}
+}
@@ -0,0 +1,385 @@
+package com.fly.practice.actor.remote;
+
+import java.net.InetAddress;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.fly.practice.actor.Actor;
+import com.fly.practice.actor.ActorManager;
+import com.fly.practice.actor.Message;
+import com.fly.practice.actor.MessageCodec;
+import com.fly.practice.actor.logging.Logger;
+import com.fly.practice.actor.utils.Utils;
+import com.fly.practice.nio.nioserver.AbstractBlockingClient;
+import com.fly.practice.nio.nioserver.MessageLength;
+import com.fly.practice.nio.nioserver.TwoByteMessageLength;
+
+/**
+ * A connection to a RemoteActorServer on another node, used by
+ * RemoteProxyActors to send messages to the categories of that node.
+ *
+ * Writes are batched: send() encodes the message into the frame being built
+ * and a writer thread writes whole frames. While a frame is being written the
+ * next one fills, so under load many messages share one write; when idle each
+ * message is written at once. Consecutive messages to the same category share
+ * one SEND section.
+ *
+ * If the remote node reads slower than messages are sent, send() waits once
+ * maxQueuedFrames full frames are queued.
+ *
+ * For each category the connection counts the messages sent but not yet
+ * acknowledged and keeps the mailbox depth last reported by the remote node.
+ * While idle it polls the depth of categories last reported busy.
+ */
+public class RemoteConnection extends AbstractBlockingClient {
+
+	protected static final Logger logger = Utils.logger;
+
+	/** Load of a remote category as seen from this node. */
+	protected static class RemoteCategory {
+		final AtomicInteger inFlight = new AtomicInteger();
+		volatile int depth;
+	}
+
+	protected final MessageCodec codec;
+
+	protected final int frameSize;
+
+	protected final Map<String, RemoteCategory> categories = new ConcurrentHashMap<String, RemoteCategory>();
+
+	protected final Object lock = new Object();
+
+	/** The frame being filled; guarded by lock. */
+	protected ByteBuffer pending;
+
+	/** The category of the open SEND section of pending; null if none. */
+	protected String sectionCategory;
+
+	protected int sectionCountPosition, sectionCount;
+
+	/** Full frames waiting for the writer; guarded by lock. */
+	protected final ArrayDeque<ByteBuffer> ready = new ArrayDeque<ByteBuffer>();
+
+	/** Time the writer waits idle before polling the remote depth. */
+	protected long pollMillis = 100;
+
+	/** Most full frames queued before send() waits. */
+	protected int maxQueuedFrames = 16;
+
+	/** Written frames kept for reuse; guarded by lock. */
+	protected final ArrayDeque<ByteBuffer> free = new ArrayDeque<ByteBuffer>();
+
+	protected final CountDownLatch connectedLatch = new CountDownLatch(1);
+
+	volatile protected boolean open;
+
+	protected Thread reader, writer;
+
+	public RemoteConnection(InetAddress server, int port) {
+		this(server, port, new TwoByteMessageLength(), new MessageCodec(), RemoteActorServer.DEFAULT_FRAME_SIZE);
+	}
+
+	/**
+	 * @param frameSize
+	 *            most bytes written in one frame; must fit messageLength
+	 */
+	public RemoteConnection(InetAddress server, int port, MessageLength messageLength, MessageCodec codec,
+			int frameSize) {
+		super(server, port, messageLength, RemoteActorServer.DEFAULT_FRAME_SIZE);
+		if (frameSize > messageLength.maxLength()) {
+			throw new IllegalArgumentException("frameSize over the maximum message length: " + frameSize);
+		}
+		this.codec = codec;
+		this.frameSize = frameSize;
+	}
+
+	/**
+	 * Connect, starting the reader and writer threads.
+	 *
+	 * @param timeoutMillis
+	 *            time to wait for the connection
+	 * @return true if connected
+	 */
+	public boolean start(long timeoutMillis) throws InterruptedException {
+		open = true;
+		reader = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					RemoteConnection.this.run();
+				} catch (RuntimeException e) {
+					logger.warning("RemoteConnection failed to %s:%d: %s", getServer(), getPort(), e.getMessage());
+					open = false;
+					connectedLatch.countDown();
+				}
+			}
+		}, "remoteReader-" + getServer() + ":" + getPort());
+		reader.setDaemon(true);
+		reader.start();
+		if (!connectedLatch.await(timeoutMillis, TimeUnit.MILLISECONDS) || !isRunning()) {
+			close();
+			return false;
+		}
+		writer = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				runWriter();
+			}
+		}, "remoteWriter-" + getServer() + ":" + getPort());
+		writer.setDaemon(true);
+		writer.start();
+		return true;
+	}
+
+	/** Close the connection; messages not yet written are lost. */
+	public void close() {
+		open = false;
+		synchronized (lock) {
+			lock.notifyAll();
+		}
+		stop();
+	}
+
+	public boolean isOpen() {
+		return open;
+	}
+
+	/**
+	 * Queue a message for a remote category.
+	 *
+	 * @return false if the connection is closed (or was interrupted while
+	 *         waiting for the writer)
+	 * @throws IllegalArgumentException
+	 *             if the message cannot be encoded or is larger than a frame
+	 */
+	public boolean send(String category, Message message) {
+		if (!open) {
+			return false;
+		}
+		synchronized (lock) {
+			while (true) {
+				if (pending == null) {
+					pending = free.isEmpty() ? ByteBuffer.allocate(frameSize) : free.poll();
+				}
+				int mark = pending.position();
+				String xcategory = sectionCategory;
+				try {
+					if (!category.equals(sectionCategory)) {
+						pending.put(RemoteActorServer.OP_SEND);
+						MessageCodec.writeString(pending, category);
+						sectionCountPosition = pending.position();
+						pending.putShort((short) 0);
+						sectionCategory = category;
+						sectionCount = 0;
+					}
+					codec.encode(message, pending);
+				} catch (BufferOverflowException e) {
+					pending.position(mark);
+					sectionCategory = xcategory;
+					if (mark == 0) {
+						throw new IllegalArgumentException("message larger than a frame: " + message);
+					}
+					// the frame is full; start the next
+					ready.add(pending);
+					pending = null;
+					sectionCategory = null;
+					// the remote node is slow to read; hold the sender back
+					while (open && ready.size() >= maxQueuedFrames) {
+						try {
+							lock.wait();
+						} catch (InterruptedException ie) {
+							Thread.currentThread().interrupt();
+							return false;
+						}
+					}
+					if (!open) {
+						return false;
+					}
+					continue;
+				} catch (RuntimeException e) {
+					pending.position(mark);
+					sectionCategory = xcategory;
+					throw e;
+				}
+				pending.putShort(sectionCountPosition, (short) ++sectionCount);
+				break;
+			}
+			getRemoteCategory(category).inFlight.incrementAndGet();
+			lock.notifyAll();
+		}
+		return true;
+	}
+
+	protected void runWriter() {
+		while (open) {
+			ByteBuffer frame = null;
+			synchronized (lock) {
+				while (open && frame == null) {
+					if (!ready.isEmpty()) {
+						frame = ready.poll();
+						lock.notifyAll();
+					} else if (pending != null && pending.position() > 0) {
+						frame = pending;
+						pending = null;
+						sectionCategory = null;
+					} else {
+						try {
+							lock.wait(pollMillis);
+						} catch (InterruptedException e) {
+							open = false;
+						}
+						if (ready.isEmpty() && (pending == null || pending.position() == 0)) {
+							frame = createPoll();
+						}
+					}
+				}
+			}
+			if (frame == null) {
+				break;
+			}
+			frame.flip();
+			if (!write(frame)) {
+				logger.warning("RemoteConnection write failed to %s:%d", getServer(), getPort());
+				open = false;
+				break;
+			}
+			frame.clear();
+			synchronized (lock) {
+				if (free.size() < 2) {
+					free.add(frame);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Create a frame of empty SEND sections for the categories last reported
+	 * busy with nothing in flight; their ACKs refresh the depth. Called with
+	 * the lock held.
+	 *
+	 * @return the frame; null if no category needs it
+	 */
+	protected ByteBuffer createPoll() {
+		ByteBuffer res = null;
+		for (Map.Entry<String, RemoteCategory> e : categories.entrySet()) {
+			RemoteCategory c = e.getValue();
+			if (c.depth > 0 && c.inFlight.get() <= 0) {
+				if (res == null) {
+					res = free.isEmpty() ? ByteBuffer.allocate(frameSize) : free.poll();
+				}
+				int mark = res.position();
+				try {
+					res.put(RemoteActorServer.OP_SEND);
+					MessageCodec.writeString(res, e.getKey());
+					res.putShort((short) 0);
+				} catch (BufferOverflowException ex) {
+					res.position(mark);
+					break;
+				}
+			}
+		}
+		return res;
+	}
+
+	protected RemoteCategory getRemoteCategory(String category) {
+		RemoteCategory res = categories.get(category);
+		if (res == null) {
+			synchronized (categories) {
+				res = categories.get(category);
+				if (res == null) {
+					res = new RemoteCategory();
+					categories.put(category, res);
+				}
+			}
+		}
+		return res;
+	}
+
+	/**
+	 * Get the load of a remote category: the messages sent but not yet
+	 * acknowledged plus the mailbox depth last reported.
+	 */
+	public int getRemoteDepth(String category) {
+		RemoteCategory c = categories.get(category);
+		return c != null ? Math.max(0, c.inFlight.get()) + c.depth : 0;
+	}
+
+	/** Get the remote depth of each category sent to. */
+	public Map<String, Integer> getRemoteDepths() {
+		Map<String, Integer> res = new HashMap<String, Integer>();
+		for (String category : categories.keySet()) {
+			res.put(category, getRemoteDepth(category));
+		}
+		return res;
+	}
+
+	/**
+	 * Create and start a proxy actor for a remote category and make it a member
+	 * of the same named local category.
+	 *
+	 * @param manager
+	 *            the local manager
+	 * @param name
+	 *            the proxy actor name
+	 * @param category
+	 *            the category
+	 * @return the proxy
+	 */
+	public Actor addProxy(ActorManager manager, String name, String category) {
+		Map<String, Object> options = new HashMap<String, Object>();
+		options.put(RemoteProxyActor.CONNECTION, this);
+		options.put(RemoteProxyActor.REMOTE_CATEGORY, category);
+		Actor res = manager.createActor(RemoteProxyActor.class, name, options);
+		res.setCategory(category);
+		manager.startActor(res);
+		return res;
+	}
+
+	@Override
+	protected void messageReceived(ByteBuffer message) {
+		try {
+			while (message.hasRemaining()) {
+				byte op = message.get();
+				if (op != RemoteActorServer.OP_ACK) {
+					throw new IllegalArgumentException("unknown op: " + op);
+				}
+				String category = MessageCodec.readString(message);
+				int count = (int) MessageCodec.readVarLong(message);
+				int depth = (int) MessageCodec.readVarLong(message);
+				RemoteCategory c = getRemoteCategory(category);
+				c.depth = depth;
+				c.inFlight.addAndGet(-count);
+			}
+		} catch (RuntimeException e) {
+			logger.error("RemoteConnection bad frame", e);
+		}
+	}
+
+	@Override
+	protected void connected(boolean alreadyConnected) {
+		logger.info("RemoteConnection connected to %s:%d", getServer(), getPort());
+		connectedLatch.countDown();
+	}
+
+	@Override
+	protected void disconnected() {
+		logger.info("RemoteConnection disconnected from %s:%d", getServer(), getPort());
+		open = false;
+		connectedLatch.countDown();
+		synchronized (lock) {
+			lock.notifyAll();
+		}
+	}
+
+	@Override
+	public String toString() {
+		return getClass().getSimpleName() + "[" + getServer() + ":" + getPort() + ", open=" + open + "]";
+	}
+}
@@ -0,0 +1,86 @@
+package com.fly.practice.actor.remote;
+
+import java.util.List;
+import java.util.Map;
+
+import com.fly.practice.actor.AbstractActor;
+import com.fly.practice.actor.Message;
+
+/**
+ * A local stand-in for a category on another node. It forwards every message
+ * it receives over a RemoteConnection, so a category can mix local actors and
+ * proxies and send(message, from, category) spreads work across nodes.
+ *
+ * Its message count is its own mailbox plus the remote load (messages in
+ * flight and the depth last reported by the remote node), so the category
+ * router sees how busy the remote node is. A proxy whose remote load reaches
+ * its mailbox capacity gets no more messages until it drops; set
+ * MAILBOX_CAPACITY to about what the remote category can hold.
+ *
+ * Created with the CONNECTION and (optional) REMOTE_CATEGORY options; see
+ * RemoteConnection.addProxy(). Without a REMOTE_CATEGORY the proxy forwards to
+ * the remote category named as its own.
+ */
+public class RemoteProxyActor extends AbstractActor {
+
+	/** Option: the RemoteConnection to forward over. */
+	public static final String CONNECTION = "remoteConnection";
+
+	/** Option: the remote category to forward to. */
+	public static final String REMOTE_CATEGORY = "remoteCategory";
+
+	protected RemoteConnection connection;
+
+	protected String remoteCategory;
+
+	@Override
+	public void configure(Map<String, Object> options) {
+		super.configure(options);
+		Object xconnection = options != null ? options.get(CONNECTION) : null;
+		if (!(xconnection instanceof RemoteConnection)) {
+			throw new IllegalArgumentException("a RemoteConnection is required: " + xconnection);
+		}
+		connection = (RemoteConnection) xconnection;
+		Object xcategory = options.get(REMOTE_CATEGORY);
+		remoteCategory = xcategory != null ? xcategory.toString() : null;
+	}
+
+	public RemoteConnection getConnection() {
+		return connection;
+	}
+
+	public String getRemoteCategory() {
+		return remoteCategory != null ? remoteCategory : getCategory();
+	}
+
+	@Override
+	protected void loopBody(Message m) {
+		if (!connection.send(getRemoteCategory(), m)) {
+			throw new IllegalStateException("connection closed: " + connection);
+		}
+	}
+
+	@Override
+	protected void loopBody(List<Message> messages) {
+		String xcategory = getRemoteCategory();
+		for (Message m : messages) {
+			if (!connection.send(xcategory, m)) {
+				throw new IllegalStateException("connection closed: " + connection);
+			}
+		}
+	}
+
+	@Override
+	protected void runBody() {
+		// no "init" message; it would be forwarded
+	}
+
+	/** Get the local and remote load; reads as full once the connection closes. */
+	@Override
+	public int getMessageCount() {
+		if (!connection.isOpen()) {
+			return Math.max(super.getMessageCount(), getMaxMessageCount());
+		}
+		return super.getMessageCount() + connection.getRemoteDepth(getRemoteCategory());
+	}
+}
@@ -24,7 +24,7 @@ public class ConsumerActor extends TestableActor {
 	@Override
 	public void deactivate() {
 		logger.trace("ConsumerActor deactivate: %s", this);
-		DefaultActorTest.dumpMessages(messages);
+		DefaultActorTest.dumpMessages(getMessages());
 		super.deactivate();
 	}
 
@@ -92,13 +92,9 @@ public class DefaultActorTest extends Utils {
 		sleep(millis);
 	}
 
-	public static void dumpMessages(List<DefaultMessage> messages) {
-		synchronized (messages) {
-			if (messages.size() > 0) {
-				for (DefaultMessage m : messages) {
-					logger.info("%s", m);
-				}
-			}
+	public static void dumpMessages(DefaultMessage[] messages) {
+		for (DefaultMessage m : messages) {
+			logger.info("%s", m);
 		}
 	}
 
@@ -26,9 +26,9 @@ public class ProducerActor extends TestableActor {
 	@Override
 	public void deactivate() {
 		logger.trace("ProducerActor deactivate: %s", this);
-		if (messages.size() > 0) {
+		if (getMessageCount() > 0) {
 			logger.trace("expected: %s", expected);
-			DefaultActorTest.dumpMessages(messages);
+			DefaultActorTest.dumpMessages(getMessages());
 		}
 		super.deactivate();
 	}
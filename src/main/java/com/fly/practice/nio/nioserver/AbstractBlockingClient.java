@@ -17,13 +17,17 @@ import java.util.concurrent.atomic.AtomicReference;
  * a set of callback methods for concrete implementations to know the state of the client and its connection 
  * and receive messages from the server. This client will automatically handle partially received messages or 
  * multiple message at once. A maximum message size is imposed by the server, as handled by the MessageLength 
- * parameter, which defaults to the TwoByteMessageLength (and thus a max message of 65535 bytes).
+ * parameter, which defaults to the TwoByteMessageLength (and thus a max message of 65535 bytes). The client and
+ * server must use the same MessageLength.
+ * 
+ * Each client takes a thread; to connect to many servers, or many times to one, use AbstractMultiplexedClient.
  * 
  * This client does not log, implementations should handle this.
  * 
  * This client does not support SSL or UDP connections.
  * 
  * @see AbstractServer
+ * @see AbstractMultiplexedClient
  * @see MessageLength
  */
 public abstract class AbstractBlockingClient implements Runnable {
@@ -40,6 +44,8 @@ public abstract class AbstractBlockingClient implements Runnable {
     private final int defaultBufferSize;
     private final AtomicReference<OutputStream> out = new AtomicReference<OutputStream>();
     private final AtomicReference<InputStream> in = new AtomicReference<InputStream>();
+    /** Reused to frame messages up to the default buffer size; guarded by this. */
+    private final ByteBuffer outBuffer;
     
     /**
      * Construct an unstarted client which will attempt to connect to the given server on the given port. 
@@ -64,6 +70,7 @@ public abstract class AbstractBlockingClient implements Runnable {
         this.messageLength = messageLength;
         this.defaultBufferSize = defaultBufferSize;
         this.byteLength = messageLength.byteLength();
+        this.outBuffer = ByteBuffer.allocate(byteLength+defaultBufferSize);
     }
     
     /**
@@ -119,31 +126,48 @@ public abstract class AbstractBlockingClient implements Runnable {
             in.set(socket.getInputStream()); 
             int limit = 0;
             byte[] inBuffer = new byte[defaultBufferSize];  
+            ByteBuffer view = ByteBuffer.wrap(inBuffer);
             connected(false);
             while (state.get() == State.RUNNING) { 
-                limit += in.get().read(inBuffer, limit, inBuffer.length-limit);
-                if (limit>=byteLength) {
-                    int messageLen;
-                    do {
-                        byte[] lengthBytes = new byte[byteLength];
-                        System.arraycopy(inBuffer, 0, lengthBytes, 0, byteLength);
-                        messageLen = (int)messageLength.bytesToLength(lengthBytes);
-                        if (limit>=messageLen) {
-                            // enough data to extract the message
-                            byte[] message = new byte[messageLen];
-                            System.arraycopy(inBuffer, byteLength, message, 0, messageLen);
-                            messageReceived(ByteBuffer.wrap(message));                      
-                            // compact inBuffer
-                            byte[] temp = new byte[inBuffer.length];
-                            System.arraycopy(inBuffer, 0, temp, messageLen+byteLength, limit-messageLen-byteLength);
-                            inBuffer = temp;
-                            limit = limit-messageLen-byteLength;
-                        } else if (messageLen>inBuffer.length) {
-                            byte[] temp = new byte[messageLen+byteLength];
-                            System.arraycopy(inBuffer, 0, temp, 0, inBuffer.length);
+                int read = in.get().read(inBuffer, limit, inBuffer.length-limit);
+                if (read==-1) {
+                    // server closed the connection
+                    break;
+                }
+                limit += read;
+                // extract every complete message in the buffer
+                int offset = 0;
+                while (limit>offset) {
+                    view.limit(limit);
+                    view.position(offset);
+                    long length = messageLength.readLength(view);
+                    if (length<0) {
+                        // length not all read yet
+                        break;
+                    }
+                    int messageLen = (int)length;
+                    int headerLen = view.position()-offset;
+                    if (limit-offset-headerLen<messageLen) {
+                        if (messageLen+headerLen>inBuffer.length) {
+                            // message is longer than buffer => resize buffer to message size
+                            byte[] temp = new byte[messageLen+headerLen];
+                            System.arraycopy(inBuffer, offset, temp, 0, limit-offset);
                             inBuffer = temp;
-                        } 
-                    } while (messageLen<limit);
+                            view = ByteBuffer.wrap(inBuffer);
+                            limit -= offset;
+                            offset = 0;
+                        }
+                        break;
+                    }
+                    byte[] message = new byte[messageLen];
+                    System.arraycopy(inBuffer, offset+headerLen, message, 0, messageLen);
+                    messageReceived(ByteBuffer.wrap(message));                      
+                    offset += messageLen+headerLen;
+                }
+                if (offset>0) {
+                    // compact inBuffer
+                    System.arraycopy(inBuffer, offset, inBuffer, 0, limit-offset);
+                    limit -= offset;
                 }
             }
         } catch (ClosedByInterruptException ie) {
@@ -183,14 +207,25 @@ public abstract class AbstractBlockingClient implements Runnable {
      * @param buffer the message to send.
      * @return true if the message was sent to the server.
      */
-    public synchronized boolean write(byte[] buffer) {
-        int len = buffer.length;
-        byte[] lengthBytes = messageLength.lengthToBytes(len);
+    public boolean write(byte[] buffer) {
+        return write(ByteBuffer.wrap(buffer));
+    }
+    
+    /**
+     * Send the given message to the server. The message is written from its position to its limit,
+     * and its position is left at its limit.
+     * @param message the message to send.
+     * @return true if the message was sent to the server.
+     */
+    public synchronized boolean write(ByteBuffer message) {
+        int len = message.remaining();
+        ByteBuffer outBuffer = len+byteLength<=this.outBuffer.capacity() ? this.outBuffer : ByteBuffer.allocate(len+byteLength);
+        outBuffer.clear();
+        messageLength.writeLength(outBuffer, len);
         try {           
-            byte[] outBuffer = new byte[len+byteLength];        
-            System.arraycopy(lengthBytes, 0, outBuffer, 0, byteLength);
-            System.arraycopy(buffer, 0, outBuffer, byteLength, len);
-            out.get().write(outBuffer);
+            // with the length, in one write
+            outBuffer.put(message);
+            out.get().write(outBuffer.array(), 0, outBuffer.position());
             return true;
         } catch (Exception e) {
             // socket is closed, message not sent
@@ -0,0 +1,753 @@
+package com.fly.practice.nio.nioserver;
+
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * An abstract non-blocking client, designed to be run in its own thread, that drives any number of connections
+ * to servers from that one thread and selector. Where AbstractBlockingClient takes a thread per connection, this
+ * suits callers of many servers, or of one server over many connections. This class provides a set of callback
+ * methods for concrete implementations to know the state of the client and its connections and receive messages.
+ * Messages are framed as for AbstractServer, with the MessageLength parameter, which defaults to the
+ * TwoByteMessageLength.
+ *
+ * Requests are pipelined: request() sends a message without waiting for the replies to those sent before it.
+ * Each request is tagged with a correlation id, sent as a 4 byte int before the message, and returned by
+ * request(). The server must start each reply with the id of the request it answers, and may reply in any order.
+ * A reply is passed to messageReceived() with its id and the context given to request(); a message whose id
+ * matches no pending request is passed with a null context. The requests still pending when a connection
+ * closes are passed to requestFailed().
+ *
+ * All connections are read into the one read buffer of the default buffer size, and each message passed to
+ * messageReceived() is a view of it: it is only valid during the call and must be copied to be kept. Only
+ * a connection with part of a message left over holds a buffer of its own, the size of that message if it
+ * is longer than the read buffer. Requests are framed in write buffers pooled by the client.
+ *
+ * Writes do not block, as for AbstractServer. A request is written at once if the connection has nothing
+ * queued, else queued and written by the selector thread when the socket can take more; requests made on the
+ * selector thread itself (in messageReceived) are queued and written together once the messages read are
+ * handled. A connection is not writable while more than the high watermark of bytes is queued, until the queue
+ * drains to the low watermark; writabilityChanged() is called at both points. Requests made before a
+ * connection is established are queued until it is.
+ *
+ * This client does not log, implementations should handle this.
+ *
+ * This client does not support SSL or UDP connections.
+ *
+ * @see AbstractServer
+ * @see MessageLength
+ */
+public abstract class AbstractMultiplexedClient implements Runnable {
+
+    private enum State {STOPPED, STOPPING, RUNNING}
+
+    private static short DEFAULT_MESSAGE_SIZE = 512;
+
+    /** The number of bytes of the correlation id at the start of every message. */
+    public static final int ID_LENGTH = 4;
+
+    /** The most queued messages written at once. */
+    private static final int MAX_GATHER = 64;
+
+    /** The most free write buffers kept. */
+    private static final int MAX_POOLED = 64;
+
+    /** Stands for a null context among the pending requests. */
+    private static final Object NO_CONTEXT = new Object();
+
+    private final AtomicReference<State> state = new AtomicReference<State>(State.STOPPED);
+    private final MessageLength messageLength;
+    private final int defaultBufferSize;
+    private final int frameSize;
+    private final AtomicInteger nextId = new AtomicInteger();
+    private final Queue<Connection> connecting = new ConcurrentLinkedQueue<Connection>();
+    /** Free write buffers, of frameSize. */
+    private final Queue<ByteBuffer> freeBuffers = new ConcurrentLinkedQueue<ByteBuffer>();
+    private final AtomicInteger freeCount = new AtomicInteger();
+    /** Connections written by the selector thread since its last flush; only touched by that thread. */
+    private final List<Connection> written = new ArrayList<Connection>();
+    /** The read buffer shared by all connections; only touched by the selector thread. */
+    private final ByteBuffer readBuffer;
+    private volatile Selector selector;
+    private volatile Thread thread;
+    private volatile int lowWatermark = 32 * 1024;
+    private volatile int highWatermark = 64 * 1024;
+
+    /**
+     * Construct an unstarted client. Will use the default message length and buffer.
+     */
+    protected AbstractMultiplexedClient() {
+        this(new TwoByteMessageLength(), DEFAULT_MESSAGE_SIZE);
+    }
+
+    /**
+     * Construct an unstarted client.
+     * @param messageLength how to construct and parse message lengths.
+     * @param defaultBufferSize the size of the read buffer and of the pooled write buffers. Messages longer than
+     * this can be sent and received, but take buffers of their own - see class documentation.
+     */
+    protected AbstractMultiplexedClient(MessageLength messageLength, int defaultBufferSize) {
+        if (defaultBufferSize < messageLength.byteLength() + ID_LENGTH) {
+            throw new IllegalArgumentException("defaultBufferSize too small: " + defaultBufferSize);
+        }
+        this.messageLength = messageLength;
+        this.defaultBufferSize = defaultBufferSize;
+        this.frameSize = messageLength.byteLength() + ID_LENGTH + defaultBufferSize;
+        this.readBuffer = ByteBuffer.allocateDirect(defaultBufferSize);
+    }
+
+    /**
+     * Set the queued bytes at which a connection stops (over high) and starts again (at or below low) being
+     * writable - see class documentation. Defaults to 32K and 64K.
+     * @param low the low watermark.
+     * @param high the high watermark; not less than low.
+     */
+    public void setWriteWatermarks(int low, int high) {
+        if (low < 0 || high < low) {
+            throw new IllegalArgumentException("bad watermarks: " + low + ", " + high);
+        }
+        this.lowWatermark = low;
+        this.highWatermark = high;
+    }
+
+    public int getLowWatermark() {
+        return lowWatermark;
+    }
+
+    public int getHighWatermark() {
+        return highWatermark;
+    }
+
+    public int getDefaultBufferSize() {
+        return defaultBufferSize;
+    }
+
+    /**
+     * Returns true if this client is currently connecting, reading & writing.
+     * @return true if this client is currently connecting, reading & writing.
+     */
+    public boolean isRunning() {
+        return state.get() == State.RUNNING;
+    }
+
+    /**
+     * Returns true if this client is in the stopped state.
+     * @return true if this client is in the stopped state.
+     */
+    public boolean isStopped() {
+        return state.get() == State.STOPPED;
+    }
+
+    /**
+     * Start the client running - connecting, sending requests and receiving messages. If the client is
+     * already running, it will not be started again. This method is designed to be called in
+     * its own thread and will not return until the client is stopped. All connections are closed
+     * when it returns.
+     *
+     * @throws RuntimeException if the client fails
+     */
+    public void run() {
+        // ensure that the client is not started twice
+        if (!state.compareAndSet(State.STOPPED, State.RUNNING)) {
+            started(true);
+            return;
+        }
+
+        try {
+            selector = Selector.open();
+            thread = Thread.currentThread();
+            started(false);
+            while (state.get() == State.RUNNING) {
+                selector.select(100); // check every 100ms whether the client has been requested to stop
+                for (Connection c = connecting.poll(); c != null; c = connecting.poll()) {
+                    register(c);
+                }
+                for (Iterator<SelectionKey> i = selector.selectedKeys().iterator(); i.hasNext();) {
+                    SelectionKey key = i.next();
+                    i.remove();
+                    Connection c = (Connection)key.attachment();
+                    try {
+                        if (key.isConnectable() && c.channel.finishConnect()) {
+                            open(c);
+                        }
+                        if (key.isValid() && key.isReadable()) {
+                            read(c);
+                        }
+                        if (key.isValid() && key.isWritable()) {
+                            flush(c);
+                        }
+                    } catch (IOException ioe) {
+                        close(c);
+                    } catch (CancelledKeyException cke) {
+                        // closed by another thread
+                        close(c);
+                    }
+                }
+                flushWritten();
+            }
+        } catch (Throwable e) {
+            throw new RuntimeException("Client failure: "+e.getMessage());
+        } finally {
+            stop();
+            try {
+                for (Connection c = connecting.poll(); c != null; c = connecting.poll()) {
+                    close(c);
+                }
+                if (selector != null) {
+                    List<Connection> open = new ArrayList<Connection>();
+                    for (SelectionKey key : selector.keys()) {
+                        open.add((Connection)key.attachment());
+                    }
+                    for (Connection c : open) {
+                        close(c);
+                    }
+                    selector.close();
+                }
+            } catch (Exception e) {
+                // do nothing - client failed
+            } finally {
+                thread = null;
+                state.set(State.STOPPED);
+                stopped();
+            }
+        }
+    }
+
+    /**
+     * Stop the client in a graceful manner. After this call the client may spend some time
+     * in the process of stopping. A stopped callback will occur when the client actually stops,
+     * after a disconnected callback for each of its connections.
+     * @return if the client was successfully set to stop.
+     */
+    public boolean stop() {
+        if (state.compareAndSet(State.RUNNING, State.STOPPING)) {
+            Selector xselector = selector;
+            if (xselector != null) {
+                xselector.wakeup();
+            }
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Open a connection to the given server. The connection is made by the selector thread, which calls
+     * connected() once it is established, or disconnected() if it fails. Requests may be made on the
+     * connection at once; they are sent once it is established.
+     *
+     * @param server the server address.
+     * @param port the port on which to connect to the server.
+     * @return the connection.
+     * @throws IOException if the connection cannot be started.
+     */
+    public Connection connect(InetAddress server, int port) throws IOException {
+        SocketChannel channel = SocketChannel.open();
+        try {
+            channel.configureBlocking(false);
+            channel.socket().setTcpNoDelay(true);
+            channel.socket().setKeepAlive(true);
+            channel.connect(new InetSocketAddress(server, port));
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+        Connection res = new Connection(server, port, channel);
+        connecting.add(res);
+        Selector xselector = selector;
+        if (xselector != null) {
+            xselector.wakeup();
+        }
+        return res;
+    }
+
+    /**
+     * Close a connection, failing the requests pending on it. Does nothing if it is already closed.
+     * @param connection the connection.
+     */
+    public void close(Connection connection) {
+        SelectionKey key;
+        synchronized (connection) {
+            if (connection.closed) {
+                return;
+            }
+            connection.closed = true;
+            connection.connected = false;
+            key = connection.key;
+            connection.writeQueue.clear();
+            connection.queuedBytes = 0;
+        }
+        if (key != null) {
+            key.cancel();
+        }
+        try {
+            connection.channel.close();
+        } catch (IOException e) {
+            // do nothing - closing
+        }
+        for (Iterator<Map.Entry<Integer, Object>> i = connection.pending.entrySet().iterator(); i.hasNext();) {
+            Map.Entry<Integer, Object> e = i.next();
+            i.remove();
+            requestFailed(e.getKey(), e.getValue() == NO_CONTEXT ? null : e.getValue(), connection);
+        }
+        disconnected(connection);
+    }
+
+    /**
+     * Send a request on the given connection. The message does not need to have the length of the message
+     * or the correlation id prepended. It is not guaranteed the request will arrive: that won't be known
+     * until a reply or the requestFailed callback. The request is written or queued; this does not block -
+     * see class documentation.
+     *
+     * @param connection the connection to send on.
+     * @param message the message to send.
+     * @param context passed back with the reply; may be null.
+     * @return the correlation id of the request, or -1 if the connection is closed.
+     * @throws IllegalStateException if the message is longer than the MessageLength allows.
+     */
+    public int request(Connection connection, byte[] message, Object context) {
+        return request(connection, ByteBuffer.wrap(message), context);
+    }
+
+    /**
+     * Send a request on the given connection - see request(Connection, byte[], Object). The message is
+     * copied from its position to its limit, and its position is left at its limit.
+     *
+     * @param connection the connection to send on.
+     * @param message the message to send.
+     * @param context passed back with the reply; may be null.
+     * @return the correlation id of the request, or -1 if the connection is closed.
+     * @throws IllegalStateException if the message is longer than the MessageLength allows.
+     */
+    public int request(Connection connection, ByteBuffer message, Object context) {
+        int len = message.remaining();
+        ByteBuffer frame = takeBuffer(messageLength.byteLength() + ID_LENGTH + len);
+        int id = nextId.getAndIncrement();
+        try {
+            messageLength.writeLength(frame, ID_LENGTH + len);
+        } catch (IllegalStateException e) {
+            releaseBuffer(frame);
+            throw e;
+        }
+        frame.putInt(id);
+        frame.put(message);
+        frame.flip();
+        connection.pending.put(id, context != null ? context : NO_CONTEXT);
+        try {
+            if (write(connection, frame)) {
+                return id;
+            }
+            connection.pending.remove(id);
+        } catch (IOException e) {
+            connection.pending.remove(id);
+            close(connection);
+        }
+        releaseBuffer(frame);
+        return -1;
+    }
+
+    /**
+     * Returns true if the connection has no more than the high watermark queued, or after that no more than
+     * the low watermark - see class documentation.
+     * @param connection the connection.
+     * @return true if the connection is writable.
+     */
+    public boolean isWritable(Connection connection) {
+        return connection.writable && !connection.closed;
+    }
+
+    /**
+     * Register a new connection with the selector. Called by the selector thread.
+     * @param c the connection.
+     */
+    private void register(Connection c) {
+        try {
+            boolean connected;
+            synchronized (c) {
+                if (c.closed) {
+                    return;
+                }
+                connected = c.channel.isConnected();
+                c.key = c.channel.register(selector, connected ? SelectionKey.OP_READ : SelectionKey.OP_CONNECT, c);
+            }
+            if (connected) {
+                open(c);
+            }
+        } catch (IOException e) {
+            close(c);
+        } catch (CancelledKeyException e) {
+            close(c);
+        }
+    }
+
+    /**
+     * A connection is established: read it and write what was requested on it meanwhile. Called by the
+     * selector thread.
+     * @param c the connection.
+     * @throws IOException if the connection is closed.
+     */
+    private void open(Connection c) throws IOException {
+        synchronized (c) {
+            if (c.closed) {
+                return;
+            }
+            c.connected = true;
+            c.key.interestOps(SelectionKey.OP_READ);
+        }
+        connected(c);
+        flush(c);
+    }
+
+    /**
+     * Write a request, with its length and id, or queue it.
+     * @param c the connection.
+     * @param frame the request.
+     * @return false if the connection is closed.
+     * @throws IOException if the connection is closed.
+     */
+    private boolean write(Connection c, ByteBuffer frame) throws IOException {
+        synchronized (c) {
+            if (c.closed) {
+                return false;
+            }
+            boolean loop = Thread.currentThread() == thread;
+            if (c.connected && c.writeQueue.isEmpty() && !loop) {
+                // nothing queued: write at once
+                c.channel.write(frame);
+                if (!frame.hasRemaining()) {
+                    releaseBuffer(frame);
+                    return true;
+                }
+            }
+            if (c.connected && c.writeQueue.isEmpty()) {
+                if (loop) {
+                    written.add(c);
+                } else {
+                    c.key.interestOps(c.key.interestOps() | SelectionKey.OP_WRITE);
+                    selector.wakeup();
+                }
+            }
+            c.writeQueue.add(frame);
+            c.queuedBytes += frame.remaining();
+            if (!c.writable || c.queuedBytes <= highWatermark) {
+                return true;
+            }
+            c.writable = false;
+        }
+        writabilityChanged(c, false);
+        return true;
+    }
+
+    /**
+     * Write the requests queued on a connection, as many as the socket takes, and ask to be
+     * told when it can take more if any are left. Called by the selector thread.
+     * @param c the connection.
+     * @throws IOException if the connection is closed.
+     */
+    private void flush(Connection c) throws IOException {
+        synchronized (c) {
+            if (!c.connected) {
+                return;
+            }
+            while (!c.writeQueue.isEmpty()) {
+                int count = 0;
+                long bytes = 0;
+                for (ByteBuffer b : c.writeQueue) {
+                    c.gather[count++] = b;
+                    bytes += b.remaining();
+                    if (count == MAX_GATHER) {
+                        break;
+                    }
+                }
+                long written = c.channel.write(c.gather, 0, count);
+                c.queuedBytes -= written;
+                Arrays.fill(c.gather, 0, count, null);
+                while (!c.writeQueue.isEmpty() && !c.writeQueue.peek().hasRemaining()) {
+                    releaseBuffer(c.writeQueue.poll());
+                }
+                if (written < bytes) {
+                    break; // the socket is full
+                }
+            }
+            int ops = c.key.interestOps();
+            if (c.writeQueue.isEmpty()) {
+                c.key.interestOps(ops & ~SelectionKey.OP_WRITE);
+            } else if ((ops & SelectionKey.OP_WRITE) == 0) {
+                c.key.interestOps(ops | SelectionKey.OP_WRITE);
+            }
+            if (c.writable || c.queuedBytes > lowWatermark) {
+                return;
+            }
+            c.writable = true;
+        }
+        writabilityChanged(c, true);
+    }
+
+    /**
+     * Write what the selector thread queued on its connections.
+     */
+    private void flushWritten() {
+        for (int i = 0; i < written.size(); i++) {
+            Connection c = written.get(i);
+            try {
+                flush(c);
+            } catch (IOException e) {
+                close(c);
+            } catch (CancelledKeyException e) {
+                close(c);
+            }
+        }
+        written.clear();
+    }
+
+    /**
+     * Read as much as available on a connection, passing each complete message to messageReceived(). A
+     * part of a message left over is copied out of the read buffer and read back into it at the next read,
+     * unless the message is longer than the read buffer; then the rest of it is read into a buffer of its
+     * own. Called by the selector thread.
+     * @param c the connection.
+     * @throws IOException if the connection is closed.
+     */
+    private void read(Connection c) throws IOException {
+        ByteBuffer partial = c.partial;
+        if (partial != null && partial.capacity() > readBuffer.capacity()) {
+            if (c.channel.read(partial) == -1) {
+                throw new IOException("Read on closed connection");
+            }
+            if (!partial.hasRemaining()) {
+                c.partial = null;
+                partial.flip();
+                readMessages(c, partial);
+            }
+            return;
+        }
+        readBuffer.clear();
+        if (partial != null) {
+            c.partial = null;
+            partial.flip();
+            readBuffer.put(partial);
+        }
+        if (c.channel.read(readBuffer) == -1) {
+            throw new IOException("Read on closed connection");
+        }
+        readBuffer.flip();
+        readMessages(c, readBuffer);
+    }
+
+    /**
+     * Pass each complete message in the buffer to messageReceived(), as a view of the buffer, and keep
+     * any part of a message left over.
+     * @param c the connection.
+     * @param buffer the data read, ready for reading.
+     * @throws IOException if a message has no correlation id or a bad length.
+     */
+    private void readMessages(Connection c, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            int position = buffer.position();
+            long length = readLength(buffer);
+            if (length < 0 || buffer.remaining() < length) {
+                int needed = length < 0 ? 0 : buffer.position() - position + (int)length;
+                buffer.position(position);
+                c.partial = ByteBuffer.allocate(needed > readBuffer.capacity() ? needed : buffer.remaining());
+                c.partial.put(buffer);
+                return;
+            }
+            if (length < ID_LENGTH) {
+                throw new IOException("Message without a correlation id");
+            }
+            int end = buffer.position() + (int)length;
+            int id = buffer.getInt();
+            ByteBuffer message = buffer.slice();
+            message.limit(end - buffer.position());
+            buffer.position(end);
+            Object context = c.pending.remove(id);
+            messageReceived(message, id, context == NO_CONTEXT ? null : context, c);
+            if (c.closed) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Read a message length, as MessageLength.readLength(). A bad length only fails the connection that sent it.
+     * @param buffer the data read.
+     * @return the length, or -1 if not all read yet.
+     * @throws IOException if the bytes do not encode a valid length.
+     */
+    private long readLength(ByteBuffer buffer) throws IOException {
+        try {
+            return messageLength.readLength(buffer);
+        } catch (IllegalStateException e) {
+            throw new IOException("Bad message length: "+e.getMessage());
+        }
+    }
+
+    private ByteBuffer takeBuffer(int size) {
+        if (size > frameSize) {
+            return ByteBuffer.allocate(size);
+        }
+        ByteBuffer res = freeBuffers.poll();
+        if (res == null) {
+            return ByteBuffer.allocate(frameSize);
+        }
+        freeCount.decrementAndGet();
+        return res;
+    }
+
+    private void releaseBuffer(ByteBuffer buffer) {
+        // buffers for a large message are not kept
+        if (buffer.capacity() == frameSize && freeCount.get() < MAX_POOLED) {
+            buffer.clear();
+            freeCount.incrementAndGet();
+            freeBuffers.add(buffer);
+        }
+    }
+
+    /**
+     * A connection to a server, made by connect().
+     */
+    public static final class Connection {
+
+        private final InetAddress server;
+        private final int port;
+        private final SocketChannel channel;
+        /** Guarded by this. */
+        private SelectionKey key;
+        /** Requests not yet written, with their lengths and ids; guarded by this. */
+        private final ArrayDeque<ByteBuffer> writeQueue = new ArrayDeque<ByteBuffer>();
+        private final ByteBuffer[] gather = new ByteBuffer[MAX_GATHER];
+        private long queuedBytes;
+        private volatile boolean connected;
+        private volatile boolean closed;
+        private volatile boolean writable = true;
+        /** The contexts of the requests sent and not yet answered, by correlation id. */
+        private final Map<Integer, Object> pending = new ConcurrentHashMap<Integer, Object>();
+        /** Part of a message read, ready for writing; only touched by the selector thread. */
+        private ByteBuffer partial;
+
+        private Connection(InetAddress server, int port, SocketChannel channel) {
+            this.server = server;
+            this.port = port;
+            this.channel = channel;
+        }
+
+        /**
+         * Returns the server this connection is to.
+         * @return the server this connection is to.
+         */
+        public InetAddress getServer() {
+            return server;
+        }
+
+        /**
+         * Returns the port this connection is to.
+         * @return the port this connection is to.
+         */
+        public int getPort() {
+            return port;
+        }
+
+        /**
+         * Returns true if the connection is established and not closed.
+         * @return true if the connection is established and not closed.
+         */
+        public boolean isConnected() {
+            return connected;
+        }
+
+        /**
+         * Returns true if the connection is closed, or failed to connect.
+         * @return true if the connection is closed.
+         */
+        public boolean isClosed() {
+            return closed;
+        }
+
+        /**
+         * Returns the number of requests sent and not yet answered.
+         * @return the number of requests sent and not yet answered.
+         */
+        public int getPendingCount() {
+            return pending.size();
+        }
+
+        @Override
+        public String toString() {
+            return "Connection[" + server + ":" + port + (closed ? ", closed" : connected ? ", connected" : "") + "]";
+        }
+    }
+
+    /**
+     * Callback method for when the client receives a message on a connection, usually the reply to a request.
+     * The message is a view of a read buffer, without the correlation id, and only valid during the call -
+     * see class documentation.
+     *
+     * @param message the message received.
+     * @param correlationId the correlation id the message started with.
+     * @param context the context of the request with that id, or null if none.
+     * @param connection the connection the message was received on.
+     */
+    protected abstract void messageReceived(ByteBuffer message, int correlationId, Object context,
+        Connection connection);
+
+    /**
+     * Callback method for a request that was pending when its connection closed. Does nothing by default.
+     * @param correlationId the correlation id of the request.
+     * @param context the context of the request.
+     * @param connection the closed connection.
+     */
+    protected void requestFailed(int correlationId, Object context, Connection connection) {
+    }
+
+    /**
+     * Callback method for when a connection is established. Made on the selector thread.
+     * @param connection the connection.
+     */
+    protected abstract void connected(Connection connection);
+
+    /**
+     * Callback method for when a connection stops or starts again being writable - see class
+     * documentation. Made on the thread whose request or flush crossed the watermark. Does nothing by default.
+     * @param connection the connection.
+     * @param writable whether the connection is now writable.
+     */
+    protected void writabilityChanged(Connection connection, boolean writable) {
+    }
+
+    /**
+     * Callback method for when a connection closes or fails to connect, after requestFailed() for its
+     * pending requests.
+     * @param connection the connection.
+     */
+    protected abstract void disconnected(Connection connection);
+
+    /**
+     * Callback method for when the client has been started. If there are multiple attempts
+     * to start the client then there will be multiple callbacks, but the client can not be
+     * started when it is already running. In this situation alreadyStarted will be true (false otherwise).
+     * @param alreadyStarted whether it was attempted to start this client more than once.
+     */
+    protected abstract void started(boolean alreadyStarted);
+
+    /**
+     * Callback method for when the client has been stopped.
+     */
+    protected abstract void stopped();
+}
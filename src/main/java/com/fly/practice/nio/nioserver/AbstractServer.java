@@ -11,11 +11,16 @@ import java.nio.channels.SelectionKey;
 import java.nio.channels.Selector;
 import java.nio.channels.ServerSocketChannel;
 import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Arrays;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
 
 /**
@@ -23,19 +28,40 @@ import java.util.concurrent.atomic.AtomicReference;
  * methods for concrete implementations to know the state of the server and its connections and receive messages 
  * from clients. This server will automatically handle partially received messages or multiple message at once. 
  * A maximum message size is imposed by the server, as handled by the MessageLength parameter, which defaults to
- * the TwoByteMessageLength (and thus a max message of 65535 bytes).
+ * the TwoByteMessageLength (and thus a max message of 65535 bytes). FourByteMessageLength and VarIntMessageLength
+ * allow messages of up to 2GB, the latter with a one byte length for messages shorter than 128 bytes.
  * 
- * Designed to work with concrete implementations of AbstractBlockingClient.
+ * Designed to work with concrete implementations of AbstractBlockingClient, or of AbstractMultiplexedClient if
+ * each reply starts with the correlation id of the request it answers.
  * 
  * The default buffer size should be set such that it is as small as possible, but at the same time not so small that message
  * are regularly larger than the buffer. The smaller the buffer, the faster it can be processed. However, if a message is 
  * received larger than the buffer then the buffer must be resized to handle it. 
  * 
+ * By default one thread and selector accept connections and read them all, and messageReceived() runs on that
+ * thread, so a slow callback holds up every connection. Given a number of workers, the server thread only accepts
+ * connections and spreads them across that many worker threads, each with its own selector; the callbacks for
+ * a connection are then made on its worker's thread, and concurrently for connections of different workers.
+ * 
+ * Writes do not block. A message is written at once if the connection has nothing queued, else queued and
+ * written by the connection's selector thread when the socket can take more, several queued messages per write.
+ * Messages written from the selector thread itself (in messageReceived) are queued and written together once
+ * the messages read are handled. When more than the high watermark of bytes is queued for a connection, write()
+ * returns false until the queue drains below the low watermark; writabilityChanged() is called at both points.
+ * Callers should hold back on connections that are not writable, as the queue is not bounded.
+ * 
+ * By default each message is copied out of the read buffer into its own array. With zero copy reads set, 
+ * connections are read into direct buffers pooled by each selector thread and each message passed to 
+ * messageReceived() is a view of that buffer: it is only valid during the call, has no array() and must be
+ * copied to be kept. A connection only holds a buffer while it has part of a message, and the buffer is 
+ * compacted only when that part would not otherwise fit.
+ * 
  * This server does not log, implementations should handle this.
  * 
  * This server does not support SSL or UDP connections.
  * 
  * @see AbstractBlockingClient
+ * @see AbstractMultiplexedClient
  * @see MessageLength
  */
 public abstract class AbstractServer implements Runnable {
@@ -44,11 +70,22 @@ public abstract class AbstractServer implements Runnable {
     
     private static short DEFAULT_MESSAGE_SIZE = 512;
     
+    /** The most queued messages written at once. */
+    private static final int MAX_GATHER = 64;
+    
+    /** The most free read buffers kept by a selector thread for zero copy reads. */
+    private static final int MAX_POOLED = 16;
+    
     private final AtomicReference<State> state = new AtomicReference<State>(State.STOPPED);
     private final int port;
     private final MessageLength messageLength;
-    private final Map<SelectionKey, ByteBuffer> readBuffers = new HashMap<SelectionKey, ByteBuffer>(); 
     private final int defaultBufferSize;
+    private final int workerCount;
+    private final AtomicInteger nextWorker = new AtomicInteger();
+    private Reactor[] workers;
+    private volatile int lowWatermark = 32 * 1024;
+    private volatile int highWatermark = 64 * 1024;
+    private volatile boolean zeroCopyReads;
     
     /**
      * Construct an unstarted server which will listen for connections on the given port. 
@@ -67,9 +104,26 @@ public abstract class AbstractServer implements Runnable {
      * possible value that doesn't get exceeded often - see class documentation.
      */
     protected AbstractServer(int port, MessageLength messageLength, int defaultBufferSize) { 
+        this(port, messageLength, defaultBufferSize, 0);
+    }
+    
+    /**
+     * Construct an unstarted server which will listen for connections on the given port. 
+     * @param port the port to start the server on. 
+     * @param messageLength how to construct and parse message lengths.
+     * @param defaultBufferSize the default buffer size for reads. This should as small as 
+     * possible value that doesn't get exceeded often - see class documentation.
+     * @param workerCount the number of worker threads reading the connections; 0 to read them on
+     * the server thread - see class documentation.
+     */
+    protected AbstractServer(int port, MessageLength messageLength, int defaultBufferSize, int workerCount) { 
+        if (workerCount < 0) {
+            throw new IllegalArgumentException("negative workerCount: " + workerCount);
+        }
         this.port = port; 
         this.messageLength = messageLength;
         this.defaultBufferSize = defaultBufferSize;
+        this.workerCount = workerCount;
     }
     
     /**
@@ -80,6 +134,49 @@ public abstract class AbstractServer implements Runnable {
         return port;
     }
     
+    /**
+     * Returns the number of worker threads reading connections (0 if read on the server thread).
+     * @return the number of worker threads reading connections.
+     */
+    public int getWorkerCount() {
+        return workerCount;
+    }
+    
+    /**
+     * Set the queued bytes at which a connection stops (over high) and starts again (at or below low) being 
+     * writable - see class documentation. Defaults to 32K and 64K.
+     * @param low the low watermark.
+     * @param high the high watermark; not less than low.
+     */
+    public void setWriteWatermarks(int low, int high) {
+        if (low < 0 || high < low) {
+            throw new IllegalArgumentException("bad watermarks: " + low + ", " + high);
+        }
+        this.lowWatermark = low;
+        this.highWatermark = high;
+    }
+    
+    public int getLowWatermark() {
+        return lowWatermark;
+    }
+    
+    public int getHighWatermark() {
+        return highWatermark;
+    }
+    
+    /**
+     * Set whether messages are passed as views of pooled direct read buffers rather than copies - see 
+     * class documentation. Set before starting the server.
+     * @param zeroCopyReads true for views.
+     */
+    public void setZeroCopyReads(boolean zeroCopyReads) {
+        this.zeroCopyReads = zeroCopyReads;
+    }
+    
+    public boolean isZeroCopyReads() {
+        return zeroCopyReads;
+    }
+    
     /**
      * Returns the host on which this server is accepting connections (usually localhost).
      * @return the host on which this server is accepting connections.
@@ -122,47 +219,25 @@ public abstract class AbstractServer implements Runnable {
             return;
         }
 
-        Selector selector = null;
+        Reactor boss = null;
         ServerSocketChannel server = null;
         try { 
-            selector = Selector.open(); 
+            boss = new Reactor(); 
             server = ServerSocketChannel.open(); 
             server.socket().bind(new InetSocketAddress(port)); 
             server.configureBlocking(false); 
-            server.register(selector, SelectionKey.OP_ACCEPT); 
+            server.register(boss.selector, SelectionKey.OP_ACCEPT); 
+            startWorkers();
             started(false);
-            while (state.get() == State.RUNNING) { 
-                selector.select(100); // check every 100ms whether the server has been requested to stop
-                for (Iterator<SelectionKey> i = selector.selectedKeys().iterator(); i.hasNext();) { 
-                    SelectionKey key = i.next(); 
-                    try { 
-                        i.remove(); 
-                        if (key.isConnectable()) { 
-                            ((SocketChannel)key.channel()).finishConnect(); 
-                        } 
-                        if (key.isAcceptable()) { 
-                            // accept connection 
-                            SocketChannel client = server.accept(); 
-                            client.configureBlocking(false); 
-                            client.socket().setTcpNoDelay(true); 
-                            connection(client.register(selector, SelectionKey.OP_READ));
-                        } 
-                        if (key.isReadable()) { 
-                            for (ByteBuffer message: readIncomingMessage(key)) { 
-                                messageReceived(message, key); 
-                            } 
-                        } 
-                    } catch (IOException ioe) { 
-                        resetKey(key);
-                        disconnected(key); 
-                    } 
-                } 
-            }           
+            boss.thread = Thread.currentThread();
+            boss.run();
         } catch (Throwable e) { 
             throw new RuntimeException("Server failure: "+e.getMessage());
         } finally {
             try {
-                selector.close();
+                stop();
+                stopWorkers();
+                boss.selector.close();
                 server.socket().close();
                 server.close();
                 state.set(State.STOPPED);
@@ -173,6 +248,215 @@ public abstract class AbstractServer implements Runnable {
         }
     } 
     
+    /**
+     * Start the worker threads, if any.
+     * @throws IOException if a selector cannot be opened.
+     */
+    private void startWorkers() throws IOException {
+        if (workerCount == 0) {
+            return;
+        }
+        workers = new Reactor[workerCount];
+        for (int i = 0; i < workerCount; i++) {
+            workers[i] = new Reactor();
+        }
+        for (int i = 0; i < workerCount; i++) {
+            final Reactor worker = workers[i];
+            worker.thread = new Thread(new Runnable() {
+                public void run() {
+                    try {
+                        worker.run();
+                    } finally {
+                        // a worker failure stops the server, as a server thread failure does
+                        stop();
+                        try {
+                            worker.selector.close();
+                        } catch (IOException e) {
+                            // do nothing - closing
+                        }
+                    }
+                }
+            }, "serverWorker-" + port + "-" + i);
+            worker.thread.setDaemon(true);
+            worker.thread.start();
+        }
+    }
+    
+    /**
+     * Wait for the worker threads, if any, to stop. The server must be stopping.
+     */
+    private void stopWorkers() {
+        if (workers == null) {
+            return;
+        }
+        for (Reactor worker : workers) {
+            if (worker.selector.isOpen()) {
+                worker.selector.wakeup();
+            }
+            try {
+                worker.thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        workers = null;
+    }
+    
+    /**
+     * A selector and the loop that services it: the server thread, or a worker thread. Only its own thread
+     * selects on it; connections accepted for it by the server thread are queued and registered by that thread.
+     */
+    private final class Reactor implements Runnable {
+        
+        private final Selector selector;
+        private final Map<SelectionKey, ByteBuffer> readBuffers = new ConcurrentHashMap<SelectionKey, ByteBuffer>();
+        private final Queue<SocketChannel> accepted = new ConcurrentLinkedQueue<SocketChannel>();
+        /** Connections written by this thread since its last flush; only touched by this thread. */
+        private final List<SelectionKey> written = new ArrayList<SelectionKey>();
+        /** Free direct read buffers, for zero copy reads. */
+        private final ArrayDeque<ByteBuffer> freeBuffers = new ArrayDeque<ByteBuffer>();
+        private Thread thread;
+        
+        private Reactor() throws IOException {
+            selector = Selector.open();
+        }
+        
+        public void run() {
+            try {
+                while (state.get() == State.RUNNING) { 
+                    selector.select(100); // check every 100ms whether the server has been requested to stop
+                    for (SocketChannel client = accepted.poll(); client != null; client = accepted.poll()) {
+                        register(client);
+                    }
+                    for (Iterator<SelectionKey> i = selector.selectedKeys().iterator(); i.hasNext();) { 
+                        SelectionKey key = i.next(); 
+                        try { 
+                            i.remove(); 
+                            if (key.isConnectable()) { 
+                                ((SocketChannel)key.channel()).finishConnect(); 
+                            } 
+                            if (key.isAcceptable()) { 
+                                // accept connection 
+                                SocketChannel client = ((ServerSocketChannel)key.channel()).accept(); 
+                                if (client != null) {
+                                    client.configureBlocking(false); 
+                                    client.socket().setTcpNoDelay(true); 
+                                    accepted(client);
+                                }
+                            } 
+                            if (key.isReadable()) { 
+                                if (zeroCopyReads) {
+                                    readMessagesInPlace(key, this);
+                                } else {
+                                    for (ByteBuffer message: readIncomingMessage(key, readBuffers)) { 
+                                        messageReceived(message, key); 
+                                    } 
+                                }
+                            } 
+                            if (key.isValid() && key.isWritable()) {
+                                flush(key);
+                            }
+                        } catch (IOException ioe) { 
+                            resetKey(key);
+                            disconnected(key); 
+                        } 
+                    } 
+                    flushWritten();
+                }
+            } catch (IOException e) {
+                throw new RuntimeException("Server failure: "+e.getMessage());
+            } finally {
+                for (SocketChannel client = accepted.poll(); client != null; client = accepted.poll()) {
+                    close(client);
+                }
+            }
+        }
+        
+        /**
+         * Read a connection on this selector.
+         * @param client the connection.
+         */
+        private void register(SocketChannel client) {
+            try {
+                connection(client.register(selector, SelectionKey.OP_READ, new Connection(this)));
+            } catch (IOException e) {
+                close(client);
+            }
+        }
+        
+        /**
+         * Write what this thread queued on its connections.
+         */
+        private void flushWritten() {
+            for (int i = 0; i < written.size(); i++) {
+                SelectionKey key = written.get(i);
+                try {
+                    if (key.isValid()) {
+                        flush(key);
+                    }
+                } catch (IOException e) {
+                    resetKey(key);
+                    disconnected(key);
+                }
+            }
+            written.clear();
+        }
+        
+        private ByteBuffer takeBuffer() {
+            ByteBuffer res = freeBuffers.poll();
+            return res != null ? res : ByteBuffer.allocateDirect(defaultBufferSize);
+        }
+        
+        private void releaseBuffer(ByteBuffer buffer) {
+            // buffers grown for a large message are not kept
+            if (buffer.capacity() == defaultBufferSize && freeBuffers.size() < MAX_POOLED) {
+                buffer.clear();
+                freeBuffers.add(buffer);
+            }
+        }
+        
+        private void close(SocketChannel client) {
+            try {
+                client.close();
+            } catch (IOException e) {
+                // do nothing - not connected
+            }
+        }
+        
+        /**
+         * A connection was accepted on this (the server's) selector; read it here or pass it to the next worker.
+         * @param client the connection.
+         */
+        private void accepted(SocketChannel client) {
+            Reactor[] xworkers = workers;
+            if (xworkers == null) {
+                register(client);
+            } else {
+                Reactor worker = xworkers[(nextWorker.getAndIncrement() & Integer.MAX_VALUE) % xworkers.length];
+                worker.accepted.add(client);
+                worker.selector.wakeup();
+            }
+        }
+    }
+    
+    /**
+     * The state of a client connection, attached to its key.
+     */
+    private static final class Connection {
+        
+        private final Reactor reactor;
+        /** Messages not yet written, with their lengths; guarded by this. */
+        private final ArrayDeque<ByteBuffer> writeQueue = new ArrayDeque<ByteBuffer>();
+        private final ByteBuffer[] gather = new ByteBuffer[MAX_GATHER];
+        private long queuedBytes;
+        private volatile boolean writable = true;
+        
+        private Connection(Reactor reactor) {
+            this.reactor = reactor;
+        }
+    }
+    
     /**
      * Stop the current server in a graceful manner. After this call the server may spend some time
      * in the process of stopping. A stopped callback will occur when the server actually stops. 
@@ -188,52 +472,164 @@ public abstract class AbstractServer implements Runnable {
      */
     protected void resetKey(SelectionKey key) { 
         key.cancel(); 
-        readBuffers.remove(key); 
+        Object connection = key.attachment();
+        if (connection instanceof Connection) {
+            Connection c = (Connection)connection;
+            c.reactor.readBuffers.remove(key);
+            synchronized (c) {
+                c.writeQueue.clear();
+                c.queuedBytes = 0;
+            }
+        }
     }
    
     /**
      * Send the given message to the given client. The message does not need to have the length
      * of the message prepended. It is not guaranteed the message will arrive, as it can't be determined
      * if writing on a closed connection (it could appear to work). This won't be known until later
-     * when get a disconnected callback is made.  
+     * when get a disconnected callback is made. The message is written or queued; this does not
+     * block - see class documentation.
      * 
      * @param channelKey the key of the client to which the message should be sent.
      * @param buffer the message to send.
+     * @return true if the connection is still writable, false if it has more than the high watermark
+     * queued (the message is queued all the same) or the server is not running.
+     */
+    public boolean write(SelectionKey channelKey, byte[] buffer)  {
+        return write(channelKey, ByteBuffer.wrap(buffer));
+    }
+    
+    /**
+     * Send the given message to the given client - see write(SelectionKey, byte[]). The message is
+     * copied from its position to its limit, and its position is left at its limit, so the buffer
+     * may be reused as soon as this returns.
+     * 
+     * @param channelKey the key of the client to which the message should be sent.
+     * @param message the message to send.
+     * @return true if the connection is still writable, false if it has more than the high watermark
+     * queued (the message is queued all the same) or the server is not running.
      */
-    public void write(SelectionKey channelKey, byte[] buffer)  {
-        short len = (short)buffer.length;
-        byte[] lengthBytes = messageLength.lengthToBytes(len);
+    public boolean write(SelectionKey channelKey, ByteBuffer message)  {
         // copying into byte buffer is actually faster than writing to channel twice over many (>10000) runs
-        ByteBuffer writeBuffer = ByteBuffer.allocate(len+lengthBytes.length);
-        writeBuffer.put(lengthBytes);
-        writeBuffer.put(buffer);
+        ByteBuffer writeBuffer = ByteBuffer.allocate(messageLength.byteLength()+message.remaining());
+        messageLength.writeLength(writeBuffer, message.remaining());
+        writeBuffer.put(message);
         writeBuffer.flip();
-        if (buffer!=null && state.get()==State.RUNNING) {
-            int bytesWritten;
+        if (state.get()==State.RUNNING) {
             try {
-                 // only 1 thread can write to a channel at a time 
-                SocketChannel channel = (SocketChannel)channelKey.channel(); 
-                synchronized (channel) { 
-                    bytesWritten = channel.write(writeBuffer); 
-                } 
-                if (bytesWritten==-1) {
-                    resetKey(channelKey);
-                    disconnected(channelKey); 
-                }
+                return writeFrame(channelKey, writeBuffer);
             } catch (Exception e) {
                 resetKey(channelKey);
                 disconnected(channelKey); 
             }
         }
+        return false;
+    }
+    
+    /**
+     * Write a message, with its length, or queue it.
+     * @param key the key of the client.
+     * @param message the message.
+     * @return whether the connection is writable.
+     * @throws IOException if the connection is closed.
+     */
+    private boolean writeFrame(SelectionKey key, ByteBuffer message) throws IOException {
+        Connection c = (Connection)key.attachment();
+        boolean res;
+        synchronized (c) {
+            boolean loop = Thread.currentThread() == c.reactor.thread;
+            if (c.writeQueue.isEmpty() && !loop) {
+                // nothing queued: write at once
+                ((SocketChannel)key.channel()).write(message);
+                if (!message.hasRemaining()) {
+                    return c.writable;
+                }
+            }
+            if (c.writeQueue.isEmpty()) {
+                if (loop) {
+                    c.reactor.written.add(key);
+                } else {
+                    key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+                    c.reactor.selector.wakeup();
+                }
+            }
+            c.writeQueue.add(message);
+            c.queuedBytes += message.remaining();
+            res = c.writable;
+            if (res && c.queuedBytes > highWatermark) {
+                c.writable = false;
+            } else {
+                return res;
+            }
+        }
+        writabilityChanged(key, false);
+        return false;
+    }
+    
+    /**
+     * Write the messages queued on a connection, as many as the socket takes, and ask to be
+     * told when it can take more if any are left. Called by the connection's selector thread.
+     * @param key the key of the client.
+     * @throws IOException if the connection is closed.
+     */
+    private void flush(SelectionKey key) throws IOException {
+        Connection c = (Connection)key.attachment();
+        synchronized (c) {
+            SocketChannel channel = (SocketChannel)key.channel();
+            while (!c.writeQueue.isEmpty()) {
+                int count = 0;
+                long bytes = 0;
+                for (ByteBuffer b : c.writeQueue) {
+                    c.gather[count++] = b;
+                    bytes += b.remaining();
+                    if (count == MAX_GATHER) {
+                        break;
+                    }
+                }
+                long written = channel.write(c.gather, 0, count);
+                c.queuedBytes -= written;
+                Arrays.fill(c.gather, 0, count, null);
+                while (!c.writeQueue.isEmpty() && !c.writeQueue.peek().hasRemaining()) {
+                    c.writeQueue.poll();
+                }
+                if (written < bytes) {
+                    break; // the socket is full
+                }
+            }
+            int ops = key.interestOps();
+            if (c.writeQueue.isEmpty()) {
+                key.interestOps(ops & ~SelectionKey.OP_WRITE);
+            } else if ((ops & SelectionKey.OP_WRITE) == 0) {
+                key.interestOps(ops | SelectionKey.OP_WRITE);
+            }
+            if (c.writable || c.queuedBytes > lowWatermark) {
+                return;
+            }
+            c.writable = true;
+        }
+        writabilityChanged(key, true);
+    }
+    
+    /**
+     * Returns true if the client has no more than the high watermark queued, or after that no more than 
+     * the low watermark - see class documentation.
+     * @param channelKey the key of the client.
+     * @return true if the client is writable.
+     */
+    public boolean isWritable(SelectionKey channelKey) {
+        Object connection = channelKey.attachment();
+        return connection instanceof Connection && ((Connection)connection).writable;
     }
 
     /**
      * Read as many messages as available on the client connection.
      * @param key the client connection to read.
+     * @param readBuffers the read buffers of the connections of the key's selector.
      * @return the messages read.
      * @throws IOException if the client connection is closed.
      */
-    private List<ByteBuffer> readIncomingMessage(SelectionKey key) throws IOException { 
+    private List<ByteBuffer> readIncomingMessage(SelectionKey key, Map<SelectionKey, ByteBuffer> readBuffers)
+        throws IOException { 
         ByteBuffer readBuffer = readBuffers.get(key); 
         if (readBuffer==null) {
             readBuffer = ByteBuffer.allocate(defaultBufferSize); 
@@ -246,34 +642,109 @@ public abstract class AbstractServer implements Runnable {
         readBuffer.flip(); 
         List<ByteBuffer> result = new ArrayList<ByteBuffer>();
             
-        ByteBuffer msg = readMessage(key, readBuffer);
+        ByteBuffer msg = readMessage(key, readBuffer, readBuffers);
         while (msg!=null) {
             result.add(msg);
-            msg = readMessage(key, readBuffer);
+            msg = readMessage(key, readBuffer, readBuffers);
         }
         
         return result;
     }
 
+    /**
+     * Read as much as available on the client connection into its read buffer, passing each complete message
+     * to messageReceived() as a view of the buffer. Between reads a buffer is kept ready for reading, from the
+     * start of the partial message left to the end of the data.
+     * @param key the client connection to read.
+     * @param reactor the selector thread of the connection.
+     * @throws IOException if the client connection is closed.
+     */
+    private void readMessagesInPlace(SelectionKey key, Reactor reactor) throws IOException {
+        ByteBuffer buffer = reactor.readBuffers.get(key);
+        if (buffer == null) {
+            buffer = reactor.takeBuffer();
+            buffer.limit(0);
+        } else {
+            int needed = messageLength.byteLength();
+            int position = buffer.position();
+            long length = readLength(buffer);
+            if (length >= 0) {
+                needed = buffer.position() - position + (int)length;
+                buffer.position(position);
+            }
+            if (needed > buffer.capacity()) {
+                // message longer than the buffer => move it to one of the message size
+                ByteBuffer tmp = ByteBuffer.allocateDirect(needed);
+                tmp.put(buffer);
+                tmp.flip();
+                reactor.releaseBuffer(buffer);
+                buffer = tmp;
+            } else if (buffer.position() + needed > buffer.capacity()) {
+                // the rest would not fit after it => move it to the start
+                buffer.compact();
+                buffer.flip();
+            }
+        }
+        int start = buffer.position();
+        buffer.position(buffer.limit());
+        buffer.limit(buffer.capacity());
+        int bytesRead = ((ReadableByteChannel)key.channel()).read(buffer);
+        buffer.limit(buffer.position());
+        buffer.position(start);
+        if (bytesRead == -1) {
+            throw new IOException("Read on closed key");
+        }
+        while (buffer.hasRemaining()) {
+            int position = buffer.position();
+            long length = readLength(buffer);
+            int bytesToRead = (int)length;
+            if (length < 0 || buffer.remaining() < bytesToRead) {
+                buffer.position(position);
+                break;
+            }
+            ByteBuffer message = buffer.slice();
+            message.limit(bytesToRead);
+            buffer.position(buffer.position() + bytesToRead);
+            messageReceived(message, key);
+            if (!key.isValid()) {
+                // reset by the callback
+                reactor.releaseBuffer(buffer);
+                return;
+            }
+        }
+        if (buffer.hasRemaining()) {
+            reactor.readBuffers.put(key, buffer);
+            if (key.isValid()) {
+                return;
+            }
+            // reset by another thread (a failed write), maybe before the put
+        }
+        reactor.readBuffers.remove(key);
+        reactor.releaseBuffer(buffer);
+    }
+
     /**
      * Read a single message on the client connection and update the read buffer with
      * the current state of any communication with the client.
      * @param key the client connection to read.
      * @param readBuffer the buffer of data received from the client.
+     * @param readBuffers the read buffers of the connections of the key's selector.
      * @return the message read from the client or null if there are no complete messages to read.
+     * @throws IOException if the client sent a bad message length.
      */
-    private ByteBuffer readMessage(SelectionKey key, ByteBuffer readBuffer) {
+    private ByteBuffer readMessage(SelectionKey key, ByteBuffer readBuffer, Map<SelectionKey, ByteBuffer> readBuffers)
+        throws IOException {
         int bytesToRead; 
-        if (readBuffer.remaining()>messageLength.byteLength()) { // must have at least enough bytes to read the size of the message         
-            byte[] lengthBytes = new byte[messageLength.byteLength()];
-            readBuffer.get(lengthBytes);
-            bytesToRead = (int)messageLength.bytesToLength(lengthBytes);
+        int start = readBuffer.position();
+        long length = readLength(readBuffer);
+        if (length>=0) { // must have at least enough bytes to read the size of the message         
+            bytesToRead = (int)length;
             if ((readBuffer.limit()-readBuffer.position())<bytesToRead) { 
                 // Not enough data - prepare for writing again 
                 if (readBuffer.limit()==readBuffer.capacity()) {
                     // message may be longer than buffer => resize buffer to message size
                     int oldCapacity = readBuffer.capacity();
-                    ByteBuffer tmp = ByteBuffer.allocate(bytesToRead+messageLength.byteLength());
+                    ByteBuffer tmp = ByteBuffer.allocate(bytesToRead+readBuffer.position()-start);
                     readBuffer.position(0);
                     tmp.put(readBuffer);
                     readBuffer = tmp;                   
@@ -305,9 +776,24 @@ public abstract class AbstractServer implements Runnable {
         return ByteBuffer.wrap(resultMessage);
     } 
     
+    /**
+     * Read a message length, as MessageLength.readLength(). A bad length only fails the connection that sent it.
+     * @param buffer the data received from the client.
+     * @return the length, or -1 if not all read yet.
+     * @throws IOException if the bytes do not encode a valid length.
+     */
+    private long readLength(ByteBuffer buffer) throws IOException {
+        try {
+            return messageLength.readLength(buffer);
+        } catch (IllegalStateException e) {
+            throw new IOException("Bad message length: "+e.getMessage());
+        }
+    }
+    
     /**
      * Callback method for when the server receives a message from a connected client. The
-     * message passed is a copy, so can be modified at will.
+     * message passed is a copy, so can be modified at will, unless zero copy reads are set: it is then
+     * a view of the read buffer, only valid during the call, with no array(), and must be copied to be kept.
      * 
      * @param message the message received.
      * @param key the key for the client that send the message.
@@ -322,6 +808,15 @@ public abstract class AbstractServer implements Runnable {
      */
     protected abstract void connection(SelectionKey key);
 
+    /**
+     * Callback method for when a client connection stops or starts again being writable - see class 
+     * documentation. Made on the thread whose write() or flush crossed the watermark. Does nothing by default.
+     * @param key the key for the client.
+     * @param writable whether the client is now writable.
+     */
+    protected void writabilityChanged(SelectionKey key, boolean writable) {
+    }
+
     /**
      * Callback method for when the server disconnects an client connection.
      * @param key the key for the disconnected client.
@@ -0,0 +1,72 @@
+package com.fly.practice.nio.nioserver;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Encodes a message length in 4 bytes, thus the maximum message length is 2147483647 bytes.
+ */
+public final class FourByteMessageLength implements MessageLength {
+	
+	private final int NUM_BYTES = 4;
+	private final long MAX_LENGTH = Integer.MAX_VALUE;
+	
+	/**
+	 * @see com.fly.practice.nio.nioserver.MessageLength#byteLength()
+	 */
+	@Override public int byteLength() {
+		return NUM_BYTES;
+	}
+	
+	/**
+	 * @see com.fly.practice.nio.nioserver.MessageLength#maxLength()
+	 */
+	@Override public long maxLength() {
+		return MAX_LENGTH;
+	}
+	
+	/**
+	 * @see com.fly.practice.nio.nioserver.MessageLength#bytesToLength(byte[])
+	 */
+	@Override public long bytesToLength(byte[] bytes) {
+		if (bytes.length!=NUM_BYTES) {
+			throw new IllegalStateException("Wrong number of bytes, must be "+NUM_BYTES);
+		}
+		return checkLength(ByteBuffer.wrap(bytes).getInt());
+	}
+	
+	/**
+	 * @see com.fly.practice.nio.nioserver.MessageLength#lengthToBytes(long)
+	 */
+	@Override public byte[] lengthToBytes(long len) {
+		byte[] bytes = new byte[NUM_BYTES];
+		writeLength(ByteBuffer.wrap(bytes), len);
+		return bytes;
+	}
+	
+	/**
+	 * @see com.fly.practice.nio.nioserver.MessageLength#readLength(java.nio.ByteBuffer)
+	 */
+	@Override public long readLength(ByteBuffer buffer) {
+		if (buffer.remaining()<NUM_BYTES) {
+			return -1;
+		}
+		return checkLength(buffer.getInt());
+	}
+	
+	/**
+	 * @see com.fly.practice.nio.nioserver.MessageLength#writeLength(java.nio.ByteBuffer, long)
+	 */
+	@Override public void writeLength(ByteBuffer buffer, long len) {
+		if (len<0 || len>MAX_LENGTH) {
+			throw new IllegalStateException("Illegal size: less than 0 or greater than "+MAX_LENGTH);
+		}
+		buffer.putInt((int)len);
+	}
+	
+	private long checkLength(int len) {
+		if (len<0) {
+			throw new IllegalStateException("Illegal size: greater than "+MAX_LENGTH);
+		}
+		return len;
+	}
+}
@@ -1,12 +1,16 @@
 package com.fly.practice.nio.nioserver;
 
+import java.nio.ByteBuffer;
+
 /**
- * Provides methods to encode message lengths as byte arrays and convert them back again.
+ * Provides methods to encode message lengths as byte arrays and convert them back again. The
+ * ByteBuffer methods read and write the length in place, so framing a message allocates nothing.
  */
 public interface MessageLength {
 
 	/**
-	 * Returns the number of bytes used to encode the length of a message.
+	 * Returns the number of bytes used to encode the length of a message. For a variable length
+	 * encoding this is the most bytes any length takes.
 	 * @return the number of bytes used to encode the length of a message.
 	 */
 	int byteLength();
@@ -38,4 +42,24 @@ public interface MessageLength {
 	 */
 	byte[] lengthToBytes(long length);
 
-}
\ No newline at end of file
+	/**
+	 * Read a length from the buffer, starting at its position. If the whole length is there the
+	 * position is moved past it, otherwise the position is left unchanged.
+	 * 
+	 * @param buffer the buffer to read from.
+	 * @return the length read, or -1 if the buffer does not hold all of its bytes yet.
+	 * @throws IllegalStateException if the bytes do not encode a valid length.
+	 */
+	long readLength(ByteBuffer buffer);
+
+	/**
+	 * Write a length into the buffer at its position, moving the position past it.
+	 * 
+	 * @param buffer the buffer to write to.
+	 * @param length the length to write.
+	 * @throws IllegalStateException if length is negative or greater than the larger allowable length.
+	 * @throws java.nio.BufferOverflowException if the buffer has no room for the length.
+	 */
+	void writeLength(ByteBuffer buffer, long length);
+
+}
\ No newline at end of file
@@ -1,5 +1,7 @@
 package com.fly.practice.nio.nioserver;
 
+import java.nio.ByteBuffer;
+
 /**
  * Encodes a message length in 2 bytes, thus the maximum message length is 65535 bytes.
  */
@@ -41,4 +43,24 @@ public final class TwoByteMessageLength implements MessageLength {
 		}
 		return new byte[] {(byte)((len >>> 8) & 0xff), (byte)(len & 0xff)};
 	}
+	
+	/**
+	 * @see com.fly.practice.nio.nioserver.MessageLength#readLength(java.nio.ByteBuffer)
+	 */
+	@Override public long readLength(ByteBuffer buffer) {
+		if (buffer.remaining()<NUM_BYTES) {
+			return -1;
+		}
+		return buffer.getShort() & 0xffff;
+	}
+	
+	/**
+	 * @see com.fly.practice.nio.nioserver.MessageLength#writeLength(java.nio.ByteBuffer, long)
+	 */
+	@Override public void writeLength(ByteBuffer buffer, long len) {
+		if (len<0 || len>MAX_LENGTH) {
+			throw new IllegalStateException("Illegal size: less than 0 or greater than "+MAX_LENGTH);
+		}
+		buffer.putShort((short)len);
+	}
 }
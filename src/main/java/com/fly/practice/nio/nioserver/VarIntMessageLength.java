@@ -0,0 +1,105 @@
+package com.fly.practice.nio.nioserver;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Encodes a message length in 1 to 5 bytes, 7 bits to a byte with the least significant bits first.
+ * The top bit of each byte is set if another byte follows. Lengths below 128 take a single byte,
+ * below 16384 two bytes, and the maximum message length is 2147483647 bytes.
+ */
+public final class VarIntMessageLength implements MessageLength {
+	
+	private final int NUM_BYTES = 5;
+	private final long MAX_LENGTH = Integer.MAX_VALUE;
+	
+	/**
+	 * @see com.fly.practice.nio.nioserver.MessageLength#byteLength()
+	 */
+	@Override public int byteLength() {
+		return NUM_BYTES;
+	}
+	
+	/**
+	 * @see com.fly.practice.nio.nioserver.MessageLength#maxLength()
+	 */
+	@Override public long maxLength() {
+		return MAX_LENGTH;
+	}
+	
+	/**
+	 * Convert the given bytes, which must hold exactly one encoded length, to a number.
+	 * 
+	 * @see com.fly.practice.nio.nioserver.MessageLength#bytesToLength(byte[])
+	 */
+	@Override public long bytesToLength(byte[] bytes) {
+		ByteBuffer buffer = ByteBuffer.wrap(bytes);
+		long len = readLength(buffer);
+		if (len<0 || buffer.hasRemaining()) {
+			throw new IllegalStateException("Wrong number of bytes for an encoded length");
+		}
+		return len;
+	}
+	
+	/**
+	 * Convert the given length to as few bytes as encode it, so the size of the array is between
+	 * 1 and byteLength().
+	 * 
+	 * @see com.fly.practice.nio.nioserver.MessageLength#lengthToBytes(long)
+	 */
+	@Override public byte[] lengthToBytes(long len) {
+		ByteBuffer buffer = ByteBuffer.allocate(NUM_BYTES);
+		writeLength(buffer, len);
+		return Arrays.copyOf(buffer.array(), buffer.position());
+	}
+	
+	/**
+	 * @see com.fly.practice.nio.nioserver.MessageLength#readLength(java.nio.ByteBuffer)
+	 */
+	@Override public long readLength(ByteBuffer buffer) {
+		int position = buffer.position();
+		long len = 0;
+		for (int i=0; i<NUM_BYTES; i++) {
+			if (position+i>=buffer.limit()) {
+				return -1;
+			}
+			byte b = buffer.get(position+i);
+			len |= (long)(b & 0x7f) << (7*i);
+			if (b>=0) {
+				if (len>MAX_LENGTH) {
+					throw new IllegalStateException("Illegal size: greater than "+MAX_LENGTH);
+				}
+				buffer.position(position+i+1);
+				return len;
+			}
+		}
+		throw new IllegalStateException("Wrong number of bytes, must be at most "+NUM_BYTES);
+	}
+	
+	/**
+	 * @see com.fly.practice.nio.nioserver.MessageLength#writeLength(java.nio.ByteBuffer, long)
+	 */
+	@Override public void writeLength(ByteBuffer buffer, long len) {
+		if (len<0 || len>MAX_LENGTH) {
+			throw new IllegalStateException("Illegal size: less than 0 or greater than "+MAX_LENGTH);
+		}
+		if (buffer.remaining()<NUM_BYTES && buffer.remaining()<sizeOf(len)) {
+			throw new BufferOverflowException();
+		}
+		while (len>=0x80) {
+			buffer.put((byte)(len | 0x80));
+			len >>>= 7;
+		}
+		buffer.put((byte)len);
+	}
+	
+	private int sizeOf(long len) {
+		int size = 1;
+		while (len>=0x80) {
+			len >>>= 7;
+			size++;
+		}
+		return size;
+	}
+}
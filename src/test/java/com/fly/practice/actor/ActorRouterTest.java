@@ -0,0 +1,154 @@
+package com.fly.practice.actor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+
+import org.junit.Test;
+
+public class ActorRouterTest {
+
+	public static class IdleActor extends AbstractActor {
+		@Override
+		protected void loopBody(Message m) {
+		}
+	}
+
+	private static AbstractActor[] members(int n, int capacity) {
+		AbstractActor[] res = new AbstractActor[n];
+		for (int i = 0; i < n; i++) {
+			res[i] = new IdleActor();
+			res[i].setName("member" + i);
+			res[i].maxMessageCount = capacity;
+		}
+		return res;
+	}
+
+	private static void load(AbstractActor a, int count) {
+		for (int i = 0; i < count; i++) {
+			assertTrue(a.addMessage(new DefaultMessage("load")));
+		}
+	}
+
+	@Test public void testLeastLoaded() {
+		AbstractActor[] ms = members(3, 4);
+		ActorRouter router = new LeastLoadedRouter();
+		router.setMembers(ms);
+		load(ms[0], 2);
+		load(ms[1], 1);
+		load(ms[2], 3);
+		assertSame(router.select(new DefaultMessage("x")), ms[1]);
+		load(ms[1], 3);
+		load(ms[0], 2);
+		assertSame(router.select(new DefaultMessage("x")), ms[2]);
+		load(ms[2], 1);
+		// all full
+		assertNull(router.select(new DefaultMessage("x")));
+	}
+
+	@Test public void testNoMembers() {
+		ActorRouter[] routers = {new LeastLoadedRouter(), new PowerOfTwoRouter(), new RoundRobinRouter(),
+				new ConsistentHashRouter()};
+		for (ActorRouter r : routers) {
+			assertEquals(r.getMembers().length, 0);
+			assertNull(r.select(new DefaultMessage("x")));
+		}
+	}
+
+	@Test public void testPowerOfTwoPrefersLessLoaded() {
+		AbstractActor[] ms = members(3, 10);
+		ActorRouter router = new PowerOfTwoRouter();
+		router.setMembers(ms);
+		load(ms[0], 5);
+		load(ms[1], 5);
+		// whichever two are chosen, the empty one wins when among them
+		int empty = 0;
+		for (int i = 0; i < 300; i++) {
+			AbstractActor a = router.select(new DefaultMessage("x"));
+			if (a == ms[2]) {
+				empty++;
+			} else {
+				assertTrue(a == ms[0] || a == ms[1]);
+			}
+		}
+		// ms[2] is in 2 of the 3 possible pairs
+		assertTrue(empty > 150);
+	}
+
+	@Test public void testPowerOfTwoSkipsFull() {
+		AbstractActor[] ms = members(4, 2);
+		ActorRouter router = new PowerOfTwoRouter();
+		router.setMembers(ms);
+		load(ms[0], 2);
+		load(ms[1], 2);
+		load(ms[2], 2);
+		for (int i = 0; i < 50; i++) {
+			assertSame(router.select(new DefaultMessage("x")), ms[3]);
+		}
+		load(ms[3], 2);
+		assertNull(router.select(new DefaultMessage("x")));
+	}
+
+	@Test public void testRoundRobin() {
+		AbstractActor[] ms = members(3, 2);
+		ActorRouter router = new RoundRobinRouter();
+		router.setMembers(ms);
+		for (int i = 0; i < 6; i++) {
+			assertSame(router.select(new DefaultMessage("x")), ms[i % 3]);
+		}
+		load(ms[1], 2);
+		assertSame(router.select(new DefaultMessage("x")), ms[0]);
+		assertSame(router.select(new DefaultMessage("x")), ms[2]);
+		assertSame(router.select(new DefaultMessage("x")), ms[0]);
+	}
+
+	@Test public void testConsistentHashSticky() {
+		AbstractActor[] ms = members(4, 1);
+		ActorRouter router = new ConsistentHashRouter();
+		router.setMembers(ms);
+		Map<String, AbstractActor> chosen = new HashMap<String, AbstractActor>();
+		for (int k = 0; k < 100; k++) {
+			AbstractActor a = router.select(new DefaultMessage("key" + k));
+			// same subject, same member, whatever the data
+			assertSame(router.select(new DefaultMessage("key" + k, k)), a);
+			assertSame(router.select(new LongMessage("key" + k, k)), a);
+			chosen.put("key" + k, a);
+		}
+		assertEquals(new HashSet<AbstractActor>(chosen.values()).size(), 4);
+		// the chosen member is used even if full
+		load(ms[0], 1);
+		for (Map.Entry<String, AbstractActor> e : chosen.entrySet()) {
+			assertSame(router.select(new DefaultMessage(e.getKey())), e.getValue());
+		}
+	}
+
+	@Test public void testConsistentHashMovesFewKeys() {
+		AbstractActor[] ms = members(5, 1);
+		ConsistentHashRouter router = new ConsistentHashRouter();
+		router.setMembers(ms);
+		Map<String, AbstractActor> before = new HashMap<String, AbstractActor>();
+		for (int k = 0; k < 1000; k++) {
+			before.put("key" + k, router.select(new DefaultMessage("key" + k)));
+		}
+		AbstractActor removed = ms[4];
+		router.setMembers(new AbstractActor[] {ms[0], ms[1], ms[2], ms[3]});
+		int moved = 0;
+		for (Map.Entry<String, AbstractActor> e : before.entrySet()) {
+			AbstractActor a = router.select(new DefaultMessage(e.getKey()));
+			assertNotSame(a, removed);
+			if (e.getValue() != removed) {
+				// only the removed member's keys move
+				assertSame(a, e.getValue());
+			} else {
+				moved++;
+			}
+		}
+		assertTrue(moved > 0 && moved < 500);
+	}
+}
@@ -0,0 +1,126 @@
+package com.fly.practice.actor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.fly.practice.actor.Mailbox.OverflowPolicy;
+
+public class DurableMailboxTest {
+
+	public static class IdleActor extends AbstractActor {
+		@Override
+		protected void loopBody(Message m) {
+		}
+	}
+
+	private File dir;
+
+	private MessageLog log;
+
+	@Before
+	public void open() throws IOException {
+		dir = File.createTempFile("durableMailbox", "");
+		assertTrue(dir.delete());
+		log = new MessageLog(dir, 4096, 0, new MessageCodec());
+	}
+
+	@After
+	public void deleteDir() {
+		log.close();
+		delete(dir);
+	}
+
+	private static void delete(File f) {
+		File[] files = f.listFiles();
+		if (files != null) {
+			for (File x : files) {
+				delete(x);
+			}
+		}
+		f.delete();
+	}
+
+	private DurableMailbox mailbox(OverflowPolicy policy) {
+		LinkedMailbox inner = new LinkedMailbox(2, OverflowPolicy.BACKPRESSURE, 0);
+		return new DurableMailbox(inner, log, policy, 30);
+	}
+
+	@Test public void testBlockRetriesDoNotGrowLog() {
+		DurableMailbox mailbox = mailbox(OverflowPolicy.BLOCK);
+		mailbox.add(new DefaultMessage("a"));
+		mailbox.add(new DefaultMessage("b"));
+		int end = log.current.buffer.position();
+		try {
+			mailbox.add(new DefaultMessage("c"));
+			throw new AssertionError("no IllegalStateException");
+		} catch (IllegalStateException e) {
+			// full for blockMillis
+		}
+		assertEquals(log.current.buffer.position(), end);
+	}
+
+	@Test public void testDropOldestAcknowledges() throws IOException {
+		DurableMailbox mailbox = mailbox(OverflowPolicy.DROP_OLDEST);
+		mailbox.add(new DefaultMessage("a"));
+		mailbox.add(new DefaultMessage("b"));
+		mailbox.add(new DefaultMessage("c"));
+		assertEquals(mailbox.size(), 2);
+		assertEquals(mailbox.getDroppedCount(), 1);
+		log.close();
+		log = new MessageLog(dir, 4096, 0, new MessageCodec());
+		DurableMailbox reopened = mailbox(OverflowPolicy.DROP_OLDEST);
+		assertEquals(reopened.replay(), 2);
+		DefaultMessage[] pending = reopened.toArray();
+		assertEquals(pending[0].getSubject(), "b");
+		assertEquals(pending[1].getSubject(), "c");
+	}
+
+	@Test public void testLogClosedOnDetachNotOnReplace() {
+		DefaultActorManager manager = new DefaultActorManager();
+		Map<String, Object> options = new HashMap<String, Object>();
+		options.put(DefaultActorManager.ACTOR_THREAD_COUNT, 1);
+		manager.initialize(options);
+		try {
+			Map<String, Object> actorOptions = new HashMap<String, Object>();
+			actorOptions.put(AbstractActor.DURABLE, dir.getPath());
+			actorOptions.put(AbstractActor.DURABLE_SYNC_MILLIS, 0);
+			AbstractActor a = (AbstractActor) manager.createActor(IdleActor.class, "detached", actorOptions);
+			manager.startActor(a);
+			MessageLog alog = ((DurableMailbox) a.getMailbox()).getLog();
+			AbstractActor b = (AbstractActor) manager.restartActor(a);
+			assertSame(b.getMailbox(), a.getMailbox());
+			assertFalse(alog.isClosed());
+			manager.detachActor(b);
+			assertTrue(alog.isClosed());
+			assertEquals(alog.getSegmentCount(), 0);
+			AbstractActor c = (AbstractActor) manager.createActor(IdleActor.class, "terminated", actorOptions);
+			manager.startActor(c);
+			MessageLog clog = ((DurableMailbox) c.getMailbox()).getLog();
+			manager.terminate();
+			assertTrue(clog.isClosed());
+		} finally {
+			manager.terminate();
+		}
+	}
+
+	@Test(expected=IllegalStateException.class) public void testAddAfterClose() {
+		DurableMailbox mailbox = mailbox(OverflowPolicy.FAIL);
+		DefaultMessage m = new DefaultMessage("a");
+		mailbox.add(m);
+		log.close();
+		// the ACK is dropped; the message stays for the next run
+		log.acknowledge(m);
+		mailbox.add(new DefaultMessage("b"));
+	}
+}
@@ -0,0 +1,91 @@
+package com.fly.practice.actor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.regex.Pattern;
+
+import org.junit.Test;
+
+public class LinkedMailboxTest {
+
+	private final LinkedMailbox mailbox = new LinkedMailbox(10);
+
+	private final DefaultMessage a1 = new DefaultMessage("a", 1);
+	private final DefaultMessage b1 = new DefaultMessage("b", 1);
+	private final DefaultMessage a2 = new DefaultMessage("a", 2);
+	private final DefaultMessage c1 = new DefaultMessage("c", 1);
+	private final DefaultMessage b2 = new DefaultMessage("b", 2);
+
+	private void addAll() {
+		for (DefaultMessage m : new DefaultMessage[] {a1, b1, a2, c1, b2}) {
+			assertTrue(mailbox.add(m));
+		}
+	}
+
+	private static long now() {
+		return System.currentTimeMillis();
+	}
+
+	@Test public void testPeekAny() {
+		addAll();
+		assertSame(mailbox.peek(null, null, now()), a1);
+		assertEquals(mailbox.size(), 5);
+	}
+
+	@Test public void testPeekBySubject() {
+		addAll();
+		assertSame(mailbox.peek("b", null, now()), b1);
+		assertTrue(mailbox.remove(b1));
+		assertSame(mailbox.peek("b", null, now()), b2);
+		assertTrue(mailbox.remove(b2));
+		assertNull(mailbox.peek("b", null, now()));
+		assertSame(mailbox.peek("c", null, now()), c1);
+		assertNull(mailbox.peek("none", null, now()));
+	}
+
+	@Test public void testPeekByPattern() {
+		addAll();
+		Pattern bc = Pattern.compile("[bc]");
+		// the oldest match across subjects
+		assertSame(mailbox.peek(null, bc, now()), b1);
+		assertTrue(mailbox.remove(b1));
+		assertSame(mailbox.peek(null, bc, now()), c1);
+		assertTrue(mailbox.remove(c1));
+		assertSame(mailbox.peek(null, bc, now()), b2);
+		assertTrue(mailbox.remove(b2));
+		assertNull(mailbox.peek(null, bc, now()));
+		assertSame(mailbox.peek(null, Pattern.compile("a"), now()), a1);
+	}
+
+	@Test public void testPeekSkipsDelayed() {
+		addAll();
+		a1.setDelayUntil(now() + 60000);
+		assertSame(mailbox.peek("a", null, now()), a2);
+		assertSame(mailbox.peek(null, Pattern.compile("a|c"), now()), a2);
+		assertSame(mailbox.peek(null, null, now()), b1);
+		assertEquals(mailbox.getNextDelayUntil(), a1.getDelayUntil());
+	}
+
+	@Test public void testRemoveKeepsOrder() {
+		addAll();
+		assertTrue(mailbox.remove(a2));
+		assertFalse(mailbox.remove(a2));
+		assertEquals(mailbox.size(), 4);
+		DefaultMessage[] pending = mailbox.toArray();
+		assertSame(pending[0], a1);
+		assertSame(pending[1], b1);
+		assertSame(pending[2], c1);
+		assertSame(pending[3], b2);
+		assertSame(mailbox.poll(), a1);
+		assertNull(mailbox.peek("a", null, now()));
+	}
+
+	@Test(expected=IllegalArgumentException.class) public void testAddTwice() {
+		mailbox.add(a1);
+		mailbox.add(a1);
+	}
+}
@@ -0,0 +1,144 @@
+package com.fly.practice.actor;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+
+import org.junit.Test;
+
+public class MessageCodecTest {
+
+	private static final long[] EDGES = {0, 1, -1, 63, -64, 64, -65, 127, 128, Integer.MAX_VALUE, Integer.MIN_VALUE,
+			Long.MAX_VALUE, Long.MIN_VALUE, Long.MAX_VALUE - 1, Long.MIN_VALUE + 1};
+
+	private final MessageCodec codec = new MessageCodec();
+
+	private final ByteBuffer buffer = ByteBuffer.allocate(4096);
+
+	private DefaultMessage roundTrip(DefaultMessage m) {
+		buffer.clear();
+		codec.encode(m, buffer);
+		buffer.flip();
+		DefaultMessage res = codec.decode(buffer);
+		assertEquals(buffer.remaining(), 0);
+		return res;
+	}
+
+	@Test public void testVarLongEdges() {
+		for (long v : EDGES) {
+			buffer.clear();
+			MessageCodec.writeVarLong(buffer, v);
+			int length = buffer.position();
+			buffer.flip();
+			assertEquals(MessageCodec.readVarLong(buffer), v);
+			// 7 bits a byte; negative values take all 10
+			assertEquals(length, v < 0 ? 10 : Math.max(1, (64 - Long.numberOfLeadingZeros(v) + 6) / 7));
+		}
+	}
+
+	@Test public void testZigZagEdges() {
+		for (long v : EDGES) {
+			assertEquals(MessageCodec.unZigZag(MessageCodec.zigZag(v)), v);
+		}
+		assertEquals(MessageCodec.zigZag(0), 0);
+		assertEquals(MessageCodec.zigZag(-1), 1);
+		assertEquals(MessageCodec.zigZag(1), 2);
+		assertEquals(MessageCodec.zigZag(-64), 127);
+		assertEquals(MessageCodec.zigZag(Long.MAX_VALUE), -2);
+		assertEquals(MessageCodec.zigZag(Long.MIN_VALUE), -1);
+	}
+
+	@Test public void testDataTypes() {
+		Object[] data = {"x", "", 0, -5, Integer.MIN_VALUE, Integer.MAX_VALUE, Long.MIN_VALUE, Long.MAX_VALUE, 2.5,
+				Double.NaN, true, false, new byte[] {1, -2}, new byte[0], null, new Object[] {7, new Object[0]}};
+		Object[] res = (Object[]) roundTrip(new DefaultMessage("sé", data)).getData();
+		assertEquals(res.length, data.length);
+		for (int i = 0; i < data.length; i++) {
+			if (data[i] instanceof byte[]) {
+				assertArrayEquals((byte[]) res[i], (byte[]) data[i]);
+			} else if (data[i] instanceof Object[]) {
+				Object[] xres = (Object[]) res[i];
+				assertEquals(xres[0], 7);
+				assertEquals(((Object[]) xres[1]).length, 0);
+			} else {
+				assertEquals(res[i], data[i]);
+			}
+		}
+	}
+
+	@Test public void testSubjectPriorityAndDelay() {
+		DefaultMessage m = new DefaultMessage("sé中", null);
+		m.setPriority(DefaultMessage.PRIORITY_HIGH);
+		long delay = 60000;
+		m.setDelayUntil(System.currentTimeMillis() + delay);
+		DefaultMessage res = roundTrip(m);
+		assertEquals(res.getSubject(), m.getSubject());
+		assertEquals(res.getPriority(), DefaultMessage.PRIORITY_HIGH);
+		assertNull(res.getData());
+		long remaining = res.getDelayUntil() - System.currentTimeMillis();
+		assertTrue(remaining > delay - 1000 && remaining <= delay);
+		DefaultMessage plain = roundTrip(new DefaultMessage(null));
+		assertNull(plain.getSubject());
+		assertEquals(plain.getPriority(), DefaultMessage.PRIORITY_NORMAL);
+		assertEquals(plain.getDelayUntil(), -1);
+	}
+
+	@Test public void testShortDelay() {
+		buffer.put((byte) (MessageCodec.FLAG_DELAYED | DefaultMessage.PRIORITY_NORMAL << MessageCodec.PRIORITY_SHIFT));
+		MessageCodec.writeString(buffer, "d");
+		MessageCodec.writeVarLong(buffer, 1);
+		buffer.put(MessageCodec.TYPE_NULL);
+		buffer.flip();
+		// decode across several clock ticks
+		for (long end = System.currentTimeMillis() + 20; System.currentTimeMillis() < end;) {
+			long now = System.currentTimeMillis();
+			DefaultMessage res = codec.decode(buffer);
+			assertTrue(res.getDelayUntil() > now);
+			buffer.rewind();
+		}
+	}
+
+	@Test public void testTypedMessages() {
+		for (long v : EDGES) {
+			DefaultMessage res = roundTrip(new LongMessage("l", v));
+			assertEquals(res.getClass(), LongMessage.class);
+			assertEquals(((LongMessage) res).getLong(), v);
+		}
+		DefaultMessage d = roundTrip(new DoubleMessage("d", -0.0));
+		assertEquals(d.getClass(), DoubleMessage.class);
+		assertEquals(Double.doubleToRawLongBits(((DoubleMessage) d).getDouble()), Double.doubleToRawLongBits(-0.0));
+		DefaultMessage b = roundTrip(new BytesMessage("b", new byte[] {9, -9}));
+		assertEquals(b.getClass(), BytesMessage.class);
+		assertArrayEquals(((BytesMessage) b).getBytes(), new byte[] {9, -9});
+	}
+
+	@Test public void testSeveralInOneBuffer() {
+		codec.encode(new LongMessage("a", 1), buffer);
+		codec.encode(new DefaultMessage("b", "two"), buffer);
+		buffer.flip();
+		assertEquals(((LongMessage) codec.decode(buffer)).getLong(), 1);
+		assertEquals(codec.decode(buffer).getData(), "two");
+		assertEquals(buffer.remaining(), 0);
+	}
+
+	@Test(expected=BufferOverflowException.class) public void testOverflow() {
+		codec.encode(new BytesMessage("b", new byte[100]), ByteBuffer.allocate(50));
+	}
+
+	@Test(expected=IllegalArgumentException.class) public void testUnknownType() {
+		codec.encode(new DefaultMessage("x", new StringBuilder()), buffer);
+	}
+
+	@Test(expected=IllegalArgumentException.class) public void testBadLength() {
+		buffer.put((byte) 0);
+		// a string longer than the buffer
+		MessageCodec.writeVarLong(buffer, 1000);
+		buffer.flip();
+		buffer.get();
+		MessageCodec.readString(buffer);
+	}
+}
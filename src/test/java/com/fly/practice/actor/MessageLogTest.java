@@ -0,0 +1,128 @@
+package com.fly.practice.actor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class MessageLogTest {
+
+	private File dir;
+
+	private MessageLog log;
+
+	@Before
+	public void createDir() throws IOException {
+		dir = File.createTempFile("messageLog", "");
+		assertTrue(dir.delete());
+	}
+
+	@After
+	public void deleteDir() {
+		if (log != null) {
+			log.close();
+		}
+		File[] files = dir.listFiles();
+		if (files != null) {
+			for (File f : files) {
+				f.delete();
+			}
+		}
+		dir.delete();
+	}
+
+	private MessageLog open(int segmentSize) throws IOException {
+		if (log != null) {
+			log.close();
+		}
+		log = new MessageLog(dir, segmentSize, 0, new MessageCodec());
+		return log;
+	}
+
+	@Test public void testRecoverAfterReopen() throws IOException {
+		open(4096);
+		assertEquals(log.recover().size(), 0);
+		DefaultMessage[] ms = new DefaultMessage[4];
+		for (int i = 0; i < ms.length; i++) {
+			ms[i] = new DefaultMessage("m" + i, i);
+			log.append(ms[i]);
+			assertTrue(ms[i].logId > 0);
+		}
+		log.acknowledge(ms[1]);
+		assertEquals(ms[1].logId, 0);
+		// a second acknowledge does nothing
+		log.acknowledge(ms[1]);
+		log.acknowledge(ms[3]);
+		log.sync();
+		open(4096);
+		List<DefaultMessage> recovered = log.recover();
+		assertEquals(recovered.size(), 2);
+		assertEquals(recovered.get(0).getSubject(), "m0");
+		assertEquals(recovered.get(0).getData(), 0);
+		assertEquals(recovered.get(1).getSubject(), "m2");
+		assertEquals(recovered.get(1).getData(), 2);
+		// only the first call returns them
+		assertEquals(log.recover().size(), 0);
+		// recovered messages keep their records until acknowledged
+		log.acknowledge(recovered.get(0));
+		open(4096);
+		recovered = log.recover();
+		assertEquals(recovered.size(), 1);
+		assertEquals(recovered.get(0).getSubject(), "m2");
+	}
+
+	@Test public void testNewIdsAfterReopen() throws IOException {
+		open(4096);
+		DefaultMessage m = new DefaultMessage("m");
+		log.append(m);
+		long id = m.logId;
+		open(4096);
+		DefaultMessage later = new DefaultMessage("later");
+		log.append(later);
+		assertTrue(later.logId > id);
+		// acknowledging the new message must not acknowledge the old one
+		log.acknowledge(later);
+		open(4096);
+		List<DefaultMessage> recovered = log.recover();
+		assertEquals(recovered.size(), 1);
+		assertEquals(recovered.get(0).getSubject(), "m");
+	}
+
+	@Test public void testSegmentTrimming() throws IOException {
+		open(256);
+		DefaultMessage[] ms = new DefaultMessage[40];
+		for (int i = 0; i < ms.length; i++) {
+			ms[i] = new DefaultMessage("message" + i, "data" + i);
+			log.append(ms[i]);
+		}
+		int segments = log.getSegmentCount();
+		assertTrue(segments > 3);
+		// the oldest segment is still live, so none is deleted; ACK records
+		// take room of their own
+		for (int i = 1; i < ms.length; i++) {
+			log.acknowledge(ms[i]);
+		}
+		assertTrue(log.getSegmentCount() > segments);
+		open(256);
+		List<DefaultMessage> recovered = log.recover();
+		assertEquals(recovered.size(), 1);
+		assertEquals(recovered.get(0).getSubject(), "message0");
+		log.acknowledge(recovered.get(0));
+		// all but the current segment are deleted
+		assertEquals(log.getSegmentCount(), 1);
+		assertEquals(dir.listFiles().length, 1);
+		open(256);
+		assertEquals(log.recover().size(), 0);
+	}
+
+	@Test(expected=IllegalArgumentException.class) public void testMessageLargerThanSegment() throws IOException {
+		open(64);
+		log.append(new DefaultMessage("big", new byte[100]));
+	}
+}
@@ -0,0 +1,127 @@
+package com.fly.practice.actor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+
+public class MessagePoolTest {
+
+	private static MessagePool<DefaultMessage> pool(int maxPooled, int cacheSize) {
+		return new MessagePool<DefaultMessage>(maxPooled, cacheSize) {
+			@Override
+			protected DefaultMessage create() {
+				return new DefaultMessage();
+			}
+		};
+	}
+
+	private static void recycleOn(final List<DefaultMessage> messages) throws InterruptedException {
+		Thread t = new Thread() {
+			@Override
+			public void run() {
+				for (DefaultMessage m : messages) {
+					m.recycle();
+				}
+			}
+		};
+		t.start();
+		t.join();
+	}
+
+	@Test public void testSameThread() {
+		MessagePool<DefaultMessage> pool = pool(8, 4);
+		DefaultMessage m = pool.obtain();
+		assertTrue(m.isRecyclable());
+		m.subject = "m";
+		m.recycle();
+		// a second recycle is ignored
+		m.recycle();
+		DefaultMessage res = pool.obtain();
+		assertSame(res, m);
+		assertNull(res.getSubject());
+		assertFalse(pool.obtain() == m);
+		assertEquals(pool.getSharedCount(), 0);
+	}
+
+	@Test public void testRecycledOnAnotherThread() throws Exception {
+		MessagePool<DefaultMessage> pool = pool(8, 4);
+		List<DefaultMessage> sent = new ArrayList<DefaultMessage>();
+		for (int i = 0; i < 8; i++) {
+			sent.add(pool.obtain());
+		}
+		recycleOn(sent);
+		// the recycling thread keeps a full cache and hands the rest over
+		assertEquals(pool.getSharedCount(), 4);
+		Set<DefaultMessage> reused = Collections.newSetFromMap(new IdentityHashMap<DefaultMessage, Boolean>());
+		for (int i = 0; i < 4; i++) {
+			DefaultMessage m = pool.obtain();
+			assertTrue(sent.contains(m));
+			assertTrue(reused.add(m));
+		}
+		assertEquals(pool.getSharedCount(), 0);
+		assertFalse(sent.contains(pool.obtain()));
+	}
+
+	@Test public void testMaxPooled() throws Exception {
+		MessagePool<DefaultMessage> pool = pool(2, 2);
+		List<DefaultMessage> sent = new ArrayList<DefaultMessage>();
+		for (int i = 0; i < 20; i++) {
+			sent.add(pool.obtain());
+		}
+		recycleOn(sent);
+		assertEquals(pool.getSharedCount(), 2);
+	}
+
+	@Test public void testProducerConsumer() throws Exception {
+		// room for all the queue holds, so none is dropped for lack of room
+		final MessagePool<DefaultMessage> pool = pool(128, 8);
+		final BlockingQueue<DefaultMessage> queue = new ArrayBlockingQueue<DefaultMessage>(64);
+		final int count = 100000;
+		final AtomicReference<String> error = new AtomicReference<String>();
+		Thread consumer = new Thread() {
+			@Override
+			public void run() {
+				try {
+					for (int i = 0; i < count; i++) {
+						DefaultMessage m = queue.take();
+						// a message handed out again while queued would be overwritten
+						if (!Integer.valueOf(i).equals(m.getData())) {
+							error.set("expected " + i + " got " + m.getData());
+							return;
+						}
+						m.recycle();
+					}
+				} catch (InterruptedException e) {
+					error.set("interrupted");
+				}
+			}
+		};
+		consumer.start();
+		Set<DefaultMessage> created = Collections.newSetFromMap(new IdentityHashMap<DefaultMessage, Boolean>());
+		for (int i = 0; i < count; i++) {
+			DefaultMessage m = pool.obtain();
+			created.add(m);
+			m.data = i;
+			assertTrue(queue.offer(m, 10, TimeUnit.SECONDS));
+		}
+		consumer.join(10000);
+		assertNull(error.get());
+		assertFalse(consumer.isAlive());
+		// most messages come back through the shared stock
+		assertTrue(created.size() < 1000);
+	}
+}
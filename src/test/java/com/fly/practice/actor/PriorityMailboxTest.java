@@ -0,0 +1,64 @@
+package com.fly.practice.actor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import com.fly.practice.actor.Mailbox.OverflowPolicy;
+
+public class PriorityMailboxTest {
+
+	private static PriorityMailbox mailbox(int capacity) {
+		AbstractMailbox[] lanes = new AbstractMailbox[DefaultMessage.PRIORITY_HIGH + 1];
+		for (int i = 0; i < lanes.length; i++) {
+			lanes[i] = new LinkedMailbox(capacity, OverflowPolicy.BACKPRESSURE, 0);
+		}
+		return new PriorityMailbox(lanes, capacity, OverflowPolicy.FAIL, 0);
+	}
+
+	private static DefaultMessage message(String subject, int priority) {
+		DefaultMessage res = new DefaultMessage(subject);
+		res.setPriority(priority);
+		return res;
+	}
+
+	@Test public void testHighestLaneFirst() {
+		PriorityMailbox mailbox = mailbox(10);
+		DefaultMessage low = message("low", DefaultMessage.PRIORITY_LOW);
+		DefaultMessage normal = message("normal", DefaultMessage.PRIORITY_NORMAL);
+		DefaultMessage high = message("high", DefaultMessage.PRIORITY_HIGH);
+		mailbox.add(low);
+		mailbox.add(normal);
+		mailbox.add(high);
+		assertEquals(mailbox.size(), 3);
+		long now = System.currentTimeMillis();
+		assertSame(mailbox.peek(null, null, now), high);
+		assertSame(mailbox.peek("low", null, now), low);
+		DefaultMessage[] pending = mailbox.toArray();
+		assertSame(pending[0], high);
+		assertSame(pending[2], low);
+	}
+
+	@Test public void testRemoveAfterPriorityChange() {
+		PriorityMailbox mailbox = mailbox(10);
+		DefaultMessage m = message("m", DefaultMessage.PRIORITY_LOW);
+		mailbox.add(m);
+		m.setPriority(DefaultMessage.PRIORITY_HIGH);
+		assertTrue(mailbox.remove(m));
+		assertEquals(mailbox.size(), 0);
+		assertNull(mailbox.peek(null, null, System.currentTimeMillis()));
+		assertFalse(mailbox.remove(m));
+		assertEquals(mailbox.size(), 0);
+	}
+
+	@Test(expected=IllegalStateException.class) public void testSharedCapacity() {
+		PriorityMailbox mailbox = mailbox(2);
+		mailbox.add(message("a", DefaultMessage.PRIORITY_LOW));
+		mailbox.add(message("b", DefaultMessage.PRIORITY_HIGH));
+		mailbox.add(message("c", DefaultMessage.PRIORITY_NORMAL));
+	}
+}
@@ -0,0 +1,237 @@
+package com.fly.practice.actor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ReplaceActorTest {
+
+	/** Instances of the actor in loopBody(); more than 1 is an overlap. */
+	static final AtomicInteger active = new AtomicInteger();
+
+	static final AtomicInteger overlaps = new AtomicInteger();
+
+	/** "class:data" of each message processed, in order. */
+	static final List<String> processed = new CopyOnWriteArrayList<String>();
+
+	static volatile CountDownLatch entered, release;
+
+	/** Set to make the next Slow constructor wait for it. */
+	static volatile CountDownLatch constructing;
+
+	/** Records its messages; a "block" message waits for release. */
+	public static class Worker extends AbstractActor {
+		@Override
+		protected void runBody() {
+		}
+
+		@Override
+		protected void loopBody(Message m) {
+			if (active.incrementAndGet() != 1) {
+				overlaps.incrementAndGet();
+			}
+			try {
+				if ("block".equals(m.getSubject())) {
+					entered.countDown();
+					await(release);
+				}
+				processed.add(getClass().getSimpleName() + ":" + m.getData());
+			} finally {
+				active.decrementAndGet();
+			}
+		}
+	}
+
+	public static class Worker2 extends Worker {
+	}
+
+	public static class Slow extends Worker {
+		public Slow() {
+			CountDownLatch xconstructing = constructing;
+			if (xconstructing != null) {
+				constructing = null;
+				xconstructing.countDown();
+				await(release);
+			}
+		}
+	}
+
+	/** Holds a manager thread while its "block" message waits for release. */
+	public static class Blocker extends Worker {
+		@Override
+		protected void loopBody(Message m) {
+			entered.countDown();
+			await(release);
+		}
+	}
+
+	static void await(CountDownLatch latch) {
+		try {
+			latch.await(5000, TimeUnit.MILLISECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private DefaultActorManager manager;
+
+	@Before
+	public void reset() {
+		active.set(0);
+		overlaps.set(0);
+		processed.clear();
+		entered = new CountDownLatch(1);
+		release = new CountDownLatch(1);
+		constructing = null;
+	}
+
+	@After
+	public void tearDown() {
+		release.countDown();
+		if (manager != null) {
+			manager.terminateAndWait();
+		}
+	}
+
+	private AbstractActor start(String scheduler, int threads, Class<? extends Actor> clazz, String name) {
+		if (manager == null) {
+			manager = new DefaultActorManager();
+			Map<String, Object> options = new HashMap<String, Object>();
+			options.put(DefaultActorManager.ACTOR_THREAD_COUNT, threads);
+			options.put(DefaultActorManager.ACTOR_SCHEDULER, scheduler);
+			manager.initialize(options);
+		}
+		AbstractActor res = (AbstractActor) manager.createActor(clazz, name);
+		manager.startActor(res);
+		return res;
+	}
+
+	private void send(AbstractActor to, int from, int count) {
+		for (int i = from; i < from + count; i++) {
+			assertEquals(manager.send(new DefaultMessage("work", i), null, to), 1);
+		}
+	}
+
+	private static void awaitProcessed(int count) throws InterruptedException {
+		long end = System.currentTimeMillis() + 5000;
+		while (processed.size() < count && System.currentTimeMillis() < end) {
+			Thread.sleep(5);
+		}
+		assertEquals(processed.size(), count);
+	}
+
+	/** Each of count messages was processed once and in order, the last by a Worker2. */
+	private static void checkProcessed(int count) {
+		assertEquals(processed.size(), count);
+		for (int i = 0; i < count; i++) {
+			String p = processed.get(i);
+			assertEquals(p.substring(p.indexOf(':') + 1), String.valueOf(i));
+		}
+		assertTrue(processed.get(count - 1).startsWith("Worker2:"));
+		assertEquals(overlaps.get(), 0);
+	}
+
+	private void checkIdle(String scheduler) throws Exception {
+		AbstractActor a = start(scheduler, 2, Worker.class, "w");
+		send(a, 0, 10);
+		awaitProcessed(10);
+		AbstractActor b = (AbstractActor) manager.replaceActor(a, Worker2.class, null);
+		assertSame(a.getReplacement(), b);
+		// sends to the replaced actor go to its replacement
+		send(a, 10, 5);
+		send(b, 15, 5);
+		awaitProcessed(20);
+		checkProcessed(20);
+		assertTrue(processed.get(10).startsWith("Worker2:"));
+	}
+
+	private void checkQueued(String scheduler) throws Exception {
+		// one thread, held by another actor, so w's messages stay queued
+		AbstractActor blocker = start(scheduler, 1, Blocker.class, "blocker");
+		AbstractActor a = start(scheduler, 1, Worker.class, "w");
+		manager.send(new DefaultMessage("block"), null, blocker);
+		assertTrue(entered.await(1000, TimeUnit.MILLISECONDS));
+		send(a, 0, 100);
+		AbstractActor b = (AbstractActor) manager.replaceActor(a, Worker2.class, null);
+		assertEquals(b.getMailbox().size(), 100);
+		release.countDown();
+		awaitProcessed(100);
+		checkProcessed(100);
+		assertTrue(processed.get(0).startsWith("Worker2:"));
+	}
+
+	private void checkRunning(String scheduler) throws Exception {
+		AbstractActor a = start(scheduler, 2, Worker.class, "w");
+		manager.send(new DefaultMessage("block", 0), null, a);
+		assertTrue(entered.await(1000, TimeUnit.MILLISECONDS));
+		send(a, 1, 100);
+		manager.replaceActor(a, Worker2.class, null);
+		// the other thread must not run the replacement meanwhile
+		Thread.sleep(50);
+		assertEquals(processed.size(), 0);
+		release.countDown();
+		awaitProcessed(101);
+		checkProcessed(101);
+		assertTrue(processed.get(0).startsWith("Worker:"));
+	}
+
+	@Test public void testReplaceIdle() throws Exception {
+		checkIdle(DefaultActorManager.SCHEDULER_DEFAULT);
+	}
+
+	@Test public void testReplaceIdleQueueScheduler() throws Exception {
+		checkIdle(DefaultActorManager.SCHEDULER_QUEUE);
+	}
+
+	@Test public void testReplaceQueued() throws Exception {
+		checkQueued(DefaultActorManager.SCHEDULER_DEFAULT);
+	}
+
+	@Test public void testReplaceQueuedQueueScheduler() throws Exception {
+		checkQueued(DefaultActorManager.SCHEDULER_QUEUE);
+	}
+
+	@Test public void testReplaceRunning() throws Exception {
+		checkRunning(DefaultActorManager.SCHEDULER_DEFAULT);
+	}
+
+	@Test public void testReplaceRunningQueueScheduler() throws Exception {
+		checkRunning(DefaultActorManager.SCHEDULER_QUEUE);
+	}
+
+	@Test public void testSlowConstructorOutsideLock() throws Exception {
+		final AbstractActor a = start(DefaultActorManager.SCHEDULER_DEFAULT, 2, Worker.class, "w");
+		CountDownLatch xconstructing = new CountDownLatch(1);
+		constructing = xconstructing;
+		final AtomicReference<Actor> replaced = new AtomicReference<Actor>();
+		Thread t = new Thread() {
+			@Override
+			public void run() {
+				replaced.set(manager.replaceActor(a, Slow.class, null));
+			}
+		};
+		t.start();
+		assertTrue(xconstructing.await(1000, TimeUnit.MILLISECONDS));
+		// the registry is not held while the constructor waits
+		AbstractActor other = start(DefaultActorManager.SCHEDULER_DEFAULT, 2, Worker.class, "other");
+		manager.detachActor(other);
+		assertTrue(t.isAlive());
+		release.countDown();
+		t.join(1000);
+		assertSame(a.getReplacement(), replaced.get());
+		assertEquals(replaced.get().getClass(), Slow.class);
+	}
+}
@@ -0,0 +1,153 @@
+package com.fly.practice.actor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import com.fly.practice.actor.Mailbox.OverflowPolicy;
+
+public class RingBufferMailboxTest {
+
+	private static DefaultMessage[] messages(int n) {
+		DefaultMessage[] res = new DefaultMessage[n];
+		for (int i = 0; i < n; i++) {
+			res[i] = new DefaultMessage("m" + i, i);
+		}
+		return res;
+	}
+
+	private static RingBufferMailbox fill(OverflowPolicy policy, DefaultMessage[] ms) {
+		RingBufferMailbox res = new RingBufferMailbox(4, policy, 50);
+		for (int i = 0; i < 4; i++) {
+			assertTrue(res.add(ms[i]));
+		}
+		return res;
+	}
+
+	@Test public void testCapacityPowerOfTwo() {
+		assertEquals(new RingBufferMailbox(5).capacity(), 8);
+		assertEquals(new RingBufferMailbox(8).capacity(), 8);
+	}
+
+	@Test public void testFifo() {
+		DefaultMessage[] ms = messages(4);
+		RingBufferMailbox mailbox = fill(OverflowPolicy.FAIL, ms);
+		assertEquals(mailbox.size(), 4);
+		assertTrue(mailbox.isFull());
+		for (int i = 0; i < 4; i++) {
+			assertSame(mailbox.poll(), ms[i]);
+		}
+		assertNull(mailbox.poll());
+		assertEquals(mailbox.size(), 0);
+	}
+
+	@Test(expected=IllegalStateException.class) public void testFail() {
+		DefaultMessage[] ms = messages(5);
+		fill(OverflowPolicy.FAIL, ms).add(ms[4]);
+	}
+
+	@Test public void testBlockTimesOut() {
+		DefaultMessage[] ms = messages(5);
+		RingBufferMailbox mailbox = fill(OverflowPolicy.BLOCK, ms);
+		long start = System.currentTimeMillis();
+		try {
+			mailbox.add(ms[4]);
+			throw new AssertionError("no IllegalStateException");
+		} catch (IllegalStateException e) {
+			assertTrue(System.currentTimeMillis() - start >= 40);
+		}
+		assertEquals(mailbox.size(), 4);
+	}
+
+	@Test public void testBlockWaitsForRoom() throws Exception {
+		DefaultMessage[] ms = messages(5);
+		final RingBufferMailbox mailbox = new RingBufferMailbox(4, OverflowPolicy.BLOCK, 5000);
+		for (int i = 0; i < 4; i++) {
+			mailbox.add(ms[i]);
+		}
+		final CountDownLatch polled = new CountDownLatch(1);
+		new Thread() {
+			@Override
+			public void run() {
+				try {
+					Thread.sleep(20);
+				} catch (InterruptedException e) {
+				}
+				mailbox.poll();
+				polled.countDown();
+			}
+		}.start();
+		assertTrue(mailbox.add(ms[4]));
+		assertTrue(polled.await(1000, TimeUnit.MILLISECONDS));
+		assertSame(mailbox.toArray()[3], ms[4]);
+	}
+
+	@Test public void testDropOldest() {
+		DefaultMessage[] ms = messages(6);
+		RingBufferMailbox mailbox = fill(OverflowPolicy.DROP_OLDEST, ms);
+		assertTrue(mailbox.add(ms[4]));
+		assertTrue(mailbox.add(ms[5]));
+		assertEquals(mailbox.getDroppedCount(), 2);
+		DefaultMessage[] pending = mailbox.toArray();
+		assertEquals(pending.length, 4);
+		assertSame(pending[0], ms[2]);
+		assertSame(pending[3], ms[5]);
+	}
+
+	@Test public void testDropNewest() {
+		DefaultMessage[] ms = messages(5);
+		RingBufferMailbox mailbox = fill(OverflowPolicy.DROP_NEWEST, ms);
+		assertTrue(mailbox.add(ms[4]));
+		assertEquals(mailbox.getDroppedCount(), 1);
+		assertEquals(mailbox.size(), 4);
+		assertSame(mailbox.toArray()[3], ms[3]);
+	}
+
+	@Test public void testBackpressure() {
+		DefaultMessage[] ms = messages(5);
+		RingBufferMailbox mailbox = fill(OverflowPolicy.BACKPRESSURE, ms);
+		assertFalse(mailbox.add(ms[4]));
+		assertEquals(mailbox.getDroppedCount(), 0);
+		assertEquals(mailbox.size(), 4);
+	}
+
+	@Test public void testPeekSkipsUnmatched() {
+		DefaultMessage[] ms = messages(4);
+		RingBufferMailbox mailbox = fill(OverflowPolicy.FAIL, ms);
+		assertSame(mailbox.peek("m2", null, System.currentTimeMillis()), ms[2]);
+		assertNull(mailbox.peek("none", null, System.currentTimeMillis()));
+	}
+
+	@Test public void testTombstoneHoldsCapacity() {
+		DefaultMessage[] ms = messages(5);
+		RingBufferMailbox mailbox = fill(OverflowPolicy.FAIL, ms);
+		assertTrue(mailbox.remove(ms[1]));
+		assertEquals(mailbox.size(), 3);
+		// the tombstone still holds its slot
+		assertTrue(mailbox.isFull());
+		assertSame(mailbox.poll(), ms[0]);
+		// the tombstone is now at the head and reclaimed
+		assertFalse(mailbox.isFull());
+		assertTrue(mailbox.add(ms[4]));
+		assertTrue(mailbox.add(new DefaultMessage("m5")));
+		assertEquals(mailbox.size(), 4);
+		assertTrue(mailbox.isFull());
+		assertSame(mailbox.poll(), ms[2]);
+	}
+
+	@Test public void testFullRingReclaimsHeadTombstones() {
+		DefaultMessage[] ms = messages(5);
+		RingBufferMailbox mailbox = fill(OverflowPolicy.FAIL, ms);
+		assertTrue(mailbox.remove(ms[0]));
+		assertFalse(mailbox.isFull());
+		assertTrue(mailbox.add(ms[4]));
+		assertSame(mailbox.toArray()[0], ms[1]);
+	}
+}
@@ -0,0 +1,162 @@
+package com.fly.practice.actor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.After;
+import org.junit.Test;
+
+public class TimingWheelTest {
+
+	/** Never started, so messages stay in its mailbox. */
+	public static class IdleActor extends AbstractActor {
+		@Override
+		protected void loopBody(Message m) {
+		}
+	}
+
+	/** Records what the wheel releases instead of delivering it. */
+	static class RecordingManager extends DefaultActorManager {
+		final List<DefaultMessage> released = new CopyOnWriteArrayList<DefaultMessage>();
+		final List<Long> times = new CopyOnWriteArrayList<Long>();
+		final CountDownLatch latch;
+
+		RecordingManager(int count) {
+			latch = new CountDownLatch(count);
+		}
+
+		@Override
+		public void releaseDelayed(AbstractActor actor, DefaultMessage message) {
+			times.add(System.currentTimeMillis());
+			released.add(message);
+			latch.countDown();
+		}
+	}
+
+	private TimingWheel wheel;
+
+	private DefaultActorManager manager;
+
+	@After
+	public void tearDown() {
+		if (wheel != null) {
+			wheel.stop();
+		}
+		if (manager != null) {
+			manager.terminate();
+		}
+	}
+
+	private static DefaultMessage delayed(String subject, long delay) {
+		DefaultMessage res = new DefaultMessage(subject);
+		res.setDelayUntil(System.currentTimeMillis() + delay);
+		return res;
+	}
+
+	@Test public void testReleaseInDueOrder() throws Exception {
+		RecordingManager rm = new RecordingManager(3);
+		wheel = new TimingWheel(rm, 10, 64);
+		wheel.start();
+		DefaultMessage m60 = delayed("m60", 60);
+		DefaultMessage m20 = delayed("m20", 20);
+		DefaultMessage m40 = delayed("m40", 40);
+		wheel.schedule(null, m60);
+		wheel.schedule(null, m20);
+		wheel.schedule(null, m40);
+		assertEquals(wheel.getPendingCount(), 3);
+		assertTrue(rm.latch.await(1000, TimeUnit.MILLISECONDS));
+		assertSame(rm.released.get(0), m20);
+		assertSame(rm.released.get(1), m40);
+		assertSame(rm.released.get(2), m60);
+		for (int i = 0; i < 3; i++) {
+			// never early
+			assertTrue(rm.times.get(i) >= rm.released.get(i).getDelayUntil());
+		}
+		assertEquals(wheel.getPendingCount(), 0);
+	}
+
+	@Test public void testReleaseAfterOneTurn() throws Exception {
+		RecordingManager rm = new RecordingManager(1);
+		// one turn is 40ms
+		wheel = new TimingWheel(rm, 10, 4);
+		wheel.start();
+		DefaultMessage m = delayed("m", 100);
+		wheel.schedule(null, m);
+		assertTrue(rm.latch.await(1000, TimeUnit.MILLISECONDS));
+		assertTrue(rm.times.get(0) >= m.getDelayUntil());
+	}
+
+	@Test public void testWakeup() throws Exception {
+		RecordingManager rm = new RecordingManager(1);
+		wheel = new TimingWheel(rm, 10, 64);
+		wheel.start();
+		long deadline = System.currentTimeMillis() + 30;
+		wheel.scheduleWakeup(null, deadline);
+		assertTrue(rm.latch.await(1000, TimeUnit.MILLISECONDS));
+		assertNull(rm.released.get(0));
+		assertTrue(rm.times.get(0) >= deadline);
+	}
+
+	private AbstractActor fullActor(String policy) {
+		manager = new DefaultActorManager();
+		Map<String, Object> options = new HashMap<String, Object>();
+		options.put(DefaultActorManager.ACTOR_THREAD_COUNT, 1);
+		manager.initialize(options);
+		Map<String, Object> actorOptions = new HashMap<String, Object>();
+		actorOptions.put(AbstractActor.MAILBOX_CAPACITY, 1);
+		actorOptions.put(AbstractActor.OVERFLOW_POLICY, policy);
+		actorOptions.put(AbstractActor.BLOCK_MILLIS, 5000);
+		AbstractActor res = (AbstractActor) manager.createActor(IdleActor.class, "idle", actorOptions);
+		assertTrue(res.addMessage(new DefaultMessage("first")));
+		return res;
+	}
+
+	@Test public void testRefusedReleaseFails() throws Exception {
+		AbstractActor actor = fullActor("FAIL");
+		final AtomicReference<MessageEvent.MessageStatus> status = new AtomicReference<MessageEvent.MessageStatus>();
+		DefaultMessage m = delayed("late", 1);
+		Thread.sleep(5);
+		m.addMessageListener(new MessageStatusListener() {
+			@Override
+			public void onMessage(MessageEvent e) {
+			}
+
+			@Override
+			public void onMessageStatus(Object source, Message m, MessageEvent.MessageStatus s) {
+				status.set(s);
+			}
+		});
+		manager.releaseDelayed(actor, m);
+		assertEquals(status.get(), MessageEvent.MessageStatus.FAILED);
+		assertEquals(actor.getMessageCount(), 1);
+	}
+
+	@Test public void testRefusedReleaseRequeuedUnderBlock() throws Exception {
+		AbstractActor actor = fullActor("BLOCK");
+		DefaultMessage m = delayed("late", 1);
+		Thread.sleep(5);
+		long start = System.currentTimeMillis();
+		manager.releaseDelayed(actor, m);
+		// returned without waiting for room
+		assertTrue(System.currentTimeMillis() - start < 1000);
+		assertEquals(manager.getTimingWheel().getPendingCount(), 1);
+		Thread.sleep(50);
+		assertEquals(actor.getMessageCount(), 1);
+		assertTrue(actor.getMailbox().remove(actor.getMessages()[0]));
+		long deadline = System.currentTimeMillis() + 1000;
+		while (actor.getMessageCount() == 0 && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+		assertSame(actor.getMessages()[0], m);
+	}
+}
@@ -11,7 +11,9 @@ import java.nio.channels.Selector;
 import java.nio.channels.ServerSocketChannel;
 import java.nio.channels.SocketChannel;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicReference;
@@ -236,6 +238,41 @@ public class AbstractBlockingClientTest {
 		assertTrue(client.isStopped());
 	}
 	
+	@Test public void testReadTwoMessagesInOneWrite() throws Exception {
+		final CountDownLatch disconnected = new CountDownLatch(1);
+		final CountDownLatch connected = new CountDownLatch(1);
+		final List<String> messageHolder = new CopyOnWriteArrayList<String>();
+		final AtomicReference<CountDownLatch> latch = new AtomicReference<CountDownLatch>(new CountDownLatch(1));
+		client = new AbstractBlockingClient(SERVER, PORT) {
+			@Override protected void connected(boolean alreadyConnected) {connected.countDown();}
+			@Override protected void disconnected() {disconnected.countDown();}
+			@Override protected void messageReceived(ByteBuffer message) {
+				messageHolder.add(new String(message.array()));	
+				latch.get().countDown();
+			}
+		};
+		new Thread(client).start();
+		assertTrue(connected.await(1000, TimeUnit.MILLISECONDS));
+		client.write(new byte[] {111});
+		assertTrue(latch.get().await(20, TimeUnit.MILLISECONDS));
+		
+		messageHolder.clear();
+		latch.set(new CountDownLatch(2));
+		ByteBuffer both = ByteBuffer.allocate(15);
+		both.put(new byte[] {0, 6}).put("Hello!".getBytes()).put(new byte[] {0, 5}).put("Again".getBytes());
+		both.flip();
+		((SocketChannel) server.lastConnectedClient.get()).write(both);
+		assertTrue(latch.get().await(20, TimeUnit.MILLISECONDS));
+		assertEquals(messageHolder.size(), 2);
+		assertEquals(messageHolder.get(0), "Hello!");
+		assertEquals(messageHolder.get(1), "Again");
+		
+		assertTrue(client.isRunning());
+		client.stop();
+		assertTrue(disconnected.await(1000, TimeUnit.MILLISECONDS));
+		assertTrue(client.isStopped());
+	}
+	
 	@Test(expected=IllegalStateException.class) public void testWriteOverMaxLengthMessage() throws Exception {
 		final CountDownLatch disconnected = new CountDownLatch(1);
 		final CountDownLatch connected = new CountDownLatch(1);
@@ -0,0 +1,230 @@
+package com.fly.practice.nio.nioserver;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class AbstractMultiplexedClientTest {
+
+	private static final int PORT = 8100;
+	private static final InetAddress SERVER;
+	static {
+		InetAddress temp;
+		try {temp=InetAddress.getByName("localhost");} catch (Exception e) {temp=null;}
+		SERVER=temp;
+	}
+	private static AbstractServer server;
+	private AbstractMultiplexedClient client;
+
+	/**
+	 * Echoes each message, correlation id and all; a message "later" is held and echoed after the next one.
+	 */
+	@BeforeClass
+	public static void setup() throws Exception {
+		final CountDownLatch started = new CountDownLatch(1);
+		server = new AbstractServer(PORT, new TwoByteMessageLength(), 64) {
+			private byte[] held;
+			@Override protected void messageReceived(ByteBuffer message, SelectionKey key) {
+				byte[] bytes = message.array();
+				if (new String(bytes, 4, bytes.length-4).equals("later")) {
+					held = bytes;
+					return;
+				}
+				write(key, bytes);
+				if (held!=null) {
+					write(key, held);
+					held = null;
+				}
+			}
+			@Override protected void connection(SelectionKey key) {}
+			@Override protected void disconnected(SelectionKey key) {}
+			@Override protected void started(boolean alreadyStarted) {started.countDown();}
+			@Override protected void stopped() {}
+		};
+		new Thread(server).start();
+		assertTrue(started.await(1000, TimeUnit.MILLISECONDS));
+	}
+
+	@AfterClass
+	public static void tearDown() {
+		server.stop();
+	}
+
+	@After
+	public void stopClient() {
+		if (client!=null) {
+			client.stop();
+		}
+	}
+
+	private static String toString(ByteBuffer message) {
+		byte[] bytes = new byte[message.remaining()];
+		message.get(bytes);
+		return new String(bytes);
+	}
+
+	private void start(AbstractMultiplexedClient client) {
+		// connections made before it runs are queued
+		this.client = client;
+		new Thread(client).start();
+	}
+
+	@Test public void testPipelinedRequests() throws Exception {
+		final int connections = 3;
+		final int requests = 200;
+		final CountDownLatch connected = new CountDownLatch(connections);
+		final CountDownLatch replies = new CountDownLatch(connections*requests);
+		final List<String> errors = new CopyOnWriteArrayList<String>();
+		start(new AbstractMultiplexedClient(new TwoByteMessageLength(), 64) {
+			@Override protected void messageReceived(ByteBuffer message, int correlationId, Object context, Connection connection) {
+				String reply = AbstractMultiplexedClientTest.toString(message);
+				if (!reply.equals("request"+context)) {
+					errors.add(reply+" for "+context);
+				}
+				replies.countDown();
+			}
+			@Override protected void connected(Connection connection) {connected.countDown();}
+			@Override protected void disconnected(Connection connection) {}
+			@Override protected void started(boolean alreadyStarted) {}
+			@Override protected void stopped() {}
+		});
+		AbstractMultiplexedClient.Connection[] xconnections = new AbstractMultiplexedClient.Connection[connections];
+		for (int i=0; i<connections; i++) {
+			xconnections[i] = client.connect(SERVER, PORT);
+		}
+		// sent without waiting for the replies, some before connected
+		for (int i=0; i<requests; i++) {
+			for (AbstractMultiplexedClient.Connection c : xconnections) {
+				assertTrue(client.request(c, ("request"+i).getBytes(), i)>=0);
+			}
+		}
+		assertTrue(connected.await(1000, TimeUnit.MILLISECONDS));
+		assertTrue(replies.await(2000, TimeUnit.MILLISECONDS));
+		assertEquals(errors.size(), 0);
+		for (AbstractMultiplexedClient.Connection c : xconnections) {
+			assertTrue(c.isConnected());
+			assertEquals(c.getPendingCount(), 0);
+		}
+	}
+
+	@Test public void testRepliesOutOfOrder() throws Exception {
+		final CountDownLatch replies = new CountDownLatch(2);
+		final List<String> received = new CopyOnWriteArrayList<String>();
+		start(new AbstractMultiplexedClient() {
+			@Override protected void messageReceived(ByteBuffer message, int correlationId, Object context, Connection connection) {
+				received.add(correlationId+":"+context+":"+AbstractMultiplexedClientTest.toString(message));
+				replies.countDown();
+			}
+			@Override protected void connected(Connection connection) {}
+			@Override protected void disconnected(Connection connection) {}
+			@Override protected void started(boolean alreadyStarted) {}
+			@Override protected void stopped() {}
+		});
+		AbstractMultiplexedClient.Connection c = client.connect(SERVER, PORT);
+		int later = client.request(c, "later".getBytes(), "A");
+		int now = client.request(c, "now".getBytes(), "B");
+		assertTrue(replies.await(1000, TimeUnit.MILLISECONDS));
+		assertEquals(received, Arrays.asList(now+":B:now", later+":A:later"));
+	}
+
+	@Test public void testReadOverBufferLengthMessage() throws Exception {
+		final int requests = 10;
+		final CountDownLatch replies = new CountDownLatch(2*requests);
+		final List<String> errors = new CopyOnWriteArrayList<String>();
+		final StringBuilder messageBuilder = new StringBuilder();
+		for (int i=0; i<5000; i++) {
+			messageBuilder.append((char)('a'+i%26));
+		}
+		final String message = messageBuilder.toString();
+		start(new AbstractMultiplexedClient(new TwoByteMessageLength(), 64) {
+			@Override protected void messageReceived(ByteBuffer reply, int correlationId, Object context, Connection connection) {
+				if (!AbstractMultiplexedClientTest.toString(reply).equals(context)) {
+					errors.add("bad reply for "+correlationId);
+				}
+				replies.countDown();
+			}
+			@Override protected void connected(Connection connection) {}
+			@Override protected void disconnected(Connection connection) {}
+			@Override protected void started(boolean alreadyStarted) {}
+			@Override protected void stopped() {}
+		});
+		AbstractMultiplexedClient.Connection c = client.connect(SERVER, PORT);
+		for (int i=0; i<requests; i++) {
+			client.request(c, message.getBytes(), message);
+			client.request(c, ("small"+i).getBytes(), "small"+i);
+		}
+		assertTrue(replies.await(2000, TimeUnit.MILLISECONDS));
+		assertEquals(errors.size(), 0);
+	}
+
+	@Test public void testConnectFailed() throws Exception {
+		final CountDownLatch disconnected = new CountDownLatch(1);
+		final AtomicReference<Object> failed = new AtomicReference<Object>();
+		start(new AbstractMultiplexedClient() {
+			@Override protected void messageReceived(ByteBuffer message, int correlationId, Object context, Connection connection) {}
+			@Override protected void requestFailed(int correlationId, Object context, Connection connection) {failed.set(context);}
+			@Override protected void connected(Connection connection) {}
+			@Override protected void disconnected(Connection connection) {disconnected.countDown();}
+			@Override protected void started(boolean alreadyStarted) {}
+			@Override protected void stopped() {}
+		});
+		AbstractMultiplexedClient.Connection c = client.connect(SERVER, PORT+1);
+		client.request(c, "Hello!".getBytes(), "context");
+		assertTrue(disconnected.await(1000, TimeUnit.MILLISECONDS));
+		assertEquals(failed.get(), "context");
+		assertTrue(c.isClosed());
+		assertFalse(c.isConnected());
+		assertEquals(client.request(c, "Hello!".getBytes(), null), -1);
+	}
+
+	@Test public void testStop() throws Exception {
+		final CountDownLatch connected = new CountDownLatch(2);
+		final CountDownLatch disconnected = new CountDownLatch(2);
+		final CountDownLatch stopped = new CountDownLatch(1);
+		start(new AbstractMultiplexedClient() {
+			@Override protected void messageReceived(ByteBuffer message, int correlationId, Object context, Connection connection) {}
+			@Override protected void connected(Connection connection) {connected.countDown();}
+			@Override protected void disconnected(Connection connection) {disconnected.countDown();}
+			@Override protected void started(boolean alreadyStarted) {}
+			@Override protected void stopped() {stopped.countDown();}
+		});
+		AbstractMultiplexedClient.Connection c1 = client.connect(SERVER, PORT);
+		AbstractMultiplexedClient.Connection c2 = client.connect(SERVER, PORT);
+		assertTrue(connected.await(1000, TimeUnit.MILLISECONDS));
+		assertTrue(client.isRunning());
+		assertTrue(client.stop());
+		assertFalse(client.stop());
+		assertTrue(disconnected.await(1000, TimeUnit.MILLISECONDS));
+		assertTrue(stopped.await(1000, TimeUnit.MILLISECONDS));
+		assertTrue(client.isStopped());
+		assertTrue(c1.isClosed());
+		assertTrue(c2.isClosed());
+	}
+
+	@Test(expected=IllegalStateException.class) public void testWriteOverMaxLengthMessage() throws Exception {
+		start(new AbstractMultiplexedClient() {
+			@Override protected void messageReceived(ByteBuffer message, int correlationId, Object context, Connection connection) {}
+			@Override protected void connected(Connection connection) {}
+			@Override protected void disconnected(Connection connection) {}
+			@Override protected void started(boolean alreadyStarted) {}
+			@Override protected void stopped() {}
+		});
+		AbstractMultiplexedClient.Connection c = client.connect(SERVER, PORT);
+		client.request(c, new byte[70000], null);
+	}
+}
@@ -5,13 +5,19 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.Socket;
 import java.nio.ByteBuffer;
 import java.nio.channels.SelectionKey;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicReference;
@@ -451,8 +457,8 @@ public class AbstractServerTest
         os.write("Hello!".getBytes());
         os.flush();
         assertTrue(messageLatch.await(20, TimeUnit.MILLISECONDS));
-        byte[] message = new byte[64000];
-        for (int i = 0; i < 64000; i++ )
+        byte[] message = new byte[70000];
+        for (int i = 0; i < 70000; i++ )
         {
             message[i] = 111;
         }
@@ -505,6 +511,384 @@ public class AbstractServerTest
         assertTrue(disconnected.await(20, TimeUnit.MILLISECONDS));
     }
 
+    @Test
+    public void testWorkers()
+        throws Exception
+    {
+        final CountDownLatch localServerStarted = new CountDownLatch(1);
+        final CountDownLatch localServerStopped = new CountDownLatch(1);
+        final Set<String> readers = Collections.synchronizedSet(new HashSet<String>());
+        AbstractServer localServer = new AbstractServer(PORT + 2, new TwoByteMessageLength(), 512, 2)
+        {
+            @Override
+            protected void disconnected(SelectionKey key)
+            {}
+
+            @Override
+            protected void messageReceived(ByteBuffer message, SelectionKey key)
+            {
+                readers.add(Thread.currentThread().getName());
+                write(key, message.array());
+            }
+
+            @Override
+            protected void started(boolean alreadyStarted)
+            {
+                localServerStarted.countDown();
+            }
+
+            @Override
+            protected void stopped()
+            {
+                localServerStopped.countDown();
+            }
+
+            @Override
+            protected void connection(SelectionKey key)
+            {}
+        };
+        assertEquals(localServer.getWorkerCount(), 2);
+        new Thread(localServer).start();
+        assertTrue(localServerStarted.await(1000, TimeUnit.MILLISECONDS));
+        Socket[] sockets = new Socket[4];
+        for (int i = 0; i < sockets.length; i++ )
+        {
+            sockets[i] = new Socket("localhost", PORT + 2);
+            OutputStream os = sockets[i].getOutputStream();
+            os.write(0);
+            os.write("Hello0".length());
+            os.write(("Hello" + i).getBytes());
+            os.flush();
+        }
+        for (int i = 0; i < sockets.length; i++ )
+        {
+            InputStream is = sockets[i].getInputStream();
+            assertEquals(is.read(), 0);
+            assertEquals(is.read(), "Hello0".length());
+            byte[] message = new byte["Hello0".length()];
+            for (int j = 0; j < message.length; j++ )
+            {
+                message[j] = (byte)is.read();
+            }
+            assertEquals(new String(message), "Hello" + i);
+            sockets[i].close();
+        }
+        // connections are spread across the workers, not read on the server thread
+        assertEquals(readers.size(), 2);
+        assertTrue(localServer.stop());
+        assertTrue(localServerStopped.await(1000, TimeUnit.MILLISECONDS));
+        assertTrue(localServer.isStopped());
+    }
+
+    @Test
+    public void testWriteBackpressure()
+        throws Exception
+    {
+        final CountDownLatch localServerStarted = new CountDownLatch(1);
+        final CountDownLatch localServerStopped = new CountDownLatch(1);
+        final CountDownLatch notWritable = new CountDownLatch(1);
+        final CountDownLatch writable = new CountDownLatch(1);
+        final AtomicReference<SelectionKey> localKey = new AtomicReference<SelectionKey>();
+        final CountDownLatch localConnection = new CountDownLatch(1);
+        AbstractServer localServer = new AbstractServer(PORT + 3)
+        {
+            @Override
+            protected void disconnected(SelectionKey key)
+            {}
+
+            @Override
+            protected void messageReceived(ByteBuffer message, SelectionKey key)
+            {}
+
+            @Override
+            protected void started(boolean alreadyStarted)
+            {
+                localServerStarted.countDown();
+            }
+
+            @Override
+            protected void stopped()
+            {
+                localServerStopped.countDown();
+            }
+
+            @Override
+            protected void connection(SelectionKey key)
+            {
+                localKey.set(key);
+                localConnection.countDown();
+            }
+
+            @Override
+            protected void writabilityChanged(SelectionKey key, boolean isWritable)
+            {
+                (isWritable ? writable : notWritable).countDown();
+            }
+        };
+        localServer.setWriteWatermarks(64 * 1024, 256 * 1024);
+        new Thread(localServer).start();
+        assertTrue(localServerStarted.await(1000, TimeUnit.MILLISECONDS));
+        Socket sc = new Socket("localhost", PORT + 3);
+        assertTrue(localConnection.await(1000, TimeUnit.MILLISECONDS));
+        // far more than the socket buffers hold while the client does not read
+        int count = 700;
+        int falseCount = 0;
+        for (int i = 0; i < count; i++ )
+        {
+            byte[] message = new byte[30000];
+            message[message.length - 1] = (byte)i;
+            if (!localServer.write(localKey.get(), message))
+            {
+                falseCount++ ;
+            }
+        }
+        assertTrue(falseCount > 0);
+        assertTrue(notWritable.await(0, TimeUnit.MILLISECONDS));
+        assertFalse(localServer.isWritable(localKey.get()));
+        DataInputStream is = new DataInputStream(new BufferedInputStream(sc.getInputStream()));
+        byte[] message = new byte[30000];
+        for (int i = 0; i < count; i++ )
+        {
+            assertEquals(is.readUnsignedShort(), 30000);
+            is.readFully(message);
+            for (int j = 0; j < 29999; j++ )
+            {
+                assertEquals(message[j], 0);
+            }
+            assertEquals(message[29999], (byte)i);
+        }
+        assertTrue(writable.await(1000, TimeUnit.MILLISECONDS));
+        assertTrue(localServer.isWritable(localKey.get()));
+        sc.close();
+        assertTrue(localServer.stop());
+        assertTrue(localServerStopped.await(1000, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void testZeroCopyReads()
+        throws Exception
+    {
+        final CountDownLatch localServerStarted = new CountDownLatch(1);
+        final CountDownLatch localServerStopped = new CountDownLatch(1);
+        final List<String> localMessages = new CopyOnWriteArrayList<String>();
+        final AtomicReference<CountDownLatch> localLatch = new AtomicReference<CountDownLatch>(
+            new CountDownLatch(3));
+        AbstractServer localServer = new AbstractServer(PORT + 4, new TwoByteMessageLength(), 16)
+        {
+            @Override
+            protected void disconnected(SelectionKey key)
+            {}
+
+            @Override
+            protected void messageReceived(ByteBuffer message, SelectionKey key)
+            {
+                // a view of the read buffer; copy it
+                byte[] bytes = new byte[message.remaining()];
+                message.get(bytes);
+                localMessages.add((message.isDirect() ? "direct:" : "heap:") + new String(bytes));
+                localLatch.get().countDown();
+            }
+
+            @Override
+            protected void started(boolean alreadyStarted)
+            {
+                localServerStarted.countDown();
+            }
+
+            @Override
+            protected void stopped()
+            {
+                localServerStopped.countDown();
+            }
+
+            @Override
+            protected void connection(SelectionKey key)
+            {}
+        };
+        localServer.setZeroCopyReads(true);
+        new Thread(localServer).start();
+        assertTrue(localServerStarted.await(1000, TimeUnit.MILLISECONDS));
+        Socket sc = new Socket("localhost", PORT + 4);
+        OutputStream os = sc.getOutputStream();
+        // two messages in one write, then one split
+        os.write(new byte[] {0, 6, 'H', 'e', 'l', 'l', 'o', '!', 0, 5, 'A', 'g', 'a', 'i', 'n', 0, 6, 'S', 'p'});
+        os.flush();
+        Thread.sleep(20);
+        os.write("lit!".getBytes());
+        os.flush();
+        assertTrue(localLatch.get().await(1000, TimeUnit.MILLISECONDS));
+        assertEquals(localMessages.size(), 3);
+        assertEquals(localMessages.get(0), "direct:Hello!");
+        assertEquals(localMessages.get(1), "direct:Again");
+        assertEquals(localMessages.get(2), "direct:Split!");
+
+        // longer than the read buffer, after the end of a partial one
+        localLatch.set(new CountDownLatch(2));
+        StringBuilder messageBuilder = new StringBuilder();
+        for (int i = 0; i < 100; i++ )
+        {
+            messageBuilder.append((char)('a' + i % 26));
+        }
+        String message = messageBuilder.toString();
+        os.write(new byte[] {0, 4, 'A', 'B', 'C', 'D'});
+        os.write(toByte((short)message.length()));
+        os.write(message.getBytes());
+        os.flush();
+        assertTrue(localLatch.get().await(1000, TimeUnit.MILLISECONDS));
+        assertEquals(localMessages.get(3), "direct:ABCD");
+        assertEquals(localMessages.get(4), "direct:" + message);
+        sc.close();
+        assertTrue(localServer.stop());
+        assertTrue(localServerStopped.await(1000, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void testVarIntMessageLength()
+        throws Exception
+    {
+        final CountDownLatch localServerStarted = new CountDownLatch(1);
+        final CountDownLatch localServerStopped = new CountDownLatch(1);
+        final MessageLength varInt = new VarIntMessageLength();
+        AbstractServer localServer = new AbstractServer(PORT + 5, varInt, 16)
+        {
+            @Override
+            protected void disconnected(SelectionKey key)
+            {}
+
+            @Override
+            protected void messageReceived(ByteBuffer message, SelectionKey key)
+            {
+                byte[] bytes = new byte[message.remaining()];
+                message.get(bytes);
+                write(key, bytes);
+            }
+
+            @Override
+            protected void started(boolean alreadyStarted)
+            {
+                localServerStarted.countDown();
+            }
+
+            @Override
+            protected void stopped()
+            {
+                localServerStopped.countDown();
+            }
+
+            @Override
+            protected void connection(SelectionKey key)
+            {}
+        };
+        new Thread(localServer).start();
+        assertTrue(localServerStarted.await(1000, TimeUnit.MILLISECONDS));
+        Socket sc = new Socket("localhost", PORT + 5);
+        OutputStream os = sc.getOutputStream();
+        DataInputStream is = new DataInputStream(new BufferedInputStream(sc.getInputStream()));
+        // a one byte length, then one over the two byte maximum
+        byte[] message = new byte[70000];
+        for (int i = 0; i < message.length; i++ )
+        {
+            message[i] = (byte)('a' + i % 26);
+        }
+        os.write(new byte[] {6, 'H', 'e', 'l', 'l', 'o', '!'});
+        os.write(varInt.lengthToBytes(message.length));
+        os.write(message);
+        os.flush();
+        assertEquals(is.readByte(), 6);
+        byte[] hello = new byte[6];
+        is.readFully(hello);
+        assertEquals(new String(hello), "Hello!");
+        byte[] length = new byte[3];
+        is.readFully(length);
+        assertEquals(varInt.bytesToLength(length), message.length);
+        byte[] echo = new byte[message.length];
+        is.readFully(echo);
+        assertEquals(new String(echo), new String(message));
+        sc.close();
+        assertTrue(localServer.stop());
+        assertTrue(localServerStopped.await(1000, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void testBadMessageLength()
+        throws Exception
+    {
+        checkBadMessageLength(PORT + 6, false);
+    }
+
+    @Test
+    public void testBadMessageLengthZeroCopy()
+        throws Exception
+    {
+        checkBadMessageLength(PORT + 7, true);
+    }
+
+    /**
+     * A client sending a negative length is disconnected; the server keeps serving the next client.
+     */
+    private void checkBadMessageLength(int port, boolean zeroCopyReads)
+        throws Exception
+    {
+        final CountDownLatch localServerStarted = new CountDownLatch(1);
+        final CountDownLatch localServerStopped = new CountDownLatch(1);
+        final CountDownLatch localDisconnected = new CountDownLatch(1);
+        AbstractServer localServer = new AbstractServer(port, new FourByteMessageLength(), 16)
+        {
+            @Override
+            protected void disconnected(SelectionKey key)
+            {
+                localDisconnected.countDown();
+            }
+
+            @Override
+            protected void messageReceived(ByteBuffer message, SelectionKey key)
+            {
+                byte[] bytes = new byte[message.remaining()];
+                message.get(bytes);
+                write(key, bytes);
+            }
+
+            @Override
+            protected void started(boolean alreadyStarted)
+            {
+                localServerStarted.countDown();
+            }
+
+            @Override
+            protected void stopped()
+            {
+                localServerStopped.countDown();
+            }
+
+            @Override
+            protected void connection(SelectionKey key)
+            {}
+        };
+        localServer.setZeroCopyReads(zeroCopyReads);
+        new Thread(localServer).start();
+        assertTrue(localServerStarted.await(1000, TimeUnit.MILLISECONDS));
+        Socket bad = new Socket("localhost", port);
+        OutputStream os = bad.getOutputStream();
+        os.write(new byte[] {(byte)0xff, (byte)0xff, (byte)0xff, (byte)0xff, 'H', 'i'});
+        os.flush();
+        assertTrue(localDisconnected.await(1000, TimeUnit.MILLISECONDS));
+        assertTrue(localServer.isRunning());
+
+        Socket sc = new Socket("localhost", port);
+        os = sc.getOutputStream();
+        DataInputStream is = new DataInputStream(sc.getInputStream());
+        os.write(new byte[] {0, 0, 0, 6, 'H', 'e', 'l', 'l', 'o', '!'});
+        os.flush();
+        assertEquals(is.readInt(), 6);
+        byte[] hello = new byte[6];
+        is.readFully(hello);
+        assertEquals(new String(hello), "Hello!");
+        bad.close();
+        sc.close();
+        assertTrue(localServer.stop());
+        assertTrue(localServerStopped.await(1000, TimeUnit.MILLISECONDS));
+    }
+
     public static byte[] toByte(short data)
     {
         return new byte[] {(byte)((data >>> 8) & 0xff), (byte)(data & 0xff)};
@@ -0,0 +1,109 @@
+package com.fly.practice.nio.nioserver;
+
+import static org.junit.Assert.assertEquals;
+
+import java.nio.ByteBuffer;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class FourByteMessageLengthTest {
+
+	private MessageLength messageLength;
+	
+	@Before public void setup() {
+		messageLength = new FourByteMessageLength();
+	}
+	
+	private void assertArrayEquals(byte[] arr1, byte[] arr2) {
+		assertEquals(arr1.length, arr2.length);
+		for (int i=0; i< arr1.length; i++) {
+			assertEquals(arr1[i], arr2[i]);
+		}
+	}
+	
+	@Test public void testToBytes() {
+		assertArrayEquals(messageLength.lengthToBytes(34), new byte[] {0, 0, 0, 34});
+	}
+	
+	@Test public void testToLength() {
+		assertEquals(messageLength.bytesToLength(new byte[] {0, 0, 0, 34}), 34);
+	}
+	
+	@Test public void testToBytesZero() {
+		assertArrayEquals(messageLength.lengthToBytes(0), new byte[] {0, 0, 0, 0});
+	}
+	
+	@Test public void testToLengthZero() {
+		assertEquals(messageLength.bytesToLength(new byte[] {0, 0, 0, 0}), 0);
+	}
+	
+	@Test public void testToBytesOverTwoBytes() {
+		assertArrayEquals(messageLength.lengthToBytes(151209), new byte[] {0, 2, 78, -87});
+	}
+	
+	@Test public void testToLengthOverTwoBytes() {
+		assertEquals(messageLength.bytesToLength(new byte[] {0, 2, 78, -87}), 151209);
+	}
+	
+	@Test public void testToBytesMax() {
+		assertArrayEquals(messageLength.lengthToBytes(Integer.MAX_VALUE), new byte[] {127, -1, -1, -1});
+	}
+	
+	@Test public void testToLengthMax() {
+		assertEquals(messageLength.bytesToLength(new byte[] {127, -1, -1, -1}), Integer.MAX_VALUE);
+	}
+	
+	@Test public void testReadLength() {
+		ByteBuffer buffer = ByteBuffer.wrap(new byte[] {9, 0, 2, 78, -87, 5});
+		buffer.position(1);
+		assertEquals(messageLength.readLength(buffer), 151209);
+		assertEquals(buffer.position(), 5);
+	}
+	
+	@Test public void testReadLengthIncomplete() {
+		ByteBuffer buffer = ByteBuffer.wrap(new byte[] {0, 2, 78});
+		assertEquals(messageLength.readLength(buffer), -1);
+		assertEquals(buffer.position(), 0);
+	}
+	
+	@Test public void testWriteLength() {
+		ByteBuffer buffer = ByteBuffer.allocate(5);
+		buffer.put((byte)9);
+		messageLength.writeLength(buffer, 151209);
+		assertEquals(buffer.position(), 5);
+		assertArrayEquals(buffer.array(), new byte[] {9, 0, 2, 78, -87});
+	}
+	
+	@Test(expected=IllegalStateException.class) public void testToBytesNegative() {
+		messageLength.lengthToBytes(-1);
+	}
+	
+	@Test(expected=IllegalStateException.class) public void testToBytesToBig() {
+		messageLength.lengthToBytes(Integer.MAX_VALUE+1L);
+	}
+	
+	@Test(expected=IllegalStateException.class) public void testToLengthNegative() {
+		messageLength.bytesToLength(new byte[] {-1, -1, -1, -1});
+	}
+	
+	@Test(expected=IllegalStateException.class) public void testToLengthShort() {
+		messageLength.bytesToLength(new byte[] {0, 2, 78});
+	}
+	
+	@Test(expected=IllegalStateException.class) public void testWriteLengthToBig() {
+		messageLength.writeLength(ByteBuffer.allocate(4), Integer.MAX_VALUE+1L);
+	}
+	
+	@Test(expected=NullPointerException.class) public void testToLengthNull() {
+		messageLength.bytesToLength(null);
+	}
+	
+	@Test public void testByteLength() {
+		assertEquals(messageLength.byteLength(), 4);
+	}
+	
+	@Test public void testMaxLength() {
+		assertEquals(messageLength.maxLength(), Integer.MAX_VALUE);
+	}
+}
@@ -0,0 +1,133 @@
+package com.fly.practice.nio.nioserver;
+
+import static org.junit.Assert.assertEquals;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class VarIntMessageLengthTest {
+
+	private MessageLength messageLength;
+	
+	@Before public void setup() {
+		messageLength = new VarIntMessageLength();
+	}
+	
+	private void assertArrayEquals(byte[] arr1, byte[] arr2) {
+		assertEquals(arr1.length, arr2.length);
+		for (int i=0; i< arr1.length; i++) {
+			assertEquals(arr1[i], arr2[i]);
+		}
+	}
+	
+	@Test public void testToBytesZero() {
+		assertArrayEquals(messageLength.lengthToBytes(0), new byte[] {0});
+	}
+	
+	@Test public void testToLengthZero() {
+		assertEquals(messageLength.bytesToLength(new byte[] {0}), 0);
+	}
+	
+	@Test public void testToBytesOneByte() {
+		assertArrayEquals(messageLength.lengthToBytes(127), new byte[] {127});
+	}
+	
+	@Test public void testToLengthOneByte() {
+		assertEquals(messageLength.bytesToLength(new byte[] {127}), 127);
+	}
+	
+	@Test public void testToBytesTwoBytes() {
+		assertArrayEquals(messageLength.lengthToBytes(300), new byte[] {-84, 2});
+	}
+	
+	@Test public void testToLengthTwoBytes() {
+		assertEquals(messageLength.bytesToLength(new byte[] {-84, 2}), 300);
+	}
+	
+	@Test public void testToBytesThreeBytes() {
+		assertArrayEquals(messageLength.lengthToBytes(70000), new byte[] {-16, -94, 4});
+	}
+	
+	@Test public void testToLengthThreeBytes() {
+		assertEquals(messageLength.bytesToLength(new byte[] {-16, -94, 4}), 70000);
+	}
+	
+	@Test public void testToBytesMax() {
+		assertArrayEquals(messageLength.lengthToBytes(Integer.MAX_VALUE), new byte[] {-1, -1, -1, -1, 7});
+	}
+	
+	@Test public void testToLengthMax() {
+		assertEquals(messageLength.bytesToLength(new byte[] {-1, -1, -1, -1, 7}), Integer.MAX_VALUE);
+	}
+	
+	@Test public void testReadLength() {
+		ByteBuffer buffer = ByteBuffer.wrap(new byte[] {9, -84, 2, 5});
+		buffer.position(1);
+		assertEquals(messageLength.readLength(buffer), 300);
+		assertEquals(buffer.position(), 3);
+	}
+	
+	@Test public void testReadLengthIncomplete() {
+		ByteBuffer buffer = ByteBuffer.wrap(new byte[] {-16, -94});
+		assertEquals(messageLength.readLength(buffer), -1);
+		assertEquals(buffer.position(), 0);
+	}
+	
+	@Test public void testWriteLength() {
+		ByteBuffer buffer = ByteBuffer.allocate(4);
+		buffer.put((byte)9);
+		messageLength.writeLength(buffer, 70000);
+		assertEquals(buffer.position(), 4);
+		assertArrayEquals(buffer.array(), new byte[] {9, -16, -94, 4});
+	}
+	
+	@Test public void testWriteLengthNoRoom() {
+		ByteBuffer buffer = ByteBuffer.allocate(2);
+		try {
+			messageLength.writeLength(buffer, 70000);
+		} catch (BufferOverflowException e) {
+			assertEquals(buffer.position(), 0);
+			return;
+		}
+		throw new AssertionError("no BufferOverflowException");
+	}
+	
+	@Test(expected=IllegalStateException.class) public void testToBytesNegative() {
+		messageLength.lengthToBytes(-1);
+	}
+	
+	@Test(expected=IllegalStateException.class) public void testToBytesToBig() {
+		messageLength.lengthToBytes(Integer.MAX_VALUE+1L);
+	}
+	
+	@Test(expected=IllegalStateException.class) public void testToLengthToBig() {
+		messageLength.bytesToLength(new byte[] {-1, -1, -1, -1, 15});
+	}
+	
+	@Test(expected=IllegalStateException.class) public void testToLengthTooLong() {
+		messageLength.bytesToLength(new byte[] {-1, -1, -1, -1, -1, 1});
+	}
+	
+	@Test(expected=IllegalStateException.class) public void testToLengthShort() {
+		messageLength.bytesToLength(new byte[] {-16, -94});
+	}
+	
+	@Test(expected=IllegalStateException.class) public void testToLengthExtraBytes() {
+		messageLength.bytesToLength(new byte[] {34, 1});
+	}
+	
+	@Test(expected=NullPointerException.class) public void testToLengthNull() {
+		messageLength.bytesToLength(null);
+	}
+	
+	@Test public void testByteLength() {
+		assertEquals(messageLength.byteLength(), 5);
+	}
+	
+	@Test public void testMaxLength() {
+		assertEquals(messageLength.maxLength(), Integer.MAX_VALUE);
+	}
+}